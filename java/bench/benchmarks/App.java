@@ -0,0 +1,108 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.sql.Date;
+import java.util.List;
+
+/**
+ * Bridge from the benchmarks to the application classes.  JMH refuses
+ * benchmarks in the default package and named packages cannot import
+ * default package classes, so the application is reached through method
+ * handles resolved once.  Held in static finals, the handles are constant
+ * folded by the JIT and add no measurable cost.
+ */
+final class App{
+	private static final MethodHandle NEW_DBPROJECT;
+	private static final MethodHandle RUN_COMMAND;
+	private static final MethodHandle CLEANUP;
+	private static final MethodHandle PARSE_DATE;
+	private static final MethodHandle RETURN_RESULT;
+	private static final MethodHandle FOR_RESULT;
+	private static final MethodHandle BOOK_CRUISE;
+	private static final MethodHandle FIND_SEATS;
+	private static final MethodHandle REPAIRS_PER_SHIP;
+	private static final MethodHandle GET_SEAT_CACHE;
+	private static final MethodHandle INVALIDATE_SEATS;
+	private static final MethodHandle QUERY_FOR_INT;
+	private static final Field INPUT;
+
+	static{
+		try{
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			Class<?> db = Class.forName("DBproject");
+			Class<?> seats = Class.forName("SeatCache");
+			NEW_DBPROJECT = lookup.unreflectConstructor(db.getConstructor(
+				String.class, String.class, String.class, String.class, int.class));
+			RUN_COMMAND = lookup.unreflect(db.getMethod("runCommand", db, String[].class));
+			CLEANUP = lookup.unreflect(db.getMethod("cleanup"));
+			PARSE_DATE = lookup.unreflect(db.getMethod("parseDate", String.class));
+			RETURN_RESULT = lookup.unreflect(db.getMethod("executeQueryAndReturnResult", String.class, Object[].class));
+			FOR_RESULT = lookup.unreflect(db.getMethod("executeQueryForResult", String.class, Object[].class));
+			BOOK_CRUISE = lookup.unreflect(db.getMethod("bookCruise", int.class, int.class));
+			FIND_SEATS = lookup.unreflect(db.getMethod("findSeats", int.class, Date.class));
+			REPAIRS_PER_SHIP = lookup.unreflect(db.getMethod("repairsPerShip"));
+			GET_SEAT_CACHE = lookup.unreflect(db.getMethod("getSeatCache"));
+			INVALIDATE_SEATS = lookup.unreflect(seats.getMethod("invalidate", int.class));
+			QUERY_FOR_INT = lookup.unreflect(db.getMethod("queryForInt", String.class, Object[].class));
+			INPUT = db.getDeclaredField("in");
+			INPUT.setAccessible(true);
+		}catch (Exception e){
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private App(){
+	}
+
+	static Object connect(String dbname, String port, String user, int poolSize) throws Throwable {
+		return NEW_DBPROJECT.invoke(dbname, port, user, "", poolSize);
+	}
+
+	static void runCommand(Object esql, String... command) throws Throwable {
+		RUN_COMMAND.invoke(esql, command);
+	}
+
+	static void cleanup(Object esql) throws Throwable {
+		CLEANUP.invoke(esql);
+	}
+
+	static void setInput(BufferedReader in) throws IllegalAccessException {
+		INPUT.set(null, in);
+	}
+
+	static String parseDate(String prefix) throws Throwable {
+		return (String) PARSE_DATE.invoke(prefix);
+	}
+
+	@SuppressWarnings("unchecked")
+	static List<List<String>> executeQueryAndReturnResult(Object esql, String query) throws Throwable {
+		return (List<List<String>>) RETURN_RESULT.invoke(esql, query, new Object[0]);
+	}
+
+	static Object executeQueryForResult(Object esql, String query) throws Throwable {
+		return FOR_RESULT.invoke(esql, query, new Object[0]);
+	}
+
+	static int queryForInt(Object esql, String query) throws Throwable {
+		return (int) QUERY_FOR_INT.invoke(esql, query, new Object[0]);
+	}
+
+	static Object bookCruise(Object esql, int ccid, int cnum) throws Throwable {
+		return BOOK_CRUISE.invoke(esql, ccid, cnum);
+	}
+
+	static Object findSeats(Object esql, int cnum, Date departure) throws Throwable {
+		return FIND_SEATS.invoke(esql, cnum, departure);
+	}
+
+	static Object repairsPerShip(Object esql) throws Throwable {
+		return REPAIRS_PER_SHIP.invoke(esql);
+	}
+
+	static void invalidateSeats(Object esql, int cnum) throws Throwable {
+		INVALIDATE_SEATS.invoke(GET_SEAT_CACHE.invoke(esql), cnum);
+	}
+}
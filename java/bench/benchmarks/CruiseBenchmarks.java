@@ -0,0 +1,99 @@
+package benchmarks;
+
+import java.sql.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the database backed hot paths: result materialization,
+ * booking, seat availability and the repairs-per-ship report, each at 1x,
+ * 10x and 100x of the bundled data.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CruiseBenchmarks{
+	private static final String ALL_RESERVATIONS = "SELECT * FROM Reservation";
+	private static final String ALL_CRUISES = "SELECT * FROM Cruise";
+
+	/**
+	 * A cruise with a ship assigned and its departure date, picked once per
+	 * iteration so availability lookups hit a known cruise.
+	 */
+	@State(Scope.Thread)
+	public static class Cruise{
+		int cnum;
+		Date departure;
+
+		@Setup(Level.Iteration)
+		public void pick(Database db) throws Throwable {
+			List<List<String>> row = App.executeQueryAndReturnResult(db.esql,
+				"SELECT C.cnum, C.actual_departure_date FROM Cruise C, CruiseInfo CI " +
+				"WHERE CI.cruise_id = C.cnum ORDER BY random() LIMIT 1");
+			this.cnum = Integer.parseInt(row.get(0).get(0));
+			this.departure = Date.valueOf(row.get(0).get(1));
+		}
+	}
+
+	@Benchmark
+	public Object materializeReservationsAsStrings(Database db) throws Throwable {
+		return App.executeQueryAndReturnResult(db.esql, ALL_RESERVATIONS);
+	}
+
+	@Benchmark
+	public Object materializeReservationsTyped(Database db) throws Throwable {
+		return App.executeQueryForResult(db.esql, ALL_RESERVATIONS);
+	}
+
+	@Benchmark
+	public Object materializeCruisesAsStrings(Database db) throws Throwable {
+		return App.executeQueryAndReturnResult(db.esql, ALL_CRUISES);
+	}
+
+	@Benchmark
+	public Object materializeCruisesTyped(Database db) throws Throwable {
+		return App.executeQueryForResult(db.esql, ALL_CRUISES);
+	}
+
+	@Benchmark
+	public Object bookCruise(Database db) throws Throwable {
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+		try{
+			return App.bookCruise(db.esql, r.nextInt(db.customers), r.nextInt(db.cruises));
+		}catch (java.sql.SQLException e){
+			//a random cruise may have no ship assigned
+			return e;
+		}
+	}
+
+	@Benchmark
+	public Object seatsCached(Database db, Cruise cruise) throws Throwable {
+		return App.findSeats(db.esql, cruise.cnum, cruise.departure);
+	}
+
+	@Benchmark
+	public Object seatsUncached(Database db, Cruise cruise) throws Throwable {
+		App.invalidateSeats(db.esql, cruise.cnum);
+		return App.findSeats(db.esql, cruise.cnum, cruise.departure);
+	}
+
+	@Benchmark
+	public Object repairsPerShip(Database db) throws Throwable {
+		return App.repairsPerShip(db.esql);
+	}
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A connected DBproject over a local PostgreSQL database reloaded with the
+ * bundled data scaled by the scale parameter.  The database must already
+ * have the schema (sql/create.sql), functions (sql/functions.sql) and
+ * summaries (sql/summaries.sql); its tables are emptied and reloaded once
+ * per trial.
+ *
+ * Connection settings come from system properties: bench.db (default
+ * ${USER}_DB), bench.port (default 9999, as in startPostgreSQL.sh),
+ * bench.user (default ${USER}) and bench.data (default ../data).
+ */
+@State(Scope.Benchmark)
+public class Database{
+	@Param({"1", "10", "100"})
+	public int scale;
+
+	Object esql;
+	//key ranges of the loaded data, for picking random ids
+	int customers;
+	int cruises;
+
+	@Setup(Level.Trial)
+	public void load() throws Throwable {
+		String user = System.getProperty("bench.user", System.getProperty("user.name"));
+		String db = System.getProperty("bench.db", user + "_DB");
+		String port = System.getProperty("bench.port", "9999");
+		File source = new File(System.getProperty("bench.data", "../data"));
+
+		File dir = Files.createTempDirectory("cruise-x" + this.scale).toFile();
+		ScaledData.write(source, dir, this.scale);
+
+		this.esql = App.connect(db, port, user, 16);
+		App.runCommand(this.esql, "reload", dir.getPath());
+		for (File f : dir.listFiles()) f.delete();
+		dir.delete();
+
+		this.customers = App.queryForInt(this.esql, "SELECT MAX(id) + 1 FROM Customer");
+		this.cruises = App.queryForInt(this.esql, "SELECT MAX(cnum) + 1 FROM Cruise");
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws Throwable {
+		App.cleanup(this.esql);
+	}
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of DBproject.parseDate.  The prompt input is fed from an
+ * endless in-memory reader and the prompts themselves are discarded, so only
+ * the validation is measured.  Needs no database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseDateBenchmark{
+	private PrintStream stdout;
+
+	//repeats the same text forever
+	static final class CyclingReader extends Reader{
+		private final char[] text;
+		private int pos = 0;
+
+		CyclingReader(String text){
+			this.text = text.toCharArray();
+		}
+
+		public int read(char[] buf, int off, int len){
+			for (int i = 0; i < len; ++i) {
+				buf[off + i] = this.text[this.pos];
+				if (++this.pos == this.text.length) this.pos = 0;
+			}
+			return len;
+		}
+
+		public void close(){
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.stdout = System.out;
+		System.setOut(new PrintStream(new OutputStream(){
+			public void write(int b){
+			}
+			public void write(byte[] b, int off, int len){
+			}
+		}));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		System.setOut(this.stdout);
+	}
+
+	@Benchmark
+	public String numericMonth() throws Throwable {
+		App.setInput(new BufferedReader(new CyclingReader("2014\n05\n01\n"), 16));
+		return App.parseDate("departure");
+	}
+
+	@Benchmark
+	public String namedMonthLeapDay() throws Throwable {
+		App.setInput(new BufferedReader(new CyclingReader("2016\nFebruary\n29\n"), 16));
+		return App.parseDate("departure");
+	}
+}
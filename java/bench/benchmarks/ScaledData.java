@@ -0,0 +1,104 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes copies of data/*.csv scaled by an integer factor.  Copy k of every
+ * row has its key and foreign key columns shifted by k times the key range
+ * of the referenced table, so the scaled data set keeps the shape of the
+ * bundled one (same fan-out per cruise, ship and customer) and loads without
+ * key conflicts.
+ */
+final class ScaledData{
+	//file -> {column index, referenced file} pairs; column 0 is the key
+	private static final String[][] FILES = {
+		{"customer.csv"},
+		{"Captains.csv"},
+		{"Ships.csv"},
+		{"technician.csv"},
+		{"Cruises.csv"},
+		{"reservation.csv", "1", "customer.csv", "2", "Cruises.csv"},
+		{"Cruiseinfo.csv", "1", "Cruises.csv", "2", "Captains.csv", "3", "Ships.csv"},
+		{"repairs.csv", "3", "Captains.csv", "4", "Ships.csv", "5", "technician.csv"},
+		{"schedule.csv", "1", "Cruises.csv"}
+	};
+
+	private ScaledData(){
+	}
+
+	/**
+	 * Writes the scaled files into dir.
+	 *
+	 * @param source the directory holding the bundled csv files
+	 * @param dir the output directory
+	 * @param scale the number of copies of every row
+	 */
+	static void write(File source, File dir, int scale) throws IOException {
+		Map<String, Integer> range = new HashMap<String, Integer>();
+		for (String[] f : FILES) {
+			range.put(f[0], maxKey(new File(source, f[0])) + 1);
+		}
+		dir.mkdirs();
+		for (String[] f : FILES) {
+			List<String[]> rows = read(new File(source, f[0]));
+			BufferedWriter out = new BufferedWriter(new FileWriter(new File(dir, f[0])), 256 * 1024);
+			try{
+				for (int k = 0; k < scale; ++k) {
+					for (String[] row : rows) {
+						for (int c = 0; c < row.length; ++c) {
+							if (c > 0) out.write(',');
+							out.write(shift(row[c], c, f, k, range));
+						}
+						out.write('\n');
+					}
+				}
+			}finally{
+				out.close();
+			}
+		}
+	}
+
+	private static String shift(String value, int column, String[] file, int copy, Map<String, Integer> range){
+		if (copy == 0) return value;
+		if (column == 0) {
+			return Integer.toString(Integer.parseInt(value) + copy * range.get(file[0]));
+		}
+		for (int i = 1; i < file.length; i += 2) {
+			if (Integer.parseInt(file[i]) == column) {
+				return Integer.toString(Integer.parseInt(value) + copy * range.get(file[i + 1]));
+			}
+		}
+		return value;
+	}
+
+	private static int maxKey(File f) throws IOException {
+		int max = -1;
+		for (String[] row : read(f)) {
+			max = Math.max(max, Integer.parseInt(row[0]));
+		}
+		return max;
+	}
+
+	private static List<String[]> read(File f) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		try{
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.isEmpty()) rows.add(line.split(",", -1));
+			}
+		}finally{
+			in.close();
+		}
+		return rows;
+	}
+}
@@ -1,9 +1,11 @@
 #!/bin/bash
 
-# Indicate the path of the java compiler to use
-export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+# Indicate the path of the java compiler to use. The bundled postgresql-42
+# driver needs Java 8 or newer; JAVA_HOME may be set by the caller, and
+# defaults to the JDK of the javac on the PATH.
+export JAVA_HOME=${JAVA_HOME:-$(dirname "$(dirname "$(readlink -f "$(command -v javac)")")")}
 export PATH=$JAVA_HOME/bin:$PATH
 
 # Export classpath with the postgressql driver
 export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
-javac -cp ".;lib/postgresql-42.1.4.jar;" src/DBproject.java -d bin/
+javac -cp "lib/postgresql-42.1.4.jar" src/*.java -d bin/
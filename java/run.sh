@@ -2,6 +2,28 @@
 DBNAME=$1
 PORT=$2
 USER=$3
+shift 3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER
+# Extra arguments (pool size, command) are passed on to DBproject.
+#
+# FAST=1 starts in fast startup mode (-Dstartup.fast=true) with an AppCDS
+# archive of the application and driver classes (Java 13+).  CDS only
+# archives classes from jars, so bin/ is packed into dbproject.jar first.
+# The first run dumps the archive at exit, later runs map it; rebuilding
+# the jar drops the archive.
+CP="lib/*:bin/"
+JAVA_ARGS=""
+if [ -n "$FAST" ]; then
+	if [ ! -f dbproject.jar ] || [ -n "$(find bin -name '*.class' -newer dbproject.jar | head -1)" ]; then
+		jar cf dbproject.jar -C bin . && rm -f dbproject.jsa
+	fi
+	CP="lib/postgresql-42.1.4.jar:dbproject.jar"
+	if [ -f dbproject.jsa ]; then
+		JAVA_ARGS="-XX:SharedArchiveFile=dbproject.jsa -Xshare:auto"
+	else
+		JAVA_ARGS="-XX:ArchiveClassesAtExit=dbproject.jsa"
+	fi
+	JAVA_ARGS="$JAVA_ARGS -Dstartup.fast=true"
+fi
+java $JAVA_ARGS $JAVA_OPTS -cp "$CP" DBproject $DBNAME $PORT $USER "$@"
@@ -0,0 +1,115 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class moves departed cruises, with their reservations, ship
+ * assignment and schedule, to the history tables through the
+ * archive_departed function (sql/archive.sql).  Each batch of at most
+ * archive.batchSize (default 100) cruises is one short transaction, and
+ * archive.pauseMs (default 0) is slept between batches, so archiving a
+ * long history does not hold locks or saturate the database for its whole
+ * run.
+ *
+ */
+
+public class Archiver{
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	private static final String ARCHIVE_QUERY =
+		"SELECT archived_cnum, archived_reservations FROM archive_departed(?, ?)";
+
+	private final DBproject _esql;
+	private final int _batchSize;
+	private final long _pauseMs;
+
+	private final AtomicLong _cruises = new AtomicLong();
+	private final AtomicLong _reservations = new AtomicLong();
+	private final AtomicLong _batches = new AtomicLong();
+
+	/**
+	 * The outcome of one archiving run.
+	 */
+	public static class Summary{
+		public final int cruises;
+		public final long reservations;
+		public final int batches;
+		public final long millis;
+
+		Summary(int cruises, long reservations, int batches, long millis){
+			this.cruises = cruises;
+			this.reservations = reservations;
+			this.batches = batches;
+			this.millis = millis;
+		}
+
+		public String toString(){
+			return "archived " + this.cruises + " cruises, " + this.reservations + " reservations in " +
+				this.batches + " batches, " + this.millis + " ms";
+		}
+	}//end Summary
+
+	public Archiver(DBproject esql){
+		this._esql = esql;
+		this._batchSize = Integer.getInteger("archive.batchSize", DEFAULT_BATCH_SIZE);
+		this._pauseMs = Long.getLong("archive.pauseMs", 0L);
+		if (this._batchSize < 1) {
+			throw new IllegalArgumentException("Invalid archive batch size: " + this._batchSize);
+		}
+	}
+
+	/**
+	 * Method to archive every cruise that departed before a date, one batch
+	 * at a time, until none is left.
+	 *
+	 * @param before the first departure date kept in the hot tables
+	 * @return what was archived
+	 * @throws java.sql.SQLException when a batch failed; batches before it
+	 *         stay committed
+	 */
+	public Summary archive(Date before) throws SQLException {
+		long start = System.nanoTime();
+		int cruises = 0, batches = 0;
+		long reservations = 0;
+		try{
+			while (true) {
+				QueryResult result = this._esql.executeQueryForResult(ARCHIVE_QUERY, before, this._batchSize);
+				int n = result.getRowCount();
+				if (n == 0) break;
+				long moved = 0;
+				for (int row = 0; row < n; ++row) {
+					this._esql.getSeatCache().invalidate(result.getInt(row, 0));
+					moved += result.getLong(row, 1);
+				}
+				batches++;
+				cruises += n;
+				reservations += moved;
+				this._batches.incrementAndGet();
+				this._cruises.addAndGet(n);
+				this._reservations.addAndGet(moved);
+				if (this._pauseMs > 0) {
+					try{
+						Thread.sleep(this._pauseMs);
+					}catch (InterruptedException e){
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}finally{
+			//per cruise counters of archived cruises are dropped on reload
+			if (cruises > 0) this._esql.getStatusCounters().clear();
+		}
+		return new Summary(cruises, reservations, batches, (System.nanoTime() - start) / 1000000);
+	}//end archive
+
+	/**
+	 * Method to return a one line summary of the archiving so far.
+	 *
+	 * @return the archiving counters
+	 */
+	public String getStats(){
+		return "cruises=" + this._cruises.get() + " reservations=" + this._reservations.get() +
+			" batches=" + this._batches.get();
+	}
+}//end Archiver
@@ -0,0 +1,282 @@
+import java.sql.Date;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * This class exposes the DBproject operations as non-blocking calls that
+ * return a CompletableFuture of the result value instead of printing it.
+ * Failures complete the future exceptionally with the SQLException or
+ * IllegalArgumentException the blocking operation throws.
+ *
+ * Operations run on virtual threads when the JVM provides them (Java 21+)
+ * and on async.threads platform threads otherwise (default: the connection
+ * pool size).  At most async.maxPending (default 1000) operations are
+ * queued or running; beyond that a call fails at once with a
+ * RejectedExecutionException, so a burst of callers cannot queue without
+ * bound behind the connection pool.
+ *
+ */
+
+public class AsyncOperations{
+	public static final int DEFAULT_MAX_PENDING = 1000;
+
+	private final DBproject _esql;
+	private final ExecutorService _executor;
+	private final boolean _virtual;
+	private final Semaphore _pending;
+
+	private final AtomicLong _submitted = new AtomicLong();
+	private final AtomicLong _rejected = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+
+	/**
+	 * The reports of a dashboard, fetched in parallel.
+	 */
+	public static class Dashboard{
+		//rows of (ship_id, repair_count)
+		public final QueryResult repairs;
+		//rows of (ship_id, repair_count, mj_count, mn_count, sv_count)
+		public final QueryResult topRepairs;
+		//reservations per status, in StatusCounters.STATUSES order
+		public final long[] statusCounts;
+		public final SortedMap<Integer, long[]> overview;
+		public final long millis;
+
+		Dashboard(QueryResult repairs, QueryResult topRepairs, long[] statusCounts,
+				SortedMap<Integer, long[]> overview, long millis){
+			this.repairs = repairs;
+			this.topRepairs = topRepairs;
+			this.statusCounts = statusCounts;
+			this.overview = overview;
+			this.millis = millis;
+		}
+	}//end Dashboard
+
+	public AsyncOperations(DBproject esql, int threads){
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads: " + threads);
+		}
+		this._esql = esql;
+		int maxPending = Integer.getInteger("async.maxPending", DEFAULT_MAX_PENDING);
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("Invalid number of pending operations: " + maxPending);
+		}
+		this._pending = new Semaphore(maxPending);
+		ExecutorService executor;
+		boolean virtual;
+		//Executors.newVirtualThreadPerTaskExecutor on Java 21+, found
+		//reflectively so the sources still build for Java 8
+		try{
+			executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			virtual = true;
+		}catch (Exception e){
+			final AtomicInteger n = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "async-" + n.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			virtual = false;
+		}
+		this._executor = executor;
+		this._virtual = virtual;
+	}
+
+	public CompletableFuture<Void> addShip(final int id, final String make, final String model, final int age,
+			final int seats){
+		return submit(new Callable<Void>(){
+			public Void call() throws Exception {
+				_esql.addShip(id, make, model, age, seats);
+				return null;
+			}
+		});
+	}
+
+	public CompletableFuture<Void> addCaptain(final int id, final String name, final String nationality){
+		return submit(new Callable<Void>(){
+			public Void call() throws Exception {
+				_esql.addCaptain(id, name, nationality);
+				return null;
+			}
+		});
+	}
+
+	public CompletableFuture<Void> addCruise(final int cnum, final int cost, final int sold, final int stops,
+			final Date departure, final Date arrival, final String arrivalPort, final String departurePort){
+		return submit(new Callable<Void>(){
+			public Void call() throws Exception {
+				_esql.addCruise(cnum, cost, sold, stops, departure, arrival, arrivalPort, departurePort);
+				return null;
+			}
+		});
+	}
+
+	public CompletableFuture<ScheduleIndex.Assignment> assignCruise(final int cnum, final int shipId,
+			final int captainId){
+		return submit(new Callable<ScheduleIndex.Assignment>(){
+			public ScheduleIndex.Assignment call() throws Exception {
+				return _esql.assignCruise(cnum, shipId, captainId);
+			}
+		});
+	}
+
+	public CompletableFuture<BookingEngine.Booking> bookCruise(final int ccid, final int cnum){
+		return submit(new Callable<BookingEngine.Booking>(){
+			public BookingEngine.Booking call() throws Exception {
+				return _esql.bookCruise(ccid, cnum);
+			}
+		});
+	}
+
+	public CompletableFuture<BookingEngine.Booking> cancelReservation(final int rnum){
+		return submit(new Callable<BookingEngine.Booking>(){
+			public BookingEngine.Booking call() throws Exception {
+				return _esql.cancelReservation(rnum);
+			}
+		});
+	}
+
+	/**
+	 * Method to look up the seat counters of a cruise departing on a date.
+	 *
+	 * @param cnum the cruise number
+	 * @param departure the departure date
+	 * @return the seat counters, or null when no such cruise exists
+	 */
+	public CompletableFuture<SeatCache.Entry> findSeats(final int cnum, final Date departure){
+		return submit(new Callable<SeatCache.Entry>(){
+			public SeatCache.Entry call() throws Exception {
+				return _esql.findSeats(cnum, departure);
+			}
+		});
+	}
+
+	public CompletableFuture<QueryResult> repairsPerShip(){
+		return submit(new Callable<QueryResult>(){
+			public QueryResult call() throws Exception {
+				return _esql.repairsPerShip();
+			}
+		});
+	}
+
+	public CompletableFuture<QueryResult> topRepairedShips(final int k, final String code, final Date from,
+			final Date to){
+		return submit(new Callable<QueryResult>(){
+			public QueryResult call() throws Exception {
+				return _esql.topRepairedShips(k, code, from, to);
+			}
+		});
+	}
+
+	public CompletableFuture<Long> countPassengersWithStatus(final String status){
+		return submit(new Callable<Long>(){
+			public Long call() throws Exception {
+				return _esql.countPassengersWithStatus(status);
+			}
+		});
+	}
+
+	public CompletableFuture<SortedMap<Integer, long[]>> statusOverview(){
+		return submit(new Callable<SortedMap<Integer, long[]>>(){
+			public SortedMap<Integer, long[]> call() throws Exception {
+				return _esql.statusOverview();
+			}
+		});
+	}
+
+	/**
+	 * Method to fetch every report at once.  The reports are independent,
+	 * so they run in parallel and the dashboard takes about as long as the
+	 * slowest of them.
+	 *
+	 * @param k the number of ships in the top repairs report
+	 * @return the reports; fails when any report failed
+	 */
+	public CompletableFuture<Dashboard> dashboard(int k){
+		final long start = System.nanoTime();
+		final CompletableFuture<QueryResult> repairs = repairsPerShip();
+		final CompletableFuture<QueryResult> top = topRepairedShips(k, null, null, null);
+		final CompletableFuture<SortedMap<Integer, long[]>> overview = statusOverview();
+		final CompletableFuture<?>[] counts = new CompletableFuture<?>[StatusCounters.STATUSES.length()];
+		for (int i = 0; i < counts.length; ++i) {
+			counts[i] = countPassengersWithStatus(String.valueOf(StatusCounters.STATUSES.charAt(i)));
+		}
+		CompletableFuture<?>[] all = new CompletableFuture<?>[counts.length + 3];
+		System.arraycopy(counts, 0, all, 0, counts.length);
+		all[counts.length] = repairs;
+		all[counts.length + 1] = top;
+		all[counts.length + 2] = overview;
+		return CompletableFuture.allOf(all).thenApply(new Function<Void, Dashboard>(){
+			public Dashboard apply(Void ignored){
+				long[] statusCounts = new long[counts.length];
+				for (int i = 0; i < counts.length; ++i) statusCounts[i] = (Long) counts[i].join();
+				return new Dashboard(repairs.join(), top.join(), statusCounts, overview.join(),
+					(System.nanoTime() - start) / 1000000);
+			}
+		});
+	}//end dashboard
+
+	/**
+	 * Method to stop accepting operations and wait for the running ones.
+	 */
+	public void close(){
+		this._executor.shutdown();
+		try{
+			this._executor.awaitTermination(1, TimeUnit.MINUTES);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Method to return a one line summary of the operations so far.
+	 *
+	 * @return the operation counters
+	 */
+	public String getStats(){
+		return (this._virtual ? "virtual" : "platform") + " submitted=" + this._submitted.get() +
+			" failed=" + this._failed.get() + " rejected=" + this._rejected.get();
+	}
+
+	//runs an operation on the executor, completing the future with its outcome
+	private <T> CompletableFuture<T> submit(final Callable<T> op){
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		if (!this._pending.tryAcquire()) {
+			this._rejected.incrementAndGet();
+			future.completeExceptionally(new RejectedExecutionException("Too many pending operations"));
+			return future;
+		}
+		try{
+			this._executor.execute(new Runnable(){
+				public void run(){
+					try{
+						future.complete(op.call());
+					}catch (Throwable t){
+						_failed.incrementAndGet();
+						future.completeExceptionally(t);
+					}finally{
+						_pending.release();
+					}
+				}
+			});
+			this._submitted.incrementAndGet();
+		}catch (RejectedExecutionException e){
+			this._pending.release();
+			this._rejected.incrementAndGet();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}//end submit
+}//end AsyncOperations
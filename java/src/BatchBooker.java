@@ -0,0 +1,242 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class books a file of (customer id, cruise number) pairs, one pair
+ * per line as "ccid,cnum".  Pairs are processed in chunks, one transaction
+ * per chunk: the cruises of the chunk are locked, their capacity and reserved
+ * counts read once, and the R/W status of every pair decided in memory in
+ * file order.  Reservations are written with JDBC batches (rewritten by the
+ * driver into multi-row INSERTs) and num_sold is updated once per cruise.
+ * The reservation numbers of a chunk are reserved in one round trip before
+ * its connection is borrowed, so a chunk holds one connection at a time.
+ *
+ */
+
+public class BatchBooker{
+	//default number of pairs booked per transaction
+	public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+	//locks the cruises in cnum order so concurrent batches cannot deadlock
+	private static final String LOCK_CRUISES_QUERY =
+		"SELECT C.cnum, S.seats " +
+		"FROM Cruise C, CruiseInfo CI, Ship S " +
+		"WHERE CI.cruise_id = C.cnum AND S.id = CI.ship_id AND C.cnum = ANY (?) " +
+		"ORDER BY C.cnum FOR UPDATE OF C";
+	//run after the locks are held, so its snapshot sees every booking that
+	//committed while this one waited; counted in the locking statement,
+	//a wait would only re-read the cruise rows and keep a stale count
+	private static final String RESERVED_QUERY =
+		"SELECT R.cid, COUNT(R.rnum) FROM Reservation R WHERE R.status = 'R' AND R.cid = ANY (?) GROUP BY R.cid";
+	private static final String CUSTOMERS_QUERY =
+		"SELECT C.id FROM Customer C WHERE C.id = ANY (?)";
+	private static final String INSERT_RESERVATION =
+		"INSERT INTO Reservation (rnum, ccid, cid, status) VALUES (?, ?, ?, ?)";
+	private static final String UPDATE_SOLD =
+		"UPDATE Cruise SET num_sold = num_sold + ? WHERE cnum = ?";
+
+	private final DBproject _esql;
+	private final RnumAllocator _rnums;
+	private final int _chunkSize;
+
+	/**
+	 * Counters of one booking file.
+	 */
+	public static class Summary{
+		public long lines = 0;
+		public long reserved = 0;
+		public long waitlisted = 0;
+		public long rejected = 0;
+		public long nanos = 0;
+
+		public long getBookingsPerSecond(){
+			long booked = this.reserved + this.waitlisted;
+			return this.nanos == 0 ? 0 : booked * 1000000000L / this.nanos;
+		}
+
+		public String toString(){
+			return this.lines + " lines: " + this.reserved + " reserved, " + this.waitlisted + " waitlisted, " +
+				this.rejected + " rejected in " + this.nanos / 1000000 + " ms (" + getBookingsPerSecond() +
+				" bookings/s)";
+		}
+	}
+
+	public BatchBooker(DBproject esql, RnumAllocator rnums, int chunkSize){
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		}
+		this._esql = esql;
+		this._rnums = rnums;
+		this._chunkSize = chunkSize;
+	}
+
+	/**
+	 * Method to book every pair in a file.  Malformed lines are reported on
+	 * stderr; they and pairs naming an unknown customer or cruise are
+	 * counted as rejected.
+	 *
+	 * @param file the booking file
+	 * @return the counters of the file
+	 * @throws java.sql.SQLException when a chunk could not be written; the
+	 *         chunks before it stay committed
+	 * @throws java.io.IOException when the file could not be read
+	 */
+	public Summary book(File file) throws SQLException, IOException {
+		Summary summary = new Summary();
+		long start = System.nanoTime();
+		int[] ccids = new int[this._chunkSize];
+		int[] cnums = new int[this._chunkSize];
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try{
+			String line;
+			int n = 0;
+			while ((line = reader.readLine()) != null) {
+				summary.lines++;
+				if (line.trim().isEmpty()) continue;
+				//parsed in place, see Validator
+				int comma = line.indexOf(',');
+				ccids[n] = comma < 0 ? Validator.INVALID : Validator.parseInt(line, 0, comma);
+				cnums[n] = comma < 0 ? Validator.INVALID : Validator.parseInt(line, comma + 1, line.length());
+				if (ccids[n] == Validator.INVALID || cnums[n] == Validator.INVALID) {
+					System.err.println(file.getName() + ":" + summary.lines + ": expected ccid,cnum");
+					summary.rejected++;
+					continue;
+				}
+				if (++n == this._chunkSize) {
+					bookChunk(ccids, cnums, n, summary);
+					n = 0;
+				}
+			}
+			if (n > 0) {
+				bookChunk(ccids, cnums, n, summary);
+			}
+		}finally{
+			reader.close();
+			summary.nanos = System.nanoTime() - start;
+		}
+		return summary;
+	}//end book
+
+	//books one chunk of pairs in a single transaction
+	private void bookChunk(int[] ccids, int[] cnums, int n, Summary summary) throws SQLException {
+		Set<Integer> cruiseIds = new HashSet<Integer>();
+		Set<Integer> customerIds = new HashSet<Integer>();
+		for (int i = 0; i < n; ++i) {
+			cruiseIds.add(cnums[i]);
+			customerIds.add(ccids[i]);
+		}
+
+		//numbers for every pair, reserved before a connection is held, so the
+		//chunk never waits for a second one while it holds cruise locks;
+		//those of rejected pairs are left unused
+		int rnum = this._rnums.reserve(n);
+		ConnectionPool.PooledConnection pc = this._esql.getPool().borrow();
+		try{
+			Connection conn = pc.getConnection();
+			conn.setAutoCommit(false);
+
+			//capacity and reserved count per cruise, as {seats, reserved}
+			Map<Integer, int[]> cruises = new HashMap<Integer, int[]>();
+			PreparedStatement lock = pc.prepare(LOCK_CRUISES_QUERY);
+			lock.setArray(1, toArray(conn, cruiseIds));
+			ResultSet rs = lock.executeQuery();
+			while (rs.next()) {
+				cruises.put(rs.getInt(1), new int[]{rs.getInt(2), 0});
+			}
+			rs.close();
+			PreparedStatement reserved = pc.prepare(RESERVED_QUERY);
+			reserved.setArray(1, toArray(conn, cruiseIds));
+			rs = reserved.executeQuery();
+			while (rs.next()) {
+				int[] seats = cruises.get(rs.getInt(1));
+				if (seats != null) seats[1] = rs.getInt(2);
+			}
+			rs.close();
+
+			Set<Integer> customers = new HashSet<Integer>();
+			PreparedStatement find = pc.prepare(CUSTOMERS_QUERY);
+			find.setArray(1, toArray(conn, customerIds));
+			rs = find.executeQuery();
+			while (rs.next()) {
+				customers.add(rs.getInt(1));
+			}
+			rs.close();
+
+			//decide every status in file order
+			char[] status = new char[n];
+			for (int i = 0; i < n; ++i) {
+				int[] seats = cruises.get(cnums[i]);
+				if (seats == null || !customers.contains(ccids[i])) {
+					status[i] = 0;
+					continue;
+				}
+				if (seats[1] < seats[0]) {
+					seats[1]++;
+					status[i] = 'R';
+				} else {
+					status[i] = 'W';
+				}
+			}
+
+			PreparedStatement insert = pc.prepare(INSERT_RESERVATION);
+			Map<Integer, Integer> sold = new HashMap<Integer, Integer>();
+			for (int i = 0; i < n; ++i) {
+				if (status[i] == 0) continue;
+				insert.setInt(1, rnum++);
+				insert.setInt(2, ccids[i]);
+				insert.setInt(3, cnums[i]);
+				insert.setString(4, String.valueOf(status[i]));
+				insert.addBatch();
+				Integer count = sold.get(cnums[i]);
+				sold.put(cnums[i], count == null ? 1 : count + 1);
+			}
+			insert.executeBatch();
+
+			PreparedStatement update = pc.prepare(UPDATE_SOLD);
+			for (Map.Entry<Integer, Integer> e : sold.entrySet()) {
+				update.setInt(1, e.getValue());
+				update.setInt(2, e.getKey());
+				update.addBatch();
+			}
+			update.executeBatch();
+			conn.commit();
+
+			for (int i = 0; i < n; ++i) {
+				if (status[i] != 0) {
+					this._esql.getStatusCounters().onReservation(cnums[i], status[i]);
+				}
+				if (status[i] == 0) {
+					summary.rejected++;
+				} else if (status[i] == 'R') {
+					summary.reserved++;
+				} else {
+					summary.waitlisted++;
+				}
+			}
+			for (Integer cnum : sold.keySet()) {
+				this._esql.getSeatCache().invalidate(cnum);
+			}
+		}finally{
+			//rolls back anything left uncommitted
+			this._esql.getPool().release(pc);
+		}
+	}//end bookChunk
+
+	private static Array toArray(Connection conn, Set<Integer> ids) throws SQLException {
+		Integer[] values = ids.toArray(new Integer[ids.size()]);
+		Arrays.sort(values);
+		return conn.createArrayOf("integer", values);
+	}
+}//end BatchBooker
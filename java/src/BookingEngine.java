@@ -0,0 +1,153 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
+
+/**
+ * This class books cruises through the book_cruise server-side function
+ * (sql/functions.sql).  Validation, the reserved/waitlisted decision and the
+ * insert all happen in one transaction and one round trip, so concurrent
+ * agents can neither overbook a cruise nor hand out the same rnum.
+ *
+ */
+
+public class BookingEngine{
+	//SQLSTATE raised by book_cruise for an unknown customer or cruise
+	private static final String NO_DATA_FOUND = "P0002";
+
+	static final String BOOK_QUERY =
+		"SELECT booked_rnum, booked_status FROM book_cruise(?, ?, ?)";
+	static final String CANCEL_QUERY =
+		"SELECT cancelled_ccid, cancelled_cnum, cancelled_status FROM cancel_reservation(?)";
+
+	private final DBproject _esql;
+	private final RnumAllocator _rnums;
+	private final SeatCache _seats;
+	private final StatusCounters _statuses;
+	private final WaitlistPromoter _promoter;
+
+	//booking counters
+	private final AtomicLong _reserved = new AtomicLong();
+	private final AtomicLong _waitlisted = new AtomicLong();
+	private final AtomicLong _rejected = new AtomicLong();
+	private final AtomicLong _cancelled = new AtomicLong();
+	private final AtomicLong _nanos = new AtomicLong();
+
+	/**
+	 * The outcome of a successful booking.
+	 */
+	public static class Booking{
+		public final int rnum;
+		public final int ccid;
+		public final int cnum;
+		public final char status;
+
+		public Booking(int rnum, int ccid, int cnum, char status){
+			this.rnum = rnum;
+			this.ccid = ccid;
+			this.cnum = cnum;
+			this.status = status;
+		}
+
+		public boolean isWaitlisted(){
+			return this.status == 'W';
+		}
+	}//end Booking
+
+	public BookingEngine(DBproject esql, RnumAllocator rnums, SeatCache seats, StatusCounters statuses,
+			WaitlistPromoter promoter){
+		this._esql = esql;
+		this._rnums = rnums;
+		this._seats = seats;
+		this._statuses = statuses;
+		this._promoter = promoter;
+	}
+
+	/**
+	 * Method to book a cruise for a customer.  The reservation gets status
+	 * 'R' while the ship still has seats and 'W' once it is full.
+	 *
+	 * @param ccid the customer id
+	 * @param cnum the cruise number
+	 * @return the reservation that was inserted
+	 * @throws java.sql.SQLException when the customer or cruise does not
+	 *         exist, or the booking failed
+	 */
+	public Booking book(int ccid, int cnum) throws SQLException {
+		long start = System.nanoTime();
+		try{
+			int rnum = this._rnums.next();
+			QueryResult result = this._esql.executeQueryForResult(BOOK_QUERY, ccid, cnum, rnum);
+			Booking booking = new Booking(result.getInt(0, 0), ccid, cnum, result.getChar(0, 1));
+			this._seats.onReservation(cnum, booking.status);
+			this._statuses.onReservation(cnum, booking.status);
+			if (booking.isWaitlisted()) {
+				this._waitlisted.incrementAndGet();
+			} else {
+				this._reserved.incrementAndGet();
+			}
+			return booking;
+		}catch (SQLException e){
+			this._rejected.incrementAndGet();
+			throw unwrap(e);
+		}finally{
+			this._nanos.addAndGet(System.nanoTime() - start);
+		}
+	}//end book
+
+	/**
+	 * Method to cancel a reservation.  Cancelling a reserved ('R') seat
+	 * queues the cruise for waitlist promotion, see WaitlistPromoter.
+	 *
+	 * @param rnum the reservation number
+	 * @return the reservation that was cancelled
+	 * @throws java.sql.SQLException when the reservation does not exist, or
+	 *         the cancellation failed
+	 */
+	public Booking cancel(int rnum) throws SQLException {
+		try{
+			QueryResult result = this._esql.executeQueryForResult(CANCEL_QUERY, rnum);
+			Booking booking = new Booking(rnum, result.getInt(0, 0), result.getInt(0, 1), result.getChar(0, 2));
+			this._cancelled.incrementAndGet();
+			this._seats.onCancellation(booking.cnum, booking.status);
+			this._statuses.onCancellation(booking.cnum, booking.status);
+			if (booking.status == 'R') {
+				this._promoter.onSeatsFreed(booking.cnum);
+			}
+			return booking;
+		}catch (SQLException e){
+			throw unwrap(e);
+		}
+	}//end cancel
+
+	public RnumAllocator getRnumAllocator(){
+		return this._rnums;
+	}
+
+	/**
+	 * Method to return a one line summary of the bookings made so far.
+	 *
+	 * @return the booking counters and throughput
+	 */
+	public String getStats(){
+		long booked = this._reserved.get() + this._waitlisted.get();
+		long calls = booked + this._rejected.get();
+		long nanos = this._nanos.get();
+		long avgUs = calls == 0 ? 0 : nanos / calls / 1000;
+		return "reserved=" + this._reserved.get() + " waitlisted=" + this._waitlisted.get() +
+			" rejected=" + this._rejected.get() + " cancelled=" + this._cancelled.get() + " avgLatencyUs=" + avgUs;
+	}
+
+	//turns the "Customer not found!" style errors raised by the functions into
+	//plain messages, leaving every other error untouched
+	private static SQLException unwrap(SQLException e){
+		if (NO_DATA_FOUND.equals(e.getSQLState()) && e instanceof PSQLException) {
+			ServerErrorMessage msg = ((PSQLException) e).getServerErrorMessage();
+			if (msg != null) {
+				return new SQLException(msg.getMessage(), e.getSQLState(), e);
+			}
+		}
+		return e;
+	}
+}//end BookingEngine
@@ -0,0 +1,331 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.
+ * Connections are borrowed by the DBproject helpers for the duration of one
+ * call and handed back afterwards, so several sessions can share a small set
+ * of already authenticated connections.
+ *
+ */
+
+public class ConnectionPool{
+	//default upper bound of physical connections
+	public static final int DEFAULT_MAX_SIZE = 8;
+	//default time a connection may stay idle before it is closed
+	public static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000L;
+	//default time a caller waits for a free connection
+	public static final long DEFAULT_BORROW_TIMEOUT_MS = 30 * 1000L;
+	//connections idle for less than this are handed out without a health check
+	private static final long VALIDATE_AFTER_MS = 5 * 1000L;
+	//seconds given to Connection.isValid during a health check
+	private static final int VALIDATE_TIMEOUT_S = 2;
+	//executions of a prepared statement before the driver switches to a
+	//named server-side prepared statement
+	public static final int DEFAULT_PREPARE_THRESHOLD = 3;
+
+	private final String _url;
+	private final Properties _props;
+	private final int _maxSize;
+	private final int _minIdle;
+	private final long _idleTimeoutMs;
+	private final long _borrowTimeoutMs;
+
+	//idle connections, most recently returned first
+	private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+	//number of physical connections currently open (idle + borrowed)
+	private final AtomicInteger _open = new AtomicInteger();
+	private final ScheduledExecutorService _evictor;
+	private volatile boolean _closed = false;
+
+	//pool metrics
+	private final AtomicLong _created = new AtomicLong();
+	private final AtomicLong _borrowed = new AtomicLong();
+	private final AtomicLong _waits = new AtomicLong();
+	private final AtomicLong _waitNanos = new AtomicLong();
+	private final AtomicLong _timeouts = new AtomicLong();
+	private final AtomicLong _evicted = new AtomicLong();
+	private final AtomicLong _broken = new AtomicLong();
+
+	/**
+	 * A physical connection owned by the pool.
+	 */
+	public static class PooledConnection{
+		private final Connection _connection;
+		private final StatementCache _statements;
+		private volatile long _lastUsed = System.currentTimeMillis();
+
+		PooledConnection(Connection connection){
+			this._connection = connection;
+			this._statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+		}
+
+		public Connection getConnection(){
+			return this._connection;
+		}
+
+		/**
+		 * Method to fetch a cached prepared statement for this connection.
+		 *
+		 * @param sql the SQL template with ? placeholders
+		 * @return the cached prepared statement, not to be closed by the caller
+		 * @throws java.sql.SQLException when the statement could not be prepared
+		 */
+		public PreparedStatement prepare(String sql) throws SQLException {
+			return this._statements.prepare(sql);
+		}
+
+		void close(){
+			this._statements.clear();
+			try{
+				this._connection.close();
+			}catch (SQLException e){
+				// ignored.
+			}
+		}
+	}//end PooledConnection
+
+	public ConnectionPool(String url, String user, String passwd, int maxSize) throws SQLException {
+		this(url, user, passwd, maxSize, 1, DEFAULT_IDLE_TIMEOUT_MS, DEFAULT_BORROW_TIMEOUT_MS);
+	}
+
+	public ConnectionPool(String url, String user, String passwd, int maxSize, int minIdle,
+			long idleTimeoutMs, long borrowTimeoutMs) throws SQLException {
+		if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: max=" + maxSize + " minIdle=" + minIdle);
+		}
+		this._url = url;
+		this._props = new Properties();
+		this._props.setProperty("user", user);
+		this._props.setProperty("password", passwd);
+		this._props.setProperty("prepareThreshold", Integer.toString(DEFAULT_PREPARE_THRESHOLD));
+		//lets the driver turn batched INSERTs into multi-row INSERTs
+		this._props.setProperty("reWriteBatchedInserts", "true");
+		this._maxSize = maxSize;
+		this._minIdle = minIdle;
+		this._idleTimeoutMs = idleTimeoutMs;
+		this._borrowTimeoutMs = borrowTimeoutMs;
+
+		// open the minimum number of connections up front so that a bad
+		// url or password is reported immediately
+		for (int i = 0; i < minIdle; ++i) {
+			this._idle.offerFirst(open());
+		}
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "pool-evictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000L, idleTimeoutMs / 2);
+		this._evictor.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to borrow a connection from the pool.  Idle connections are
+	 * reused first; a new physical connection is only opened while the pool
+	 * is below its maximum size, otherwise the caller waits for a return.
+	 *
+	 * @return a healthy connection that must be handed back with release
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this._borrowTimeoutMs);
+		boolean waited = false;
+		long waitStart = 0;
+		while (true) {
+			if (this._closed) {
+				throw new SQLException("Connection pool is closed");
+			}
+
+			PooledConnection pc = this._idle.pollFirst();
+			if (pc == null) {
+				//grow the pool if there is room left
+				int n = this._open.get();
+				if (n < this._maxSize) {
+					if (this._open.compareAndSet(n, n + 1)) {
+						try {
+							pc = connect();
+						} catch (SQLException e) {
+							this._open.decrementAndGet();
+							throw e;
+						}
+					} else {
+						continue;
+					}
+				} else {
+					//pool exhausted, wait for a connection to come back
+					if (!waited) {
+						waited = true;
+						waitStart = System.nanoTime();
+						this._waits.incrementAndGet();
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						this._timeouts.incrementAndGet();
+						throw new SQLException("Timed out waiting for a database connection");
+					}
+					try {
+						pc = this._idle.pollFirst(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted waiting for a database connection");
+					}
+					if (pc == null) {
+						continue;
+					}
+				}
+			}
+
+			if (!isHealthy(pc)) {
+				discard(pc);
+				this._broken.incrementAndGet();
+				continue;
+			}
+
+			if (waited) {
+				this._waitNanos.addAndGet(System.nanoTime() - waitStart);
+			}
+			this._borrowed.incrementAndGet();
+			return pc;
+		}
+	}//end borrow
+
+	/**
+	 * Method to hand a borrowed connection back to the pool.  Connections
+	 * left in a failed or non-autocommit state are reset or discarded so the
+	 * next borrower always starts clean.
+	 *
+	 * @param pc the connection obtained from borrow
+	 */
+	public void release(PooledConnection pc){
+		if (pc == null) return;
+		try{
+			if (this._closed || pc._connection.isClosed()) {
+				discard(pc);
+				return;
+			}
+			if (!pc._connection.getAutoCommit()) {
+				pc._connection.rollback();
+				pc._connection.setAutoCommit(true);
+			}
+		}catch (SQLException e){
+			discard(pc);
+			this._broken.incrementAndGet();
+			return;
+		}
+		pc._lastUsed = System.currentTimeMillis();
+		this._idle.offerFirst(pc);
+	}//end release
+
+	/**
+	 * Method to close every connection and stop the eviction thread.
+	 */
+	public void close(){
+		this._closed = true;
+		this._evictor.shutdownNow();
+		PooledConnection pc;
+		while ((pc = this._idle.pollFirst()) != null) {
+			discard(pc);
+		}
+	}//end close
+
+	/**
+	 * Method to return a one line summary of the pool metrics.
+	 *
+	 * @return the pool metrics
+	 */
+	public String getStats(){
+		long waits = this._waits.get();
+		long avgWaitUs = waits == 0 ? 0 : this._waitNanos.get() / waits / 1000;
+		int open = this._open.get();
+		int idle = this._idle.size();
+		return "open=" + open + " idle=" + idle + " active=" + (open - idle) + " max=" + this._maxSize +
+			" created=" + this._created.get() + " borrowed=" + this._borrowed.get() +
+			" waits=" + waits + " avgWaitUs=" + avgWaitUs + " timeouts=" + this._timeouts.get() +
+			" evicted=" + this._evicted.get() + " broken=" + this._broken.get();
+	}
+
+	public int getOpenCount(){
+		return this._open.get();
+	}
+
+	public int getIdleCount(){
+		return this._idle.size();
+	}
+
+	public int getMaxSize(){
+		return this._maxSize;
+	}
+
+	//closes connections that stayed idle longer than the idle timeout,
+	//keeping at least minIdle of them open
+	void evictIdle(){
+		long cutoff = System.currentTimeMillis() - this._idleTimeoutMs;
+		List<PooledConnection> expired = new ArrayList<PooledConnection>();
+		//oldest connections sit at the tail of the deque
+		Iterator<PooledConnection> it = this._idle.descendingIterator();
+		while (it.hasNext() && this._idle.size() - expired.size() > this._minIdle) {
+			PooledConnection pc = it.next();
+			if (pc._lastUsed >= cutoff) break;
+			expired.add(pc);
+		}
+		for (PooledConnection pc : expired) {
+			if (this._idle.remove(pc)) {
+				discard(pc);
+				this._evicted.incrementAndGet();
+			}
+		}
+	}//end evictIdle
+
+	private boolean isHealthy(PooledConnection pc){
+		if (System.currentTimeMillis() - pc._lastUsed < VALIDATE_AFTER_MS) {
+			return true;
+		}
+		try{
+			return pc._connection.isValid(VALIDATE_TIMEOUT_S);
+		}catch (SQLException e){
+			return false;
+		}
+	}
+
+	private PooledConnection open() throws SQLException {
+		this._open.incrementAndGet();
+		try{
+			return connect();
+		}catch (SQLException e){
+			this._open.decrementAndGet();
+			throw e;
+		}
+	}
+
+	private PooledConnection connect() throws SQLException {
+		Connection c = DriverManager.getConnection(this._url, this._props);
+		this._created.incrementAndGet();
+		return new PooledConnection(c);
+	}
+
+	private void discard(PooledConnection pc){
+		pc.close();
+		this._open.decrementAndGet();
+	}
+}//end ConnectionPool
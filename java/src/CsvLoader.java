@@ -0,0 +1,295 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class bulk loads the data/*.csv files through the driver's COPY API
+ * (COPY ... FROM STDIN), so the files are streamed from the client and the
+ * server needs no access to them.  Tables are loaded in foreign key order,
+ * one level at a time, with the tables of a level loaded in parallel on
+ * separate pooled connections.
+ *
+ */
+
+public class CsvLoader{
+	//size of the buffer each file is streamed through
+	private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * A table and the csv file it is loaded from.
+	 */
+	static class Table{
+		final String name;
+		final String file;
+		final String columns;
+		//kind of every column, see Validator.checkRow
+		final byte[] fields;
+
+		Table(String name, String file, String columns, byte... fields){
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+			this.fields = fields;
+		}
+	}
+
+	//tables grouped by foreign key level; a level only references earlier ones
+	static final Table[][] LEVELS = {
+		{
+			new Table("Customer", "customer.csv", "id, fname, lname, gtype, dob, address, phone, zipcode",
+				Validator.INT, Validator.TEXT, Validator.TEXT, Validator.GENDER, Validator.DATE_MDY,
+				Validator.TEXT, Validator.TEXT, Validator.TEXT),
+			new Table("Captain", "Captains.csv", "id, fullname, nationality",
+				Validator.INT, Validator.TEXT, Validator.TEXT),
+			new Table("Ship", "Ships.csv", "id, make, model, age, seats",
+				Validator.INT, Validator.TEXT, Validator.TEXT, Validator.NON_NEGATIVE, Validator.SEATS),
+			new Table("Technician", "technician.csv", "id, full_name",
+				Validator.INT, Validator.TEXT)
+		},
+		{
+			new Table("Cruise", "Cruises.csv", "cnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_port, departure_port",
+				Validator.INT, Validator.POSITIVE, Validator.NON_NEGATIVE, Validator.NON_NEGATIVE,
+				Validator.DATE, Validator.DATE, Validator.TEXT, Validator.TEXT)
+		},
+		{
+			new Table("Reservation", "reservation.csv", "rnum, ccid, cid, status",
+				Validator.INT, Validator.INT, Validator.INT, Validator.STATUS),
+			new Table("CruiseInfo", "Cruiseinfo.csv", "ciid, cruise_id, captain_id, ship_id",
+				Validator.INT, Validator.INT, Validator.INT, Validator.INT),
+			new Table("Repairs", "repairs.csv", "rid, repair_date, repair_code, captain_id, ship_id, technician_id",
+				Validator.INT, Validator.DATE, Validator.REPAIR_CODE, Validator.INT, Validator.INT, Validator.INT),
+			new Table("Schedule", "schedule.csv", "id, cruiseNum, departure_time, arrival_time",
+				Validator.INT, Validator.INT, Validator.DATE, Validator.DATE)
+		}
+	};
+
+	private static final String RELATION_EXISTS_QUERY = "SELECT COUNT(*) FROM pg_class C WHERE C.relname = ?";
+
+	//bad lines reported per file before giving up on it
+	private static final int MAX_REPORTED = 10;
+
+	private final DBproject _esql;
+	private final int _threads;
+	//check every line before anything is loaded
+	private boolean _validate = Boolean.getBoolean("load.validate");
+
+	/**
+	 * The outcome of loading one table.
+	 */
+	public static class Result{
+		public final String table;
+		public final long rows;
+		public final long nanos;
+
+		Result(String table, long rows, long nanos){
+			this.table = table;
+			this.rows = rows;
+			this.nanos = nanos;
+		}
+
+		public long getRowsPerSecond(){
+			return this.nanos == 0 ? 0 : this.rows * 1000000000L / this.nanos;
+		}
+	}
+
+	public CsvLoader(DBproject esql, int threads){
+		if (threads < 1) {
+			throw new IllegalArgumentException("Invalid thread count: " + threads);
+		}
+		this._esql = esql;
+		this._threads = threads;
+	}
+
+	public void setValidate(boolean validate){
+		this._validate = validate;
+	}
+
+	/**
+	 * Method to load every table from the csv files in a directory.
+	 *
+	 * @param dir the directory holding the csv files
+	 * @param truncate whether to empty all tables first
+	 * @return the per-table results, in load order
+	 * @throws java.sql.SQLException when a table failed to load, or failed
+	 *         validation; later levels are not started
+	 */
+	public List<Result> load(File dir, boolean truncate) throws SQLException {
+		for (Table[] level : LEVELS) {
+			for (Table t : level) {
+				File f = new File(dir, t.file);
+				if (!f.canRead()) {
+					throw new SQLException("Cannot read " + f.getPath());
+				}
+			}
+		}
+
+		if (this._validate) {
+			long invalid = 0;
+			for (Table[] level : LEVELS) {
+				for (Table t : level) {
+					try{
+						invalid += validate(t, new File(dir, t.file));
+					}catch (IOException e){
+						throw new SQLException(t.name + ": " + e.getMessage(), e);
+					}
+				}
+			}
+			if (invalid > 0) {
+				throw new SQLException(invalid + " invalid lines, nothing was loaded");
+			}
+		}
+
+		if (truncate) {
+			this._esql.executeUpdate("TRUNCATE Customer, Captain, Ship, Technician, Cruise, " +
+				"Reservation, CruiseInfo, Repairs, Schedule");
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		ExecutorService pool = Executors.newFixedThreadPool(this._threads);
+		try{
+			for (Table[] level : LEVELS) {
+				List<Future<Result>> pending = new ArrayList<Future<Result>>();
+				for (final Table t : level) {
+					final File f = new File(dir, t.file);
+					pending.add(pool.submit(new Callable<Result>(){
+						public Result call() throws Exception {
+							return copy(t, f);
+						}
+					}));
+				}
+				//wait for the whole level before its dependents start
+				SQLException failure = null;
+				for (Future<Result> p : pending) {
+					try{
+						results.add(p.get());
+					}catch (ExecutionException e){
+						if (failure == null) {
+							Throwable cause = e.getCause();
+							failure = cause instanceof SQLException ? (SQLException) cause
+								: new SQLException(cause.getMessage(), cause);
+						}
+					}catch (InterruptedException e){
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while loading");
+					}
+				}
+				if (failure != null) {
+					throw failure;
+				}
+			}
+		}finally{
+			pool.shutdownNow();
+		}
+
+		resync("reservation_rnum_seq", "rnum", "Reservation", "ReservationHistory");
+		resync("cruiseinfo_ciid_seq", "ciid", "CruiseInfo", "CruiseInfoHistory");
+		this._esql.getSeatCache().clear();
+		this._esql.getStatusCounters().clear();
+		this._esql.getResultCache().clear();
+		return results;
+	}//end load
+
+	/**
+	 * Method to move a sequence of sql/functions.sql past the ids of a loaded
+	 * table and of its archive (sql/archive.sql), so ids are never reused.
+	 * The sequence is never moved back, since ids it already handed out may
+	 * be archived or still in use by a running booking.  Sequences and
+	 * archive tables that were not created are skipped.
+	 *
+	 * @param sequence the sequence
+	 * @param column the id column
+	 * @param table the loaded table
+	 * @param history its archive table
+	 * @throws java.sql.SQLException when the sequence could not be set
+	 */
+	private void resync(String sequence, String column, String table, String history) throws SQLException {
+		if (!exists(sequence)) return;
+		StringBuilder query = new StringBuilder("SELECT setval('").append(sequence).append("', GREATEST(")
+			.append("S.last_value + CASE WHEN S.is_called THEN 1 ELSE 0 END, ")
+			.append("(SELECT COALESCE(MAX(T.").append(column).append("), -1) + 1 FROM ").append(table).append(" T)");
+		if (exists(history)) {
+			query.append(", (SELECT COALESCE(MAX(H.").append(column).append("), -1) + 1 FROM ").append(history).append(" H)");
+		}
+		query.append("), false) FROM ").append(sequence).append(" S");
+		this._esql.executeQuery(query.toString());
+	}
+
+	private boolean exists(String relation) throws SQLException {
+		return this._esql.queryForLong(RELATION_EXISTS_QUERY, relation.toLowerCase()) > 0;
+	}
+
+	/**
+	 * Method to check every line of a csv file against the columns of its
+	 * table, reporting the first bad lines.
+	 *
+	 * @param t the table
+	 * @param f the csv file
+	 * @return the number of invalid lines
+	 * @throws java.io.IOException when the file could not be read
+	 */
+	static long validate(Table t, File f) throws IOException {
+		long invalid = 0, lineNo = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(f), COPY_BUFFER_SIZE);
+		try{
+			String line;
+			while ((line = reader.readLine()) != null) {
+				++lineNo;
+				int field = Validator.checkRow(t.fields, line);
+				if (field >= 0 && ++invalid <= MAX_REPORTED) {
+					System.err.println(f.getName() + ":" + lineNo + ": " + (field < t.fields.length ?
+						"invalid " + t.columns.split(", ")[field] : "too many fields") + ": " + line);
+				}
+			}
+		}finally{
+			reader.close();
+		}
+		return invalid;
+	}//end validate
+
+	//streams one csv file into its table on a pooled connection
+	private Result copy(Table t, File f) throws SQLException, IOException {
+		String sql = "COPY " + t.name + " (" + t.columns + ") FROM STDIN WITH DELIMITER ','";
+		long start = System.nanoTime();
+		ConnectionPool.PooledConnection pc = this._esql.getPool().borrow();
+		BufferedReader reader = new BufferedReader(new FileReader(f), COPY_BUFFER_SIZE);
+		try{
+			CopyManager copy = pc.getConnection().unwrap(PGConnection.class).getCopyAPI();
+			long rows = copy.copyIn(sql, reader, COPY_BUFFER_SIZE);
+			return new Result(t.name, rows, System.nanoTime() - start);
+		}catch (SQLException e){
+			throw new SQLException(t.name + ": " + e.getMessage(), e.getSQLState(), e);
+		}finally{
+			reader.close();
+			this._esql.getPool().release(pc);
+		}
+	}//end copy
+
+	/**
+	 * Method to print the per-table results and totals.
+	 *
+	 * @param results the results returned by load
+	 * @param wallNanos the elapsed time of the whole load
+	 */
+	public static void printResults(List<Result> results, long wallNanos){
+		long total = 0;
+		for (Result r : results) {
+			System.out.println("\t" + r.table + ": " + r.rows + " rows in " + r.nanos / 1000000 + " ms (" +
+				r.getRowsPerSecond() + " rows/s)");
+			total += r.rows;
+		}
+		long rowsPerSec = wallNanos == 0 ? 0 : total * 1000000000L / wallNanos;
+		System.out.println("Loaded " + total + " rows in " + wallNanos / 1000000 + " ms (" + rowsPerSec + " rows/s)");
+	}
+}//end CsvLoader
@@ -11,19 +11,27 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Date;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.EOFException;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.time.LocalDate;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -32,19 +40,65 @@ import java.util.HashMap;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by all sessions
+	private ConnectionPool _pool = null;
+	//sends read-only queries to replicas, if any are configured
+	private ReplicaRouter _router = null;
+	//books reservations through the book_cruise server-side function
+	private BookingEngine _booking = null;
+	//per-cruise capacity and reserved seat counters
+	private SeatCache _seats = null;
+	//reservations per status, in total and per cruise
+	private StatusCounters _statuses = null;
+	//moves waitlisted reservations to reserved as seats free up
+	private WaitlistPromoter _promoter = null;
+	//moves departed cruises to the history tables
+	private Archiver _archiver = null;
+	//non-blocking, future returning form of the operations
+	private AsyncOperations _async = null;
+	//query results dropped when their tables change, see ResultCache
+	private ResultCache _results = null;
+	//sailings of every ship and captain, for conflict-free assignments
+	private ScheduleIndex _schedule = null;
+	//memory-mapped copy of the reference tables, if snapshot.file is set
+	private ReferenceSnapshot _snapshot = null;
+	//latency, row and error counts per operation and SQL template
+	private final Metrics _metrics = new Metrics();
+	//rows fetched per round trip when streaming results
+	private volatile int _fetchSize = Integer.getInteger("fetch.size", DEFAULT_FETCH_SIZE);
+	
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	//size of the buffer results are printed through
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+	//widest a printed column is padded to
+	private static final int MAX_COLUMN_WIDTH = 32;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this(dbname, dbport, user, passwd, ConnectionPool.DEFAULT_MAX_SIZE);
+	}
+	
+	public DBproject(String dbname, String dbport, String user, String passwd, int poolSize) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// obtain a pool of physical connections
+	        this._pool = new ConnectionPool(url, user, passwd, poolSize);
+	        this._router = new ReplicaRouter(System.getProperty("replicas"), dbname, user, passwd, poolSize);
+	        this._seats = new SeatCache(this, SeatCache.DEFAULT_CAPACITY);
+	        this._results = new ResultCache(this, url, user, passwd);
+	        this._statuses = new StatusCounters(this);
+	        this._promoter = new WaitlistPromoter(this);
+	        this._booking = new BookingEngine(this, new RnumAllocator(this,
+	        	Integer.getInteger("rnum.blockSize", RnumAllocator.DEFAULT_BLOCK_SIZE)), this._seats, this._statuses,
+	        	this._promoter);
+	        this._archiver = new Archiver(this);
+	        this._schedule = new ScheduleIndex(this);
+	        this._async = new AsyncOperations(this, Integer.getInteger("async.threads", poolSize));
+	        openReferenceSnapshot(System.getProperty("snapshot.file"));
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -53,133 +107,542 @@ public class DBproject{
 		}
 	}
 	
+	/**
+	 * Method to return the connection pool backing this object.
+	 * 
+	 * @return the connection pool
+	 */
+	public ConnectionPool getPool() {
+		return this._pool;
+	}
+	
+	/**
+	 * Method to return the router of read-only queries to replicas.
+	 * 
+	 * @return the replica router
+	 */
+	public ReplicaRouter getReplicaRouter() {
+		return this._router;
+	}
+	
+	/**
+	 * Method to return the engine used to book reservations.
+	 * 
+	 * @return the booking engine
+	 */
+	public BookingEngine getBookingEngine() {
+		return this._booking;
+	}
+	
+	/**
+	 * Method to return the cache of per-cruise seat counters.
+	 * 
+	 * @return the seat cache
+	 */
+	public SeatCache getSeatCache() {
+		return this._seats;
+	}
+	
+	/**
+	 * Method to return the cache of query results.
+	 * 
+	 * @return the result cache
+	 */
+	public ResultCache getResultCache() {
+		return this._results;
+	}
+	
+	/**
+	 * Method to return the index of ship and captain assignments.
+	 * 
+	 * @return the schedule index
+	 */
+	public ScheduleIndex getScheduleIndex() {
+		return this._schedule;
+	}
+	
+	/**
+	 * Method to return the memory-mapped snapshot of the reference tables.
+	 * 
+	 * @return the reference snapshot, or null when none is configured
+	 */
+	public ReferenceSnapshot getReferenceSnapshot() {
+		return this._snapshot;
+	}
+	
+	//maps the snapshot, running without one when it cannot be brought up
+	//to date, e.g. before sql/snapshot.sql was run
+	private void openReferenceSnapshot(String file) {
+		if (file == null) return;
+		ReferenceSnapshot snapshot = new ReferenceSnapshot(this, new File(file));
+		try{
+			snapshot.open();
+			this._snapshot = snapshot;
+		}catch(Exception e){
+			snapshot.close();
+			System.err.println("Reference snapshot disabled: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Method to return the per status reservation counters.
+	 * 
+	 * @return the status counters
+	 */
+	public StatusCounters getStatusCounters() {
+		return this._statuses;
+	}
+	
+	/**
+	 * Method to return the engine promoting waitlisted reservations.
+	 * 
+	 * @return the waitlist promoter
+	 */
+	public WaitlistPromoter getWaitlistPromoter() {
+		return this._promoter;
+	}
+	
+	/**
+	 * Method to return the archiver of departed cruises.
+	 * 
+	 * @return the archiver
+	 */
+	public Archiver getArchiver() {
+		return this._archiver;
+	}
+	
+	/**
+	 * Method to return the non-blocking form of the operations.
+	 * 
+	 * @return the asynchronous operations
+	 */
+	public AsyncOperations getAsync() {
+		return this._async;
+	}
+	
+	/**
+	 * Method to return the per operation and per query metrics.
+	 * 
+	 * @return the metrics
+	 */
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean ok = false;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			// fetches the cached statement object and binds the parameters
+			PreparedStatement stmt = pc.prepare (sql);
+			bind (stmt, params);
 
-		// close the instruction
-	    stmt.close ();
+			// issues the update instruction
+			rowCount = stmt.executeUpdate ();
+			ok = true;
+			return rowCount;
+		}finally{
+			this._pool.release (pc);
+			this._router.onWrite ();
+			this._metrics.recordQuery (sql, System.nanoTime () - start, rowCount, ok);
+		}
 	}//end executeUpdate
 
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * standard out.  Rows are streamed through a server-side cursor, fetchSize
+	 * rows at a time, and written through one buffered writer, so memory use
+	 * does not grow with the size of the result.
+	 * 
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		try{
+			return printResult (this._pool, query, params);
+		}finally{
+			this._router.onWrite ();
+		}
+	}
+	
+	/**
+	 * Method to execute a read-only query like executeQueryAndPrintResult,
+	 * on a replica when one is within its lag bound and this thread has not
+	 * written recently, see ReplicaRouter.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeReadQueryAndPrintResult (String query, Object... params) throws SQLException {
+		ReplicaRouter.Replica replica = this._router.route (false);
+		if (replica == null) {
+			return printResult (this._pool, query, params);
+		}
+		try{
+			return printResult (replica.pool, query, params);
+		}catch (SQLException e){
+			//not retried, rows may already have been printed
+			this._router.onFailure (replica, e);
+			throw e;
+		}
+	}
+	
+	private int printResult (ConnectionPool pool, String query, Object[] params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean ok = false;
+		PrintWriter out = new PrintWriter (new BufferedWriter (new OutputStreamWriter (System.out), OUTPUT_BUFFER_SIZE));
+		ConnectionPool.PooledConnection pc = pool.borrow ();
+		try{
+			// the driver only uses a cursor inside a transaction
+			pc.getConnection ().setAutoCommit (false);
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			// fetches the cached statement object and binds the parameters
+			PreparedStatement stmt = pc.prepare (query);
+			stmt.setFetchSize (this._fetchSize);
+			bind (stmt, params);
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+
+			/*
+			 *  obtains the metadata object for the returned result set.  The metadata
+			 *  contains row and column info.
+			 */
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
+			
+			//column widths come from the metadata, since rows are not buffered
+			String[] header = new String[numCol];
+			int[] width = new int[numCol];
+			for (int i = 0; i < numCol; ++i) {
+				header[i] = rsmd.getColumnName (i + 1);
+				width[i] = Math.max (header[i].length (), Math.min (rsmd.getColumnDisplaySize (i + 1), MAX_COLUMN_WIDTH));
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			
+			//iterates through the result set and output them to standard out.
+			boolean outputHeader = true;
+			while (rs.next()){
+				if(outputHeader){
+					for(int i = 0; i < numCol; i++){
+						printCell (out, header[i], width[i]);
+				    }
+				    out.println ();
+				    outputHeader = false;
+				}
+				for (int i=0; i<numCol; ++i)
+					printCell (out, rs.getString (i + 1), width[i]);
+				out.println ();
+				++rowCount;
+			}//end while
+			rs.close ();
+			pc.getConnection ().commit ();
+
+			long nanos = System.nanoTime () - start;
+			long rowsPerSec = nanos == 0 ? 0 : rowCount * 1000000000L / nanos;
+			out.println ("(" + rowCount + " rows, " + nanos / 1000000 + " ms, " + rowsPerSec + " rows/s)");
+			ok = true;
+			return rowCount;
+		}finally{
+			out.flush ();
+			pool.release (pc);
+			this._metrics.recordQuery (query, System.nanoTime () - start, rowCount, ok);
+		}
+	}//end printResult
+	
+	/**
+	 * Method to set how many rows executeQueryAndPrintResult fetches from
+	 * the server per round trip.
+	 * 
+	 * @param fetchSize the number of rows per fetch
+	 */
+	public void setFetchSize (int fetchSize) {
+		if (fetchSize < 1) {
+			throw new IllegalArgumentException ("Invalid fetch size: " + fetchSize);
+		}
+		this._fetchSize = fetchSize;
 	}
 	
+	//writes a value left aligned and padded to the column width
+	private static void printCell (PrintWriter out, String value, int width) {
+		if (value == null) value = "null";
+		out.write (value);
+		for (int i = value.length (); i <= width; ++i) {
+			out.write (' ');
+		}
+	}//end printCell
+	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean ok = false;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			// fetches the cached statement object and binds the parameters
+			PreparedStatement stmt = pc.prepare (query);
+			bind (stmt, params);
+			
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (); 
+		 
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+		 
+			//iterates through the result set and saves the data returned by the query. 
+			List<List<String>> result  = new ArrayList<List<String>>(); 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i) 
+					record.add(rs.getString (i)); 
+				result.add(record); 
+			}//end while 
+			rs.close (); 
+			rowCount = result.size ();
+			ok = true;
+			return result; 
+		}finally{
+			this._pool.release (pc);
+			this._router.onWrite ();
+			this._metrics.recordQuery (query, System.nanoTime () - start, rowCount, ok);
+		}
 	}//end executeQueryAndReturnResult
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
+	 * method issues the query to the DBMS and returns the results in typed
+	 * column arrays, see QueryResult.
 	 * 
-	 * @param query the input query string
-	 * @return the number of rows returned
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryResult executeQueryForResult (String query, Object... params) throws SQLException {
+		try{
+			return queryForResult (this._pool, query, params);
+		}finally{
+			this._router.onWrite ();
+		}
+	}//end executeQueryForResult
+	
+	/**
+	 * Method to execute a read-only query like executeQueryForResult, on a
+	 * replica when one is within its lag bound and this thread has not
+	 * written recently, see ReplicaRouter.  A query failing on a replica is
+	 * retried on the primary.
+	 * 
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryResult executeReadQueryForResult (String query, Object... params) throws SQLException {
+		return readQueryForResult (false, query, params);
+	}
+	
+	/**
+	 * Method to execute a read-only query whose result fills a cache shared
+	 * by every session.  Like executeReadQueryForResult, except that a
+	 * recent write by any thread sends it to the primary.
+	 * 
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryResult executeSharedReadQueryForResult (String query, Object... params) throws SQLException {
+		return readQueryForResult (true, query, params);
+	}
+	
+	/**
+	 * Method to execute a read-only query through the result cache.  The
+	 * result is reused until one of the tables changes, see ResultCache, and
+	 * is shared with other callers.
+	 * 
+	 * @param tables the tables the query reads, in lower case
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public QueryResult executeCachedQueryForResult (String[] tables, String query, Object... params) throws SQLException {
+		return this._results.get (tables, query, params);
+	}
+	
+	//cache loads read the primary, whose commits the notifications follow
+	QueryResult readFromPrimary (String query, Object[] params) throws SQLException {
+		return queryForResult (this._pool, query, params);
+	}
+	
+	private QueryResult readQueryForResult (boolean shared, String query, Object[] params) throws SQLException {
+		ReplicaRouter.Replica replica = this._router.route (shared);
+		if (replica != null) {
+			try{
+				return queryForResult (replica.pool, query, params);
+			}catch (SQLException e){
+				this._router.onFailure (replica, e);
+			}
+		}
+		return queryForResult (this._pool, query, params);
+	}
+	
+	private QueryResult queryForResult (ConnectionPool pool, String query, Object[] params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean ok = false;
+		ConnectionPool.PooledConnection pc = pool.borrow ();
+		try{
+			// fetches the cached statement object and binds the parameters
+			PreparedStatement stmt = pc.prepare (query);
+			bind (stmt, params);
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			//issues the query instruction and reads the rows column by column
+			ResultSet rs = stmt.executeQuery ();
+			QueryResult result = QueryResult.read (rs);
+			rs.close ();
+			rowCount = result.getRowCount ();
+			ok = true;
+			return result;
+		}finally{
+			pool.release (pc);
+			this._metrics.recordQuery (query, System.nanoTime () - start, rowCount, ok);
+		}
+	}//end queryForResult
+	
+	/**
+	 * Method to execute a query returning a single number, e.g. a COUNT.
+	 * 
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the first column of the first row, or 0 when it is NULL
+	 * @throws java.sql.SQLException when failed to execute the query or it
+	 *         returned no rows
+	 */
+	public int queryForInt (String query, Object... params) throws SQLException {
+		return (int) queryForLong (query, params);
+	}
+	
+	/**
+	 * Method to execute a query returning a single number, e.g. a COUNT.
+	 * 
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the first column of the first row, or 0 when it is NULL
+	 * @throws java.sql.SQLException when failed to execute the query or it
+	 *         returned no rows
+	 */
+	public long queryForLong (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		boolean ok = false;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			// fetches the cached statement object and binds the parameters
+			PreparedStatement stmt = pc.prepare (query);
+			bind (stmt, params);
 
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				if (!rs.next ()) {
+					throw new SQLException ("Query returned no rows");
+				}
+				long value = rs.getLong (1);
+				ok = true;
+				return value;
+			}finally{
+				rs.close ();
+			}
+		}finally{
+			this._pool.release (pc);
+			this._router.onWrite ();
+			this._metrics.recordQuery (query, System.nanoTime () - start, ok ? 1 : 0, ok);
+		}
+	}//end queryForLong
+	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the number of results
+	 * 
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
 		int rowCount = 0;
+		boolean ok = false;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			// fetches the cached statement object and binds the parameters
+			PreparedStatement stmt = pc.prepare (query);
+			bind (stmt, params);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			ok = true;
+			return rowCount;
+		}finally{
+			this._pool.release (pc);
+			this._router.onWrite ();
+			this._metrics.recordQuery (query, System.nanoTime () - start, rowCount, ok);
+		}
 	}
 	
+	/**
+	 * Method to bind positional parameters to a prepared statement.
+	 * 
+	 * @param stmt the prepared statement
+	 * @param params the values bound to the placeholders, in order
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i) {
+			stmt.setObject (i + 1, params[i]);
+		}
+	}//end bind
+	
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * value of sequence used for autogenerated keys.  currval is
+	 * session local, so the sequence must have been advanced on the
+	 * same pooled connection (e.g. within the same statement).
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -187,44 +650,405 @@ public class DBproject{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			Statement stmt = pc.getConnection ().createStatement ();
+			
+			ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+			int val = rs.next() ? rs.getInt(1) : -1;
+			stmt.close ();
+			return val;
+		}finally{
+			this._pool.release (pc);
+		}
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to finish pending waitlist promotions and close all pooled
+	 * physical connections.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		if (this._async != null){
+			this._async.close ();
+		}//end if
+		if (this._promoter != null){
+			this._promoter.close ();
+		}//end if
+		this._metrics.close ();
+		if (this._snapshot != null){
+			this._snapshot.close ();
+		}//end if
+		if (this._results != null){
+			this._results.close ();
+		}//end if
+		if (this._router != null){
+			this._router.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
+	/*
+	 * Operations behind the menu.  They take their input as arguments and
+	 * return results as values, so the interactive menu and the script mode
+	 * (ScriptRunner) share the same SQL.
+	 */
+	
+	static final String INSERT_SHIP = "INSERT INTO Ship (id, make, model, age, seats) VALUES (?, ?, ?, ?, ?)";
+	static final String INSERT_CAPTAIN = "INSERT INTO Captain (id, fullname, nationality) VALUES (?, ?, ?)";
+	static final String INSERT_CRUISE = "INSERT INTO Cruise (cnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_port, departure_port) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+	//tables the repair reports are read from, for the result cache
+	static final String[] REPAIRS_TABLES = {"repairs"};
+	//read from the trigger maintained summary, see sql/summaries.sql
+	static final String REPAIRS_PER_SHIP = "SELECT S.ship_id, S.repair_count " + 
+				"FROM ShipRepairSummary S " +
+				"WHERE S.repair_count > 0 " +
+				"ORDER BY S.repair_count DESC, S.ship_id";
+	//top-K ships by repair_count or a code's count, indexed by
+	//Validator.repairCodeIndex + 1; TOP_REPAIRS reads the summary and
+	//TOP_REPAIRS_BETWEEN aggregates the Repairs in a date range
+	static final String[] TOP_REPAIRS = new String[4];
+	static final String[] TOP_REPAIRS_BETWEEN = new String[4];
+	static {
+		String[] columns = {"repair_count", "mj_count", "mn_count", "sv_count"};
+		for (int i = 0; i < columns.length; ++i) {
+			TOP_REPAIRS[i] = "SELECT S.ship_id, S.repair_count, S.mj_count, S.mn_count, S.sv_count " +
+				"FROM ShipRepairSummary S " +
+				"WHERE S." + columns[i] + " > 0 " +
+				"ORDER BY S." + columns[i] + " DESC, S.ship_id LIMIT ?";
+			TOP_REPAIRS_BETWEEN[i] = "SELECT T.ship_id, T.repair_count, T.mj_count, T.mn_count, T.sv_count " +
+				"FROM (SELECT R.ship_id, COUNT(R.rid) AS repair_count, " +
+				"COUNT(R.rid) FILTER (WHERE R.repair_code = 'MJ') AS mj_count, " +
+				"COUNT(R.rid) FILTER (WHERE R.repair_code = 'MN') AS mn_count, " +
+				"COUNT(R.rid) FILTER (WHERE R.repair_code = 'SV') AS sv_count " +
+				"FROM Repairs R " +
+				"WHERE R.repair_date >= COALESCE(?::date, '-infinity') AND R.repair_date <= COALESCE(?::date, 'infinity') " +
+				"GROUP BY R.ship_id) T " +
+				"WHERE T." + columns[i] + " > 0 " +
+				"ORDER BY T." + columns[i] + " DESC, T.ship_id LIMIT ?";
+		}
+	}
+	static final String COUNT_ARCHIVED_WITH_STATUS = "SELECT COALESCE(SUM(A.reservation_count), 0)::bigint FROM ArchivedStatusSummary A WHERE A.status = ?";
+	
+	public void addShip(int id, String make, String model, int age, int seats) throws SQLException {
+		if (!Validator.isShipAge(age)) {
+			throw new IllegalArgumentException("Ship age cannot be negative");
+		}
+		if (!Validator.isShipSeats(seats)) {
+			throw new IllegalArgumentException("Number of seats must be between 0 and 500");
+		}
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			executeUpdate(INSERT_SHIP, id, make, model, age, seats);
+			ok = true;
+		}finally{
+			endOperation("add-ship", start, 1, ok);
+		}
+	}
+	
+	public void addCaptain(int id, String name, String nationality) throws SQLException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			executeUpdate(INSERT_CAPTAIN, id, name, nationality);
+			ok = true;
+		}finally{
+			endOperation("add-captain", start, 1, ok);
+		}
+	}
+	
+	public void addCruise(int cnum, int cost, int sold, int stops, Date departure, Date arrival,
+			String arrivalPort, String departurePort) throws SQLException {
+		if (!Validator.isCruiseCost(cost)) {
+			throw new IllegalArgumentException("Cruise cost can't be 0 or negative");
+		}
+		if (!Validator.isCruiseSold(sold)) {
+			throw new IllegalArgumentException("Cruises sold cannot be negative");
+		}
+		if (!Validator.isCruiseStops(stops)) {
+			throw new IllegalArgumentException("Number of cruise stops cannot be negative");
+		}
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			executeUpdate(INSERT_CRUISE, cnum, cost, sold, stops, departure, arrival, arrivalPort, departurePort);
+			ok = true;
+		}finally{
+			endOperation("add-cruise", start, 1, ok);
+		}
+	}
+	
+	/**
+	 * Method to assign a ship and captain to a cruise, refusing a ship or
+	 * captain already sailing another cruise at the time.
+	 * 
+	 * @param cnum the cruise number
+	 * @param shipId the ship id, or -1 to pick the smallest free ship
+	 * @param captainId the captain id, or -1 to pick a free captain
+	 * @return the assignment made
+	 * @throws java.sql.SQLException when the assignment conflicts or failed
+	 */
+	public ScheduleIndex.Assignment assignCruise(int cnum, int shipId, int captainId) throws SQLException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			ScheduleIndex.Assignment assignment = this._schedule.assign(cnum, shipId, captainId);
+			ok = true;
+			return assignment;
+		}finally{
+			endOperation("assign", start, 1, ok);
+		}
+	}
+	
+	/**
+	 * Method to find the smallest ship with enough seats that sails no
+	 * cruise between two dates.
+	 * 
+	 * @param from the first date
+	 * @param to the last date
+	 * @param seats the least number of seats
+	 * @return the ship id, or -1 when none is free
+	 * @throws java.sql.SQLException when the schedule could not be loaded
+	 */
+	public int findFreeShip(Date from, Date to, int seats) throws SQLException {
+		long start = System.nanoTime();
+		int ship = -1;
+		boolean ok = false;
+		try{
+			ship = this._schedule.findFreeShip(from, to, seats);
+			ok = true;
+			return ship;
+		}finally{
+			endOperation("free-ship", start, ship < 0 ? 0 : 1, ok);
+		}
+	}
+	
+	public BookingEngine.Booking bookCruise(int ccid, int cnum) throws SQLException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			BookingEngine.Booking booking = this._booking.book(ccid, cnum);
+			ok = true;
+			return booking;
+		}finally{
+			endOperation("book", start, 1, ok);
+		}
+	}
+	
+	/**
+	 * Method to cancel a reservation.  A freed reserved seat is given to the
+	 * cruise's oldest waitlisted reservation shortly after, see
+	 * WaitlistPromoter.
+	 * 
+	 * @param rnum the reservation number
+	 * @return the cancelled reservation
+	 * @throws java.sql.SQLException when the reservation does not exist or
+	 *         the cancellation failed
+	 */
+	public BookingEngine.Booking cancelReservation(int rnum) throws SQLException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			BookingEngine.Booking booking = this._booking.cancel(rnum);
+			ok = true;
+			return booking;
+		}finally{
+			endOperation("cancel", start, 1, ok);
+		}
+	}
+	
+	/**
+	 * Method to promote the waitlisted reservations of a cruise now, as far
+	 * as its free seats allow.
+	 * 
+	 * @param cnum the cruise number
+	 * @return the number of reservations promoted
+	 * @throws java.sql.SQLException when the promotion failed
+	 */
+	public int promoteWaitlist(int cnum) throws SQLException {
+		long start = System.nanoTime();
+		int promoted = -1;
+		try{
+			promoted = this._promoter.promote(cnum);
+			return promoted;
+		}finally{
+			endOperation("promote", start, Math.max(promoted, 0), promoted >= 0);
+		}
+	}
+	
+	/**
+	 * Method to look up the seat counters of a cruise departing on a date.
+	 * 
+	 * @param cnum the cruise number
+	 * @param departure the departure date
+	 * @return the seat counters, or null when no such cruise exists
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public SeatCache.Entry findSeats(int cnum, Date departure) throws SQLException {
+		long start = System.nanoTime();
+		SeatCache.Entry cruise = null;
+		boolean ok = false;
+		try{
+			cruise = this._seats.get(cnum);
+			if (cruise != null && !cruise.departsOn(departure)) cruise = null;
+			ok = true;
+			return cruise;
+		}finally{
+			endOperation("seats", start, cruise == null ? 0 : 1, ok);
+		}
+	}
+	
+	/**
+	 * Method to count repairs per ship, most repaired ship first.
+	 * 
+	 * @return rows of (ship_id, repair_count)
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public QueryResult repairsPerShip() throws SQLException {
+		long start = System.nanoTime();
+		QueryResult result = null;
+		try{
+			result = executeCachedQueryForResult(REPAIRS_TABLES, REPAIRS_PER_SHIP);
+			return result;
+		}finally{
+			endOperation("repairs", start, result == null ? 0 : result.getRowCount(), result != null);
+		}
+	}
+	
+	/**
+	 * Method to list the K most repaired ships, with their repairs per code.
+	 * Without a date range this reads K rows of the repair summary.
+	 * 
+	 * @param k the number of ships
+	 * @param code MJ, MN or SV to rank by that code's repairs, or null to
+	 *        rank by all repairs
+	 * @param from the first repair date counted, or null
+	 * @param to the last repair date counted, or null
+	 * @return rows of (ship_id, repair_count, mj_count, mn_count, sv_count)
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public QueryResult topRepairedShips(int k, String code, Date from, Date to) throws SQLException {
+		if (k < 1) {
+			throw new IllegalArgumentException("Invalid number of ships: " + k);
+		}
+		int column = code == null ? 0 : Validator.repairCodeIndex(code) + 1;
+		if (column == 0 && code != null) {
+			throw new IllegalArgumentException("Invalid repair code. Choose from MJ,MN,SV");
+		}
+		long start = System.nanoTime();
+		QueryResult result = null;
+		try{
+			result = from == null && to == null ? executeCachedQueryForResult(REPAIRS_TABLES, TOP_REPAIRS[column], k)
+				: executeCachedQueryForResult(REPAIRS_TABLES, TOP_REPAIRS_BETWEEN[column], from, to, k);
+			return result;
+		}finally{
+			endOperation("top-repairs", start, result == null ? 0 : result.getRowCount(), result != null);
+		}
+	}
+	
+	public long countPassengersWithStatus(String status) throws SQLException {
+		return countPassengersWithStatus(status, false);
+	}
+	
+	/**
+	 * Method to count the reservations with a status, optionally including
+	 * those of departed cruises moved to the history tables.
+	 * 
+	 * @param status W, C or R
+	 * @param archived whether to add the archived reservations
+	 * @return the number of reservations
+	 * @throws java.sql.SQLException when the counts could not be read
+	 */
+	public long countPassengersWithStatus(String status, boolean archived) throws SQLException {
+		if (!Validator.isStatus(status)) {
+			throw new IllegalArgumentException("Invalid status. Choose from W,R,C");
+		}
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			long count = this._statuses.getCount(status.charAt(0));
+			if (archived) count += executeReadQueryForResult(COUNT_ARCHIVED_WITH_STATUS, status).getLong(0, 0);
+			ok = true;
+			return count;
+		}finally{
+			endOperation("status", start, 1, ok);
+		}
+	}
+	
+	/**
+	 * Method to move the cruises that departed before a date, with their
+	 * reservations, ship assignment and schedule, to the history tables.
+	 * 
+	 * @param before the first departure date kept
+	 * @return what was archived
+	 * @throws java.sql.SQLException when a batch failed
+	 */
+	public Archiver.Summary archiveDeparted(Date before) throws SQLException {
+		long start = System.nanoTime();
+		Archiver.Summary summary = null;
+		try{
+			summary = this._archiver.archive(before);
+			return summary;
+		}finally{
+			endOperation("archive", start, summary == null ? 0 : summary.cruises, summary != null);
+		}
+	}
+	
+	/**
+	 * Method to return the number of reservations of every status for every
+	 * cruise that has reservations.
+	 * 
+	 * @return the W, C and R counts by cruise number, in cruise order
+	 * @throws java.sql.SQLException when the counters could not be loaded
+	 */
+	public SortedMap<Integer, long[]> statusOverview() throws SQLException {
+		long start = System.nanoTime();
+		SortedMap<Integer, long[]> overview = null;
+		try{
+			overview = this._statuses.getOverview();
+			return overview;
+		}finally{
+			endOperation("overview", start, overview == null ? 0 : overview.size(), overview != null);
+		}
+	}
+	
+	//records one call of an operation in the metrics
+	private void endOperation(String name, long start, long rows, boolean ok) {
+		this._metrics.recordOperation(name, System.nanoTime() - start, rows, ok);
+	}
+
 	/**
 	 * The main execution method
 	 * 
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [poolsize] [command [args...]]\n" +
+		            "Commands:\n" +
+		            "  load [dir]    bulk load the csv files in dir (default ../data)\n" +
+		            "  reload [dir]  empty all tables, then load\n" +
+		            "  book-file <file>...  book the ccid,cnum pairs listed in each file\n" +
+		            "  run [file]    run the commands in file (default stdin), see ScriptRunner\n" +
+		            "  workload [key=value...]  drive concurrent clients and report latencies, see Workload\n" +
+		            "  archive [date]  move cruises departed before date (default today) to the history tables\n" +
+		            "  check-schema [dir] [strict]  create the indexes in dir/create_index.sql (default ../sql)\n" +
+		            "                and warn when a hot query plan scans a large table, see SchemaCheck\n" +
+		            "  snapshot [file]  export the reference tables to file (default: snapshot.file), see ReferenceSnapshot");
 			return;
 		}//end if
 		
 		DBproject esql = null;
+		//-Dstartup.fast=true warms up connections, statements and caches
+		//before the first operation, see Warmup
+		boolean fast = Boolean.getBoolean("startup.fast");
+		StartupTimer timer = new StartupTimer();
 		
 		try{
-			System.out.println("(1)");
-			
 			try {
 				Class.forName("org.postgresql.Driver");
 			}catch(Exception e){
@@ -234,12 +1058,35 @@ public class DBproject{
 				return;
 			}
 			
-			System.out.println("(2)");
+			timer.phase("driver");
 			String dbname = args[0];
 			String dbport = args[1];
 			String user = args[2];
 			
-			esql = new DBproject (dbname, dbport, user, "");
+			// an optional pool size, then an optional command to run instead
+			// of the interactive menu
+			int next = 3;
+			int poolSize = ConnectionPool.DEFAULT_MAX_SIZE;
+			if (args.length > next && args[next].matches("^[0-9]+$")) {
+				poolSize = Integer.parseInt(args[next++]);
+			}
+			String[] command = new String[args.length - next];
+			System.arraycopy(args, next, command, 0, command.length);
+			
+			esql = new DBproject (dbname, dbport, user, "", poolSize);
+			timer.phase("connect");
+			if (fast) {
+				new Warmup(esql).run(timer);
+				timer.phase("warmup");
+			}
+			if (fast || Boolean.getBoolean("startup.report")) {
+				System.out.println("Startup: " + timer.getReport());
+			}
+			
+			if (command.length > 0) {
+				runCommand(esql, command);
+				return;
+			}
 			
 			boolean keepon = true;
 			while(keepon){
@@ -252,7 +1099,8 @@ public class DBproject{
 				System.out.println("5. List number of available seats for a given Cruise.");
 				System.out.println("6. List total number of repairs per Ship in descending order");
 				System.out.println("7. Find total number of passengers with a given status");
-				System.out.println("8. < EXIT");
+				System.out.println("8. Cancel a reservation");
+				System.out.println("9. < EXIT");
 				
 				switch (readChoice()){
 					case 1: AddShip(esql); break;
@@ -262,7 +1110,8 @@ public class DBproject{
 					case 5: ListNumberOfAvailableSeats(esql); break;
 					case 6: ListsTotalNumberOfRepairsPerShip(esql); break;
 					case 7: FindPassengersCountWithStatus(esql); break;
-					case 8: keepon = false; break;
+					case 8: CancelReservation(esql); break;
+					case 9: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -270,6 +1119,23 @@ public class DBproject{
 		}finally{
 			try{
 				if(esql != null) {
+					System.out.println("Connection pool: " + esql.getPool().getStats());
+					System.out.println("Statement cache: " + StatementCache.getStats());
+					System.out.println("Bookings: " + esql.getBookingEngine().getStats());
+					System.out.println("Seat cache: " + esql.getSeatCache().getStats());
+					System.out.println("Status counters: " + esql.getStatusCounters().getStats());
+					System.out.println("Waitlist: " + esql.getWaitlistPromoter().getStats());
+					System.out.println("Archive: " + esql.getArchiver().getStats());
+					System.out.println("Schedule: " + esql.getScheduleIndex().getStats());
+					System.out.println("Async: " + esql.getAsync().getStats());
+					System.out.println("Result cache: " + esql.getResultCache().getStats());
+					if (esql.getReferenceSnapshot() != null) {
+						System.out.println("Reference snapshot: " + esql.getReferenceSnapshot().getStats());
+					}
+					if (esql.getReplicaRouter().isEnabled()) {
+						System.out.println("Replicas: " + esql.getReplicaRouter().getStats());
+					}
+					System.out.println("Slow queries: " + esql.getMetrics().getSlowQueryCount());
 					System.out.print("Disconnecting from database...");
 					esql.cleanup ();
 					System.out.println("Done\n\nBye !");
@@ -280,6 +1146,76 @@ public class DBproject{
 		}
 	}
 
+	/**
+	 * Method to run a command given on the command line instead of the
+	 * interactive menu.
+	 * 
+	 * @param esql the database object
+	 * @param command the command name followed by its arguments
+	 * @throws java.lang.Exception when the command failed
+	 */
+	public static void runCommand(DBproject esql, String[] command) throws Exception {
+		String name = command[0];
+		if (name.equals("load") || name.equals("reload")) {
+			File dir = new File(command.length > 1 ? command[1] : "../data");
+			int threads = Math.min(4, esql.getPool().getMaxSize());
+			long start = System.nanoTime();
+			List<CsvLoader.Result> results = new CsvLoader(esql, threads).load(dir, name.equals("reload"));
+			CsvLoader.printResults(results, System.nanoTime() - start);
+		} else if (name.equals("book-file")) {
+			BatchBooker booker = new BatchBooker(esql, esql.getBookingEngine().getRnumAllocator(),
+				BatchBooker.DEFAULT_CHUNK_SIZE);
+			for (int i = 1; i < command.length; ++i) {
+				BatchBooker.Summary summary = booker.book(new File(command[i]));
+				System.out.println(command[i] + ": " + summary);
+			}
+		} else if (name.equals("run")) {
+			String file = command.length > 1 ? command[1] : "-";
+			BufferedReader script = file.equals("-") ? in : new BufferedReader(new FileReader(file));
+			ScriptRunner runner = new ScriptRunner(esql, new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out))));
+			try{
+				runner.run(script);
+			}finally{
+				if (script != in) script.close();
+			}
+			System.err.println(runner.getSummary());
+		} else if (name.equals("workload")) {
+			Workload workload = new Workload(esql);
+			workload.configure(Arrays.copyOfRange(command, 1, command.length));
+			workload.run();
+		} else if (name.equals("archive")) {
+			Date before = Date.valueOf(command.length > 1 ? LocalDate.parse(command[1]) : LocalDate.now());
+			System.out.println(esql.archiveDeparted(before));
+		} else if (name.equals("check-schema")) {
+			File dir = new File(command.length > 1 ? command[1] : "../sql");
+			boolean strict = Boolean.getBoolean("schema.strict") ||
+				(command.length > 2 && command[2].equals("strict"));
+			int warnings = new SchemaCheck(esql).run(dir);
+			if (strict && warnings > 0) {
+				throw new SQLException("Schema check failed with " + warnings + " warnings");
+			}
+		} else if (name.equals("snapshot")) {
+			ReferenceSnapshot snapshot = esql.getReferenceSnapshot();
+			if (command.length > 1 || snapshot == null) {
+				String file = command.length > 1 ? command[1] : System.getProperty("snapshot.file");
+				if (file == null) {
+					throw new IllegalArgumentException("No snapshot file given");
+				}
+				snapshot = new ReferenceSnapshot(esql, new File(file));
+				try{
+					snapshot.refresh(true);
+				}finally{
+					snapshot.close();
+				}
+			} else {
+				snapshot.refresh(true);
+			}
+			System.out.println(snapshot.getStats());
+		} else {
+			throw new IllegalArgumentException("Unknown command: " + name);
+		}
+	}//end runCommand
+
 	public static int readChoice() {
 		int input;
 		// returns only if a correct value is given.
@@ -296,107 +1232,69 @@ public class DBproject{
 		return input;
 	}//end readChoice
 	
-	 public static String parseDate(String datePrefix) {
-		String year = "";
-		String month = "";
-		String day = "";
-		 
-		try {
-			HashMap<String, String> months = new HashMap<String, String>();
+	/**
+	 * Method to read a date as year, month and day prompts.  Each part is
+	 * asked again until it is valid, see Validator.
+	 * 
+	 * @param datePrefix the name of the date shown in the prompts
+	 * @return the date as yyyy-mm-dd
+	 * @throws java.io.IOException when the input ended
+	 */
+	public static String parseDate(String datePrefix) throws IOException {
+		int year, month, day;
 		
-			months.put("january", "1");
-			months.put("february", "2");
-			months.put("march", "3");
-			months.put("april", "4");
-			months.put("may", "5");
-			months.put("june", "6");
-			months.put("july", "7");
-			months.put("august", "8");
-			months.put("september", "9");
-			months.put("october", "10");
-			months.put("november", "11");
-			months.put("december", "12");
+		System.out.print("\tEnter " + datePrefix + " year: ");
+		//check if year is 4 digits
+		while ((year = Validator.parseYear(readLine())) == Validator.INVALID) {
+			System.out.print("\tInvalid year! Please enter the correct 4-digit year.\n");
+			System.out.print("\tEnter " + datePrefix + " year: ");
+		}
 		
-			HashMap<String, Integer> days = new HashMap<String, Integer>();
+		System.out.print("\tEnter " + datePrefix + " month: ");
+		//full month name, or a number between 01-12
+		while ((month = Validator.parseMonth(readLine())) == Validator.INVALID) {
+			System.out.print("\tInvalid month! Months must be their full names, or a two-digit number between 1 and 12. Please enter the correct month.\n");
+			System.out.print("\tEnter " + datePrefix + " month: ");
+		}
 		
-			days.put("1", 31);
-			days.put("01", 31);
-			days.put("2", 28);
-			days.put("02", 28);
-			days.put("3", 31);
-			days.put("03", 31);
-			days.put("4", 30);
-			days.put("04", 30);
-			days.put("5", 31);
-			days.put("05", 31);
-			days.put("6", 30);
-			days.put("06", 30);
-			days.put("7", 31);
-			days.put("07", 31);
-			days.put("8", 31);
-			days.put("08", 31);
-			days.put("9", 30);
-			days.put("09", 30);
-			days.put("10", 31);
-			days.put("11", 30);
-			days.put("12", 31);
-			
-			while (year.equals("")) {
-				System.out.print("\tEnter " + datePrefix + " year: ");
-				year = in.readLine();
-				
-				//check if year is 4 digits
-				if (!(year.matches("^[0-9]{4}$"))) {
-					System.out.print("\tInvalid year! Please enter the correct 4-digit year.\n");
-					year = "";
-				}
-			}
-			
-			if (Integer.parseInt(year) % 4 == 0) {
-				days.put("2", 29);
-				days.put("02", 29);
-			}
-			
-			
-			while (month.equals("")) {
-				System.out.print("\tEnter " + datePrefix + " month: "); 
-				month = in.readLine();
-				
-				//check if full month input
-				if (months.get(month.toLowerCase()) == null) {
-					//check if month is between 01-12
-					if (!(month.matches("^(0{0,1}[1-9]|1[0-2])$"))) {
-						System.out.print("\tInvalid month! Months must be their full names, or a two-digit number between 1 and 12. Please enter the correct month.\n");
-						month = "";
-					}
-				} else {
-					month = months.get(month.toLowerCase());
-				}
-			}
-				    
-			while (day.equals("")) {
-				System.out.print("\tEnter " + datePrefix + " day: "); 
-				day = in.readLine(); 
+		System.out.print("\tEnter " + datePrefix + " day: ");
+		//check if day is valid for month, leap years included
+		while ((day = Validator.parseDay(readLine(), year, month)) == Validator.INVALID) {
+			System.out.print("\tInvalid day! Please enter the correct 2-digit day.\n");
+			System.out.print("\tEnter " + datePrefix + " day: ");
+		}
 		
-				//check if day is between 01-31
-				if (!(day.matches("^(0{0,1}[1-9]|[12][0-9]|3[01])$"))) {
-					System.out.print("\tInvalid day! Please enter the correct 2-digit day.\n");
-					day = "";
-				}
-				
-				//check if day is valid for month
-				if (Integer.parseInt(day) > days.get(month)) { 
-					System.out.print("\tInvalid day! Please enter the correct 2-digit day.\n");
-					day = "";
-				}
-			}
-		} catch (Exception e) {
-			System.err.println(e.getMessage()); 
+		return LocalDate.of(year, month, day).toString();
+	}
+	
+	//reads one line of input, failing at the end of the input
+	private static String readLine() throws IOException {
+		String line = in.readLine();
+		if (line == null) {
+			throw new EOFException("End of input");
 		}
-		 
-		 
-		return(year + "-" + month + "-" + day);	
-	} 
+		return line;
+	}
+	
+	//reads numbers until one is valid for the field kind, see Validator
+	private static int readInt(byte kind, String retry) throws IOException {
+		int value;
+		while (!Validator.isValid(kind, value = Validator.parseInt(readLine()))) {
+			System.out.print(retry);
+		}
+		return value;
+	}
+	
+	//reads an id until one is valid, or -1 for a blank line
+	private static int readOptionalId(String retry) throws IOException {
+		String line;
+		while (!(line = readLine()).trim().isEmpty()) {
+			int value = Validator.parseInt(line);
+			if (Validator.isValid(Validator.NON_NEGATIVE, value)) return value;
+			System.out.print(retry);
+		}
+		return -1;
+	}
 
 	public static void AddShip(DBproject esql) {//1
 		try {
@@ -404,7 +1302,7 @@ public class DBproject{
 			String shipmake, shipmodel;
 			
 			System.out.print("\tEnter ship id: "); 
-			shipid = Integer.parseInt(in.readLine()); 
+			shipid = readInt(Validator.INT, "\tShip id must be a number: ");
 			
 			System.out.print("\tEnter ship make: ");
 			shipmake = in.readLine();
@@ -413,21 +1311,12 @@ public class DBproject{
 			shipmodel = in.readLine();
 			
 			System.out.print("\tEnter ship age: ");
-			shipage = Integer.parseInt(in.readLine());
-			while(shipage < 0) {
-				System.out.println("\tShip age cannot be negative: ");
-				shipage = Integer.parseInt(in.readLine()); 
-			}
+			shipage = readInt(Validator.NON_NEGATIVE, "\tShip age cannot be negative: ");
 			
 			System.out.print("\tEnter number of seats: ");
-			shipseats = Integer.parseInt(in.readLine());
-			while(!(shipseats > 0 && shipseats < 500)) {
-				System.out.print("\tNumber of seats must be between 0 and 500: ");
-				shipseats = Integer.parseInt(in.readLine()); 
-			}
+			shipseats = readInt(Validator.SEATS, "\tNumber of seats must be between 0 and 500: ");
 			
-			String query = "INSERT INTO Ship (id, make, model, age, seats) VALUES (" + shipid + ",'" + shipmake + "'," +  "'" + shipmodel + "'," + shipage + ',' + shipseats + ')';
-			esql.executeUpdate(query);  //insert the ship
+			esql.addShip(shipid, shipmake, shipmodel, shipage, shipseats);  //insert the ship
 			System.out.println("Ship inserted successfully!"); 
 			
 		} catch (Exception e) {
@@ -440,7 +1329,7 @@ public class DBproject{
 			int capId; 
 			String capName, capNation; 
 			System.out.print("\tEnter captain id: ");
-			capId = Integer.parseInt(in.readLine());
+			capId = readInt(Validator.INT, "\tCaptain id must be a number: ");
 			
 			System.out.print("\tEnter captain name: ");
 			capName = in.readLine();
@@ -448,8 +1337,7 @@ public class DBproject{
 			System.out.print("\tEnter captain nationality: ");
 			capNation = in.readLine(); 
 			
-			String query = "INSERT INTO Captain (id, fullname, nationality) VALUES (" + capId + ",'" + capName + "','" + capNation + "')";
-			esql.executeUpdate(query);
+			esql.addCaptain(capId, capName, capNation);
 			System.out.println("Captain inserted successfully!"); 
 		} catch (Exception e) {
 			System.err.println(e.getMessage()); 
@@ -463,28 +1351,16 @@ public class DBproject{
 			//int month, year, day;
 			String depDate, arrDate, arrPort, depPort;
 			System.out.print("\tEnter cruise number: ");
-			cruiseNum = Integer.parseInt(in.readLine());
+			cruiseNum = readInt(Validator.INT, "\tCruise number must be a number: ");
 			
 			System.out.print("\tEnter cruise cost: ");
-			cruiseCost = Integer.parseInt(in.readLine()); 
-			while(!(cruiseCost > 0)) { 
-				System.out.print("\tCruise cost can't be 0 or negative. Enter correct cost: ");
-				cruiseCost = Integer.parseInt(in.readLine()); 
-			}
+			cruiseCost = readInt(Validator.POSITIVE, "\tCruise cost can't be 0 or negative. Enter correct cost: ");
 			
 			System.out.print("\tEnter cruises sold: "); 
-			cruiseSold = Integer.parseInt(in.readLine());
-			while(!(cruiseSold >= 0)) {
-				System.out.print("\tCruises sold must be positive. Enter correct cruises sold: "); 
-				cruiseSold = Integer.parseInt(in.readLine()); 
-			}
+			cruiseSold = readInt(Validator.NON_NEGATIVE, "\tCruises sold must be positive. Enter correct cruises sold: ");
 			     
 			System.out.print("\tEnter cruise stops: ");
-			cruiseStops = Integer.parseInt(in.readLine());
-			while(cruiseStops < 0) {
-				System.out.print("\tNumber of cruise stops cannot be negative: ");
-				cruiseStops = Integer.parseInt(in.readLine());
-			}
+			cruiseStops = readInt(Validator.NON_NEGATIVE, "\tNumber of cruise stops cannot be negative: ");
 			
 			/*System.out.print("\tEnter departure year: ");
 			year = Integer.parseInt(in.readLine()); 
@@ -540,9 +1416,22 @@ public class DBproject{
 			System.out.print("\tEnter departure port: "); 
 			depPort = in.readLine(); 
 			      
-			String query = "INSERT INTO Cruise (cnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_port, departure_port) VALUES (" + cruiseNum + ',' + cruiseCost + ',' + cruiseSold + ',' + cruiseStops + ",'" + depDate + "','" + arrDate + "','" + arrPort + "','" + depPort + "')"; 
-			esql.executeUpdate(query);
-			System.out.print("Cruise inserted successfully"); 
+			esql.addCruise(cruiseNum, cruiseCost, cruiseSold, cruiseStops, Date.valueOf(depDate), Date.valueOf(arrDate), arrPort, depPort);
+			System.out.println("Cruise inserted successfully"); 
+			
+			// a cruise can only be booked once it has a ship and captain
+			try {
+				System.out.print("\tEnter ship id (blank for a free ship): ");
+				int shipId = readOptionalId("\tShip id must be a number: ");
+				System.out.print("\tEnter captain id (blank for a free captain): ");
+				int captainId = readOptionalId("\tCaptain id must be a number: ");
+				System.out.println("Assigned " + esql.assignCruise(cruiseNum, shipId, captainId));
+			} catch (Exception e) {
+				// the insert is already committed, so the cruise is kept unassigned
+				System.err.println(e.getMessage());
+				System.err.println("Cruise " + cruiseNum + " was inserted without a ship and captain and cannot be booked " +
+					"until it has one; assign it with the run command: assign " + cruiseNum + " <ship|*> <captain|*>");
+			}
 		}
 		catch (Exception e) {
 			System.err.println(e.getMessage()); 
@@ -557,72 +1446,26 @@ public class DBproject{
 		// reservation (Waitlisted/Confirmed/Reserved) and add the reservation to the database with appropriate status.
 		
 		// Reservation(rnum, ccid, cid, status)
-		// rnum = sequential id?
+		// rnum = sequential id
 		// ccid = customer_id
 		// cid = cruise number
 		// status = W, C, or R
 		
+		// existence checks, the seat count and the insert all run inside the
+		// book_cruise function so concurrent bookings cannot overbook
 		try {
-			String rnum, ccid, cnum;
-			String status;
-			
-			
-			// if rnum generated by DB, need to assign sequentially w/ trigger in best case
-			rnum = esql.executeQueryAndReturnResult("SELECT MAX(R.rnum) FROM Reservation R").get(0).get(0);
-			rnum = Integer.toString(Integer.parseInt(rnum) + 1);
+			int ccid, cnum;
 			
-			// need to check if customer exists
 			System.out.print("\tEnter customer id: "); 
-			ccid = in.readLine(); 
+			ccid = readInt(Validator.INT, "\tCustomer id must be a number: ");
 			
-			String verifyCustomerQuery = "SELECT * FROM Customer C WHERE C.id = " + ccid;
-			List<List<String>> customer = esql.executeQueryAndReturnResult(verifyCustomerQuery);
-			if (customer.isEmpty()) {
-				System.out.print("\tCustomer not found!\n"); 
-				return;
-			}
-			
-			// need to check if cruise exists
 			System.out.print("\tEnter cruise number: "); 
-			cnum = in.readLine(); 
-			
-			String verifyCruiseQuery = "SELECT * FROM Cruise C WHERE C.cnum = " + cnum;
-			List<List<String>> cruise = esql.executeQueryAndReturnResult(verifyCruiseQuery);
-			if (cruise.isEmpty()) {
-				System.out.print("\tCruise not found!\n"); 
-				return;
-			}
+			cnum = readInt(Validator.INT, "\tCruise number must be a number: ");
 			
 			// if reservation for cruise is full, status = waitlist 'W'
 			// if not full, status = reserved 'R'
-			
-			
-			String countReservationQuery = "SELECT COUNT(R.rnum) " + 
-						  "FROM Reservation R " +
-						  "WHERE R.status = 'R' AND R.cid = " + cnum;
-			List<List<String>> reservations = esql.executeQueryAndReturnResult(countReservationQuery);
-			String numReservations = reservations.get(0).get(0);
-			
-			
-			String findSeatsQuery = "SELECT S.seats " +
-						"FROM Ship S, CruiseInfo CI " +
-						"WHERE S.id = CI.ship_id AND CI.cruise_id = " + cnum;
-			
-			List<List<String>> seats = esql.executeQueryAndReturnResult(findSeatsQuery);
-			String numSeats = seats.get(0).get(0);
-			
-			if (Integer.parseInt(numReservations) >= Integer.parseInt(numSeats)) {
-				status = "W";
-			} else {
-				status = "R";
-			}
-			
-			
-			String query = "INSERT INTO Reservation (rnum, ccid, cid, status) VALUES ("
-				+ rnum + "," + ccid + "," + cnum + ",'" + status + "')";
-			esql.executeUpdate("UPDATE Cruise SET num_sold = num_sold + 1 WHERE cnum = " + cnum);
-			esql.executeUpdate(query);
-			System.out.println("Reservation inserted successfully!");
+			BookingEngine.Booking booking = esql.bookCruise(ccid, cnum);
+			System.out.println("Reservation " + booking.rnum + " inserted successfully with status " + booking.status + "!");
 			
 		} catch (Exception e) {
 			System.err.println(e.getMessage()); 
@@ -645,36 +1488,20 @@ public class DBproject{
 			String depDate; 
 			
 			System.out.print("\tEnter cruise number: "); 
-			cnum = Integer.parseInt(in.readLine()); 
+			cnum = readInt(Validator.INT, "\tCruise number must be a number: "); 
 			
 			depDate = parseDate("departure");
 			
-			// total ship capacity
-			// also check if cruise with exists
-			String searchShipQuery = "SELECT S.seats " +
-						 "FROM Ship S, CruiseInfo CI, Cruise C " +
-						 "WHERE CI.ship_id = S.id AND CI.cruise_id = " + cnum + " AND C.cnum = CI.cruise_id AND C.actual_departure_date = '" + depDate + "'";
-			
-			List<List<String>> shipCapacity = esql.executeQueryAndReturnResult(searchShipQuery);
+			// total ship capacity and booked seats (R reservations), served
+			// from the seat cache; also checks if the cruise exists
+			SeatCache.Entry cruise = esql.findSeats(cnum, Date.valueOf(depDate));
 			
-			if (shipCapacity.isEmpty()) {
+			if (cruise == null) {
 				System.out.print("\tCruise not found!\n"); 
 			} else { 
-				String capacity = shipCapacity.get(0).get(0);
-				System.out.print("\tShip Capacity: " + capacity + "\n");
-				// need to get result from above query to subtract below
-			
-				// booked seats = R reservations
-				String bookedSeatsQuery = "SELECT COUNT(R.rnum) " + 
-						  	"FROM Reservation R " +
-						  	"WHERE R.status = 'R' AND R.cid = " + cnum;
-				List<List<String>> bookedSeats = esql.executeQueryAndReturnResult(bookedSeatsQuery);
-				
-				String seats = bookedSeats.get(0).get(0);
-				System.out.print("\tBooked Seats: " + seats + "\n");
-				
-				int available = Integer.parseInt(capacity) - Integer.parseInt(seats);
-				System.out.print("\tAvailable Seats: " + Integer.toString(available) + "\n");
+				System.out.print("\tShip Capacity: " + cruise.capacity + "\n");
+				System.out.print("\tBooked Seats: " + cruise.getReserved() + "\n");
+				System.out.print("\tAvailable Seats: " + cruise.getAvailable() + "\n");
 			}
 		} catch (Exception e) {
 			System.err.println(e.getMessage()); 
@@ -684,12 +1511,14 @@ public class DBproject{
 	public static void ListsTotalNumberOfRepairsPerShip(DBproject esql) {//6
 		// Count number of repairs per Ships and list them in descending order
 		try {
-			String query = "SELECT R.ship_id, COUNT(R.rid) as repair_count " + 
-					"FROM Repairs R " +
-					"GROUP BY R.ship_id " +
-					"ORDER BY repair_count DESC";
 			//System.out.print("\tPrinting Ship IDs and repair counts in descending order.");
-			esql.executeQueryAndPrintResult(query);
+			long start = System.nanoTime();
+			int rows = -1;
+			try{
+				rows = esql.executeReadQueryAndPrintResult(REPAIRS_PER_SHIP);
+			}finally{
+				esql.endOperation("repairs", start, rows, rows >= 0);
+			}
 		} catch (Exception e) {
 			System.err.println(e.getMessage()); 
 		}
@@ -701,16 +1530,33 @@ public class DBproject{
 		try {
 			String status; 
 			System.out.println("Enter status: ");
-			status = in.readLine();
-			while(!(status.equals("W") || status.equals("R") || status.equals("C"))) {
+			status = readLine();
+			while(!Validator.isStatus(status)) {
 				System.out.println("Invalid status. Choose from W,R,C: ");
-				status = in.readLine(); 
+				status = readLine(); 
 			}
 			
-			String query = "SELECT COUNT(Customer.id) FROM Customer, Reservation WHERE Customer.id = Reservation.ccid AND Reservation.status =" + "'" + status + "'";
-			esql.executeQueryAndPrintResult(query);
+			// answered from the in-memory status counters, as script mode is
+			System.out.println("Passengers with status " + status + ": " + esql.countPassengersWithStatus(status));
 		} catch(Exception e) {
 			System.err.println(e.getMessage()); 
 		}
 	}
+
+	public static void CancelReservation(DBproject esql) {//8
+		// Cancel a reservation; a freed 'R' seat goes to the oldest waitlisted
+		// reservation of the cruise
+		try {
+			int rnum;
+			
+			System.out.print("\tEnter reservation number: "); 
+			rnum = readInt(Validator.INT, "\tReservation number must be a number: ");
+			
+			BookingEngine.Booking booking = esql.cancelReservation(rnum);
+			System.out.println("Reservation " + booking.rnum + " of customer " + booking.ccid + " on cruise " +
+				booking.cnum + " with status " + booking.status + " cancelled successfully!");
+		} catch (Exception e) {
+			System.err.println(e.getMessage()); 
+		}
+	}
 }
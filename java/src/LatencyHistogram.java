@@ -0,0 +1,117 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in microseconds into log-linear buckets: 64
+ * buckets per power of two, so any recorded value is reported within about
+ * 1.5% of its true value.  Recording is one atomic increment and is safe
+ * from any number of threads.
+ *
+ */
+
+public class LatencyHistogram{
+	//buckets per power of two
+	private static final int SUB_BITS = 6;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	//values up to 2^40 us (about 12 days) are tracked
+	private static final int MAX_MAGNITUDE = 40;
+
+	private final AtomicLongArray _buckets = new AtomicLongArray((MAX_MAGNITUDE - SUB_BITS + 2) * SUB_COUNT);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Method to record one latency.
+	 *
+	 * @param micros the latency in microseconds
+	 */
+	public void record(long micros){
+		if (micros < 0) micros = 0;
+		this._buckets.incrementAndGet(index(micros));
+		this._count.incrementAndGet();
+		this._sum.addAndGet(micros);
+		long max;
+		while (micros > (max = this._max.get()) && !this._max.compareAndSet(max, micros)) {
+		}
+	}
+
+	public void recordNanos(long nanos){
+		record(nanos / 1000);
+	}
+
+	public long getCount(){
+		return this._count.get();
+	}
+
+	public long getMax(){
+		return this._max.get();
+	}
+
+	public long getMean(){
+		long n = this._count.get();
+		return n == 0 ? 0 : this._sum.get() / n;
+	}
+
+	/**
+	 * Method to return the latency below which a fraction of the recorded
+	 * values fall.
+	 *
+	 * @param quantile the fraction, e.g. 0.99
+	 * @return the latency in microseconds
+	 */
+	public long getPercentile(double quantile){
+		long n = this._count.get();
+		if (n == 0) return 0;
+		long rank = (long) Math.ceil(quantile * n);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int i = 0; i < this._buckets.length(); ++i) {
+			seen += this._buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBound(i), this._max.get());
+			}
+		}
+		return this._max.get();
+	}
+
+	/**
+	 * Method to clear every recorded value.
+	 */
+	public void reset(){
+		for (int i = 0; i < this._buckets.length(); ++i) {
+			this._buckets.set(i, 0);
+		}
+		this._count.set(0);
+		this._sum.set(0);
+		this._max.set(0);
+	}
+
+	/**
+	 * Method to return a one line summary of the distribution.
+	 *
+	 * @return count, mean and percentiles in microseconds
+	 */
+	public String getSummary(){
+		return "count=" + getCount() + " meanUs=" + getMean() + " p50Us=" + getPercentile(0.50) +
+			" p99Us=" + getPercentile(0.99) + " p999Us=" + getPercentile(0.999) + " maxUs=" + getMax();
+	}
+
+	static int index(long v){
+		if (v < SUB_COUNT) return (int) v;
+		int magnitude = 63 - Long.numberOfLeadingZeros(v);
+		if (magnitude > MAX_MAGNITUDE) {
+			magnitude = MAX_MAGNITUDE;
+			v = (1L << (MAX_MAGNITUDE + 1)) - 1;
+		}
+		int sub = (int) (v >>> (magnitude - SUB_BITS)) & (SUB_COUNT - 1);
+		return (magnitude - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	static long upperBound(int index){
+		if (index < SUB_COUNT) return index;
+		int magnitude = index / SUB_COUNT + SUB_BITS - 1;
+		long sub = index % SUB_COUNT;
+		return ((SUB_COUNT + sub + 1) << (magnitude - SUB_BITS)) - 1;
+	}
+}//end LatencyHistogram
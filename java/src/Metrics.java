@@ -0,0 +1,291 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * This class collects call counts, error counts, rows and a latency
+ * histogram for every menu operation and every SQL template run through
+ * DBproject.  Each entry is registered as a JMX MBean under the DBproject
+ * domain, can be dumped periodically as text or JSON, and statements slower
+ * than a threshold are written to a slow query log.
+ *
+ * Configuration is read from system properties:
+ *   metrics.slowMs        slow query threshold in ms (default 500, 0 disables)
+ *   metrics.dumpSeconds   dump interval in seconds (default 0, disabled)
+ *   metrics.dumpFormat    text or json (default text)
+ *   metrics.dumpFile      file the dump is written to (default stderr)
+ *
+ */
+
+public class Metrics{
+	public static final String OPERATION = "Operation";
+	public static final String QUERY = "Query";
+
+	private final Map<String, Stat> _operations = new ConcurrentHashMap<String, Stat>();
+	private final Map<String, Stat> _queries = new ConcurrentHashMap<String, Stat>();
+	private final long _slowNanos;
+	private final AtomicLong _slowCount = new AtomicLong();
+	private final String _dumpFormat;
+	private final String _dumpFile;
+	private ScheduledExecutorService _dumper = null;
+
+	/**
+	 * The management interface of one metrics entry.
+	 */
+	public interface StatMBean{
+		String getName();
+		long getCalls();
+		long getErrors();
+		long getRows();
+		long getMeanMicros();
+		long getP50Micros();
+		long getP99Micros();
+		long getP999Micros();
+		long getMaxMicros();
+	}
+
+	/**
+	 * Counters and latency histogram of one operation or SQL template.
+	 */
+	public static class Stat implements StatMBean{
+		private final String _name;
+		private final LatencyHistogram _latency = new LatencyHistogram();
+		private final AtomicLong _errors = new AtomicLong();
+		private final AtomicLong _rows = new AtomicLong();
+
+		Stat(String name){
+			this._name = name;
+		}
+
+		public void record(long nanos, long rows, boolean ok){
+			this._latency.recordNanos(nanos);
+			if (rows > 0) this._rows.addAndGet(rows);
+			if (!ok) this._errors.incrementAndGet();
+		}
+
+		public String getName(){ return this._name; }
+		public long getCalls(){ return this._latency.getCount(); }
+		public long getErrors(){ return this._errors.get(); }
+		public long getRows(){ return this._rows.get(); }
+		public long getMeanMicros(){ return this._latency.getMean(); }
+		public long getP50Micros(){ return this._latency.getPercentile(0.50); }
+		public long getP99Micros(){ return this._latency.getPercentile(0.99); }
+		public long getP999Micros(){ return this._latency.getPercentile(0.999); }
+		public long getMaxMicros(){ return this._latency.getMax(); }
+	}//end Stat
+
+	public Metrics(){
+		this._slowNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("metrics.slowMs", 500L));
+		this._dumpFormat = System.getProperty("metrics.dumpFormat", "text");
+		this._dumpFile = System.getProperty("metrics.dumpFile");
+		long seconds = Long.getLong("metrics.dumpSeconds", 0L);
+		if (seconds > 0) {
+			this._dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "metrics-dump");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			this._dumper.scheduleAtFixedRate(new Runnable(){
+				public void run(){
+					dump();
+				}
+			}, seconds, seconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Method to record one call of a menu operation.
+	 *
+	 * @param name the operation name
+	 * @param nanos the elapsed time
+	 * @param rows the rows returned or written
+	 * @param ok whether the call succeeded
+	 */
+	public void recordOperation(String name, long nanos, long rows, boolean ok){
+		stat(this._operations, OPERATION, name).record(nanos, rows, ok);
+	}
+
+	/**
+	 * Method to record one execution of a SQL template, logging it when it
+	 * ran longer than the slow query threshold.
+	 *
+	 * @param sql the SQL template
+	 * @param nanos the elapsed time
+	 * @param rows the rows returned or affected
+	 * @param ok whether the statement succeeded
+	 */
+	public void recordQuery(String sql, long nanos, long rows, boolean ok){
+		stat(this._queries, QUERY, sql).record(nanos, rows, ok);
+		if (this._slowNanos > 0 && nanos >= this._slowNanos) {
+			this._slowCount.incrementAndGet();
+			System.err.println("SLOW QUERY " + nanos / 1000000 + " ms rows=" + rows + (ok ? "" : " FAILED") +
+				": " + sql);
+		}
+	}
+
+	public Stat getOperation(String name){
+		return this._operations.get(name);
+	}
+
+	public Stat getQuery(String sql){
+		return this._queries.get(sql);
+	}
+
+	public long getSlowQueryCount(){
+		return this._slowCount.get();
+	}
+
+	/**
+	 * Method to write the current metrics in the configured format to the
+	 * configured destination.
+	 */
+	public void dump(){
+		String text = this._dumpFormat.equals("json") ? toJson() : toText();
+		if (this._dumpFile == null) {
+			System.err.println(text);
+			return;
+		}
+		try{
+			PrintWriter out = new PrintWriter(new FileWriter(this._dumpFile, true));
+			try{
+				out.println(text);
+			}finally{
+				out.close();
+			}
+		}catch (IOException e){
+			System.err.println("Unable to write metrics: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to stop the periodic dump, writing one last dump if enabled.
+	 */
+	public void close(){
+		if (this._dumper != null) {
+			this._dumper.shutdownNow();
+			dump();
+		}
+	}
+
+	/**
+	 * Method to format the metrics as text, one line per entry.
+	 *
+	 * @return the metrics as text
+	 */
+	public String toText(){
+		StringBuilder sb = new StringBuilder("METRICS slowQueries=").append(this._slowCount.get()).append('\n');
+		for (Stat s : sorted(this._operations)) appendText(sb, OPERATION, s);
+		for (Stat s : sorted(this._queries)) appendText(sb, QUERY, s);
+		return sb.toString();
+	}
+
+	/**
+	 * Method to format the metrics as one JSON object.
+	 *
+	 * @return the metrics as JSON
+	 */
+	public String toJson(){
+		StringBuilder sb = new StringBuilder("{\"timestamp\":").append(System.currentTimeMillis())
+			.append(",\"slowQueries\":").append(this._slowCount.get()).append(",\"operations\":[");
+		appendJson(sb, sorted(this._operations));
+		sb.append("],\"queries\":[");
+		appendJson(sb, sorted(this._queries));
+		return sb.append("]}").toString();
+	}
+
+	private Stat stat(Map<String, Stat> stats, String type, String name){
+		Stat s = stats.get(name);
+		if (s == null) {
+			Stat created = new Stat(name);
+			s = ((ConcurrentHashMap<String, Stat>) stats).putIfAbsent(name, created);
+			if (s == null) {
+				s = created;
+				register(type, created);
+			}
+		}
+		return s;
+	}
+
+	//a second DBproject in the same JVM keeps its metrics unregistered
+	private static void register(String type, Stat s){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("DBproject:type=" + type + ",name=" + ObjectName.quote(s.getName()));
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new StandardMBean(s, StatMBean.class), name);
+			}
+		}catch (Exception e){
+			// ignored.
+		}
+	}
+
+	private static List<Stat> sorted(Map<String, Stat> stats){
+		List<Stat> list = new ArrayList<Stat>(stats.values());
+		Collections.sort(list, new java.util.Comparator<Stat>(){
+			public int compare(Stat a, Stat b){
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return list;
+	}
+
+	private static void appendText(StringBuilder sb, String type, Stat s){
+		sb.append(type).append(" calls=").append(s.getCalls()).append(" errors=").append(s.getErrors())
+			.append(" rows=").append(s.getRows()).append(" meanUs=").append(s.getMeanMicros())
+			.append(" p50Us=").append(s.getP50Micros()).append(" p99Us=").append(s.getP99Micros())
+			.append(" p999Us=").append(s.getP999Micros()).append(" maxUs=").append(s.getMaxMicros())
+			.append(" : ").append(s.getName()).append('\n');
+	}
+
+	private static void appendJson(StringBuilder sb, List<Stat> stats){
+		for (int i = 0; i < stats.size(); ++i) {
+			Stat s = stats.get(i);
+			if (i > 0) sb.append(',');
+			sb.append("{\"name\":");
+			appendJsonString(sb, s.getName());
+			sb.append(",\"calls\":").append(s.getCalls()).append(",\"errors\":").append(s.getErrors())
+				.append(",\"rows\":").append(s.getRows()).append(",\"meanUs\":").append(s.getMeanMicros())
+				.append(",\"p50Us\":").append(s.getP50Micros()).append(",\"p99Us\":").append(s.getP99Micros())
+				.append(",\"p999Us\":").append(s.getP999Micros()).append(",\"maxUs\":").append(s.getMaxMicros())
+				.append('}');
+		}
+	}
+
+	private static void appendJsonString(StringBuilder sb, String s){
+		sb.append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+	}
+}//end Metrics
@@ -0,0 +1,328 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * This class holds a query result column by column, in primitive arrays where
+ * the SQL type allows it: INTEGER columns as int[], BIGINT as long[], DATE as
+ * LocalDate[] and CHAR columns (port codes, status, repair codes) dictionary
+ * encoded as int codes into a small table of distinct values.  Everything
+ * else is kept as String.  Values are read with typed getters, so callers do
+ * not parse strings back into numbers.
+ *
+ */
+
+public class QueryResult{
+	//storage kinds of a column
+	public static final int INT = 0;
+	public static final int LONG = 1;
+	public static final int DATE = 2;
+	public static final int DICT = 3;
+	public static final int STRING = 4;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final String[] _names;
+	private final Column[] _columns;
+	private int _rows = 0;
+
+	//one column of values, plus a bit per row marking NULLs
+	private static abstract class Column{
+		final int kind;
+		final BitSet nulls = new BitSet();
+
+		Column(int kind){
+			this.kind = kind;
+		}
+
+		abstract void read(ResultSet rs, int col, int row) throws SQLException;
+		abstract void grow(int capacity);
+		abstract String format(int row);
+	}
+
+	private static final class IntColumn extends Column{
+		int[] values = new int[INITIAL_CAPACITY];
+
+		IntColumn(){ super(INT); }
+
+		void read(ResultSet rs, int col, int row) throws SQLException {
+			this.values[row] = rs.getInt(col);
+			if (rs.wasNull()) this.nulls.set(row);
+		}
+		void grow(int capacity){ this.values = Arrays.copyOf(this.values, capacity); }
+		String format(int row){ return Integer.toString(this.values[row]); }
+	}
+
+	private static final class LongColumn extends Column{
+		long[] values = new long[INITIAL_CAPACITY];
+
+		LongColumn(){ super(LONG); }
+
+		void read(ResultSet rs, int col, int row) throws SQLException {
+			this.values[row] = rs.getLong(col);
+			if (rs.wasNull()) this.nulls.set(row);
+		}
+		void grow(int capacity){ this.values = Arrays.copyOf(this.values, capacity); }
+		String format(int row){ return Long.toString(this.values[row]); }
+	}
+
+	private static final class DateColumn extends Column{
+		LocalDate[] values = new LocalDate[INITIAL_CAPACITY];
+
+		DateColumn(){ super(DATE); }
+
+		void read(ResultSet rs, int col, int row) throws SQLException {
+			Date d = rs.getDate(col);
+			if (d == null) {
+				this.nulls.set(row);
+			} else {
+				this.values[row] = d.toLocalDate();
+			}
+		}
+		void grow(int capacity){ this.values = Arrays.copyOf(this.values, capacity); }
+		String format(int row){ return this.values[row].toString(); }
+	}
+
+	private static final class DictColumn extends Column{
+		int[] codes = new int[INITIAL_CAPACITY];
+		String[] dictionary = new String[4];
+		int size = 0;
+		final HashMap<String, Integer> lookup = new HashMap<String, Integer>();
+
+		DictColumn(){ super(DICT); }
+
+		void read(ResultSet rs, int col, int row) throws SQLException {
+			String v = rs.getString(col);
+			if (v == null) {
+				this.nulls.set(row);
+				this.codes[row] = -1;
+				return;
+			}
+			Integer code = this.lookup.get(v);
+			if (code == null) {
+				if (this.size == this.dictionary.length) {
+					this.dictionary = Arrays.copyOf(this.dictionary, this.size * 2);
+				}
+				code = this.size;
+				this.dictionary[this.size++] = v;
+				this.lookup.put(v, code);
+			}
+			this.codes[row] = code;
+		}
+		void grow(int capacity){ this.codes = Arrays.copyOf(this.codes, capacity); }
+		String format(int row){ return this.dictionary[this.codes[row]]; }
+	}
+
+	private static final class StringColumn extends Column{
+		String[] values = new String[INITIAL_CAPACITY];
+
+		StringColumn(){ super(STRING); }
+
+		void read(ResultSet rs, int col, int row) throws SQLException {
+			this.values[row] = rs.getString(col);
+			if (this.values[row] == null) this.nulls.set(row);
+		}
+		void grow(int capacity){ this.values = Arrays.copyOf(this.values, capacity); }
+		String format(int row){ return this.values[row]; }
+	}
+
+	private QueryResult(String[] names, Column[] columns){
+		this._names = names;
+		this._columns = columns;
+	}
+
+	/**
+	 * Method to read every remaining row of a result set into column arrays.
+	 *
+	 * @param rs the result set, positioned before the first row
+	 * @return the materialized result
+	 * @throws java.sql.SQLException when the rows could not be read
+	 */
+	public static QueryResult read(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int numCol = rsmd.getColumnCount();
+		String[] names = new String[numCol];
+		Column[] columns = new Column[numCol];
+		for (int i = 0; i < numCol; ++i) {
+			names[i] = rsmd.getColumnName(i + 1);
+			columns[i] = newColumn(rsmd.getColumnType(i + 1));
+		}
+
+		QueryResult result = new QueryResult(names, columns);
+		int capacity = INITIAL_CAPACITY;
+		while (rs.next()) {
+			int row = result._rows;
+			if (row == capacity) {
+				capacity *= 2;
+				for (Column c : columns) c.grow(capacity);
+			}
+			for (int i = 0; i < numCol; ++i) {
+				columns[i].read(rs, i + 1, row);
+			}
+			result._rows++;
+		}
+		return result;
+	}//end read
+
+	private static Column newColumn(int sqlType){
+		switch (sqlType) {
+			case Types.INTEGER:
+			case Types.SMALLINT:
+			case Types.TINYINT:
+				return new IntColumn();
+			case Types.BIGINT:
+				return new LongColumn();
+			case Types.DATE:
+				return new DateColumn();
+			case Types.CHAR:
+				return new DictColumn();
+			default:
+				return new StringColumn();
+		}
+	}
+
+	public int getRowCount(){
+		return this._rows;
+	}
+
+	public int getColumnCount(){
+		return this._columns.length;
+	}
+
+	public boolean isEmpty(){
+		return this._rows == 0;
+	}
+
+	public String getColumnName(int col){
+		return this._names[col];
+	}
+
+	/**
+	 * Method to return how a column is stored (INT, LONG, DATE, DICT or
+	 * STRING).
+	 *
+	 * @param col the zero based column index
+	 * @return the storage kind
+	 */
+	public int getColumnKind(int col){
+		return this._columns[col].kind;
+	}
+
+	public boolean isNull(int row, int col){
+		checkRow(row);
+		return this._columns[col].nulls.get(row);
+	}
+
+	/**
+	 * Method to read an integer value.  BIGINT columns are narrowed.
+	 *
+	 * @param row the zero based row index
+	 * @param col the zero based column index
+	 * @return the value, or 0 when it is NULL
+	 */
+	public int getInt(int row, int col){
+		checkRow(row);
+		Column c = this._columns[col];
+		switch (c.kind) {
+			case INT: return ((IntColumn) c).values[row];
+			case LONG: return (int) ((LongColumn) c).values[row];
+			default: throw new IllegalStateException("Column " + this._names[col] + " is not numeric");
+		}
+	}
+
+	/**
+	 * Method to read a long value.
+	 *
+	 * @param row the zero based row index
+	 * @param col the zero based column index
+	 * @return the value, or 0 when it is NULL
+	 */
+	public long getLong(int row, int col){
+		checkRow(row);
+		Column c = this._columns[col];
+		switch (c.kind) {
+			case INT: return ((IntColumn) c).values[row];
+			case LONG: return ((LongColumn) c).values[row];
+			default: throw new IllegalStateException("Column " + this._names[col] + " is not numeric");
+		}
+	}
+
+	public LocalDate getDate(int row, int col){
+		checkRow(row);
+		Column c = this._columns[col];
+		if (c.kind != DATE) {
+			throw new IllegalStateException("Column " + this._names[col] + " is not a date");
+		}
+		return ((DateColumn) c).values[row];
+	}
+
+	/**
+	 * Method to read the dictionary code of a CHAR value.  Equal values in
+	 * a column share a code, so codes can be compared instead of strings.
+	 *
+	 * @param row the zero based row index
+	 * @param col the zero based column index
+	 * @return the code, or -1 when the value is NULL
+	 */
+	public int getCode(int row, int col){
+		checkRow(row);
+		Column c = this._columns[col];
+		if (c.kind != DICT) {
+			throw new IllegalStateException("Column " + this._names[col] + " is not dictionary encoded");
+		}
+		return ((DictColumn) c).codes[row];
+	}
+
+	/**
+	 * Method to return the distinct values of a dictionary encoded column,
+	 * indexed by code.
+	 *
+	 * @param col the zero based column index
+	 * @return the dictionary
+	 */
+	public String[] getDictionary(int col){
+		Column c = this._columns[col];
+		if (c.kind != DICT) {
+			throw new IllegalStateException("Column " + this._names[col] + " is not dictionary encoded");
+		}
+		DictColumn d = (DictColumn) c;
+		return Arrays.copyOf(d.dictionary, d.size);
+	}
+
+	/**
+	 * Method to read the first character of a CHAR value, e.g. a status.
+	 *
+	 * @param row the zero based row index
+	 * @param col the zero based column index
+	 * @return the character, or 0 when the value is NULL or empty
+	 */
+	public char getChar(int row, int col){
+		String v = getString(row, col);
+		return v == null || v.isEmpty() ? 0 : v.charAt(0);
+	}
+
+	/**
+	 * Method to read any value as text.
+	 *
+	 * @param row the zero based row index
+	 * @param col the zero based column index
+	 * @return the value as text, or null when it is NULL
+	 */
+	public String getString(int row, int col){
+		checkRow(row);
+		Column c = this._columns[col];
+		return c.nulls.get(row) ? null : c.format(row);
+	}
+
+	private void checkRow(int row){
+		if (row < 0 || row >= this._rows) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + this._rows);
+		}
+	}
+}//end QueryResult
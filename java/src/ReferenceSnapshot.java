@@ -0,0 +1,571 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the reference tables (Ship, Captain, Technician, Cruise
+ * and CruiseInfo) in a binary snapshot file that is memory-mapped, so
+ * lookups read the mapped pages instead of querying the database or
+ * holding the rows on the heap.
+ *
+ * The file starts with a header and the port code dictionary, followed by
+ * one section per table.  A section is its sorted keys (the id to offset
+ * index, searched by bisection) followed by fixed-width records in the
+ * same order; text columns are zero-padded UTF-8, dates are epoch days and
+ * ports are dictionary codes.  Cruise.num_sold changes with every booking
+ * and is left out.
+ *
+ * The header carries the ReferenceVersion stamp (sql/snapshot.sql) the
+ * rows were read at.  The snapshot is re-exported when the database
+ * version moves on: on change notifications from ResultCache, and every
+ * snapshot.checkMs (default 10000).  Until then lookups return nothing and
+ * callers fall back to the database.  A new file is written beside the old
+ * one and renamed over it, so other processes mapping it are not disturbed.
+ *
+ */
+
+public class ReferenceSnapshot{
+	private static final int MAGIC = 0x43525331;//CRS1
+	private static final int FORMAT = 1;
+
+	//sections, in file order
+	private static final int SHIP = 0, CAPTAIN = 1, TECHNICIAN = 2, CRUISE = 3, CRUISE_INFO = 4;
+	private static final String[] TABLES = {"ship", "captain", "technician", "cruise", "cruiseinfo"};
+
+	//text column widths, as in sql/create.sql
+	private static final int MAKE = 32, MODEL = 64, NAME = 128, NATIONALITY = 24, PORT = 5;
+	private static final int[] WIDTHS = {
+		4 + MAKE + MODEL + 4 + 4,//id, make, model, age, seats
+		4 + NAME + NATIONALITY,//id, fullname, nationality
+		4 + NAME,//id, full_name
+		5 * 4 + 2 + 2,//cnum, cost, num_stops, departure, arrival, arrival port, departure port
+		4 * 4//cruise_id, ciid, captain_id, ship_id
+	};
+
+	private static final String VERSION_QUERY = "SELECT R.version FROM ReferenceVersion R";
+	//the first column of each is the section key
+	private static final String[] EXPORT_QUERIES = {
+		"SELECT S.id, S.make, S.model, S.age, S.seats FROM Ship S ORDER BY S.id",
+		"SELECT C.id, C.fullname, C.nationality FROM Captain C ORDER BY C.id",
+		"SELECT T.id, T.full_name FROM Technician T ORDER BY T.id",
+		"SELECT C.cnum, C.cost, C.num_stops, C.actual_departure_date, C.actual_arrival_date, " +
+			"C.arrival_port, C.departure_port FROM Cruise C ORDER BY C.cnum",
+		"SELECT CI.cruise_id, CI.ciid, CI.captain_id, CI.ship_id FROM CruiseInfo CI ORDER BY CI.cruise_id, CI.ciid"
+	};
+
+	private final DBproject _esql;
+	private final File _file;
+	private final long _refreshDelayMs;
+	private volatile Mapping _mapping = null;
+	private volatile boolean _stale = true;
+	private boolean _scheduled = false;
+	private final ScheduledExecutorService _refresher;
+
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _exports = new AtomicLong();
+
+	/**
+	 * A ship record.
+	 */
+	public static class Ship{
+		public final int id;
+		public final String make;
+		public final String model;
+		public final int age;
+		public final int seats;
+
+		Ship(int id, String make, String model, int age, int seats){
+			this.id = id;
+			this.make = make;
+			this.model = model;
+			this.age = age;
+			this.seats = seats;
+		}
+	}//end Ship
+
+	/**
+	 * A cruise record with its ship assignment.
+	 */
+	public static class Cruise{
+		public final int cnum;
+		public final int cost;
+		public final int stops;
+		public final LocalDate departure;
+		public final LocalDate arrival;
+		public final String arrivalPort;
+		public final String departurePort;
+		//-1 when no ship is assigned
+		public final int shipId;
+		public final int captainId;
+
+		Cruise(int cnum, int cost, int stops, LocalDate departure, LocalDate arrival, String arrivalPort,
+				String departurePort, int shipId, int captainId){
+			this.cnum = cnum;
+			this.cost = cost;
+			this.stops = stops;
+			this.departure = departure;
+			this.arrival = arrival;
+			this.arrivalPort = arrivalPort;
+			this.departurePort = departurePort;
+			this.shipId = shipId;
+			this.captainId = captainId;
+		}
+	}//end Cruise
+
+	//one mapped snapshot file
+	private static final class Mapping{
+		final MappedByteBuffer buf;
+		final long version;
+		final String[] ports;
+		final int[] counts = new int[TABLES.length];
+		final int[] keys = new int[TABLES.length];
+		final int[] records = new int[TABLES.length];
+
+		Mapping(MappedByteBuffer buf) throws IOException {
+			this.buf = buf;
+			if (buf.limit() < 20 || buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT) {
+				throw new IOException("Not a reference snapshot");
+			}
+			this.version = buf.getLong(8);
+			int pos = 16;
+			this.ports = new String[buf.getInt(pos)];
+			pos += 4;
+			for (int i = 0; i < this.ports.length; ++i, pos += PORT) {
+				this.ports[i] = text(buf, pos, PORT);
+			}
+			for (int t = 0; t < TABLES.length; ++t) {
+				this.counts[t] = buf.getInt(pos);
+				if (buf.getInt(pos + 4) != WIDTHS[t]) {
+					throw new IOException("Unexpected record width in section " + TABLES[t]);
+				}
+				this.keys[t] = pos + 8;
+				this.records[t] = this.keys[t] + 4 * this.counts[t];
+				pos = this.records[t] + WIDTHS[t] * this.counts[t];
+			}
+			if (pos != buf.limit()) {
+				throw new IOException("Truncated reference snapshot");
+			}
+		}
+
+		//offset of the first record with the key, or -1
+		int find(int table, int key){
+			int lo = 0, hi = this.counts[table];
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.buf.getInt(this.keys[table] + 4 * mid) < key) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			if (lo == this.counts[table] || this.buf.getInt(this.keys[table] + 4 * lo) != key) return -1;
+			return this.records[table] + WIDTHS[table] * lo;
+		}
+	}//end Mapping
+
+	public ReferenceSnapshot(DBproject esql, File file){
+		this._esql = esql;
+		this._file = file;
+		this._refreshDelayMs = Long.getLong("snapshot.refreshDelayMs", 1000L);
+		this._refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "snapshot-refresher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Method to map the snapshot file, exporting it first when it is
+	 * missing or older than the database, and to start the version checks.
+	 *
+	 * @throws java.sql.SQLException when the version could not be read or
+	 *         the tables could not be exported
+	 * @throws java.io.IOException when the file could not be written or mapped
+	 */
+	public void open() throws SQLException, IOException {
+		refresh(false);
+		long checkMs = Long.getLong("snapshot.checkMs", 10000L);
+		if (checkMs > 0) {
+			this._refresher.scheduleWithFixedDelay(new Runnable(){
+				public void run(){
+					refreshQuietly();
+				}
+			}, checkMs, checkMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Method to bring the snapshot up to the database version.  A file
+	 * written at that version, e.g. by another process, is mapped as is.
+	 *
+	 * @param force whether to export even when the versions match
+	 * @return true when a new snapshot was exported
+	 * @throws java.sql.SQLException when the export failed
+	 * @throws java.io.IOException when the file could not be written or mapped
+	 */
+	public synchronized boolean refresh(boolean force) throws SQLException, IOException {
+		long version = this._esql.readFromPrimary(VERSION_QUERY, new Object[0]).getLong(0, 0);
+		if (!force) {
+			Mapping m = this._mapping;
+			if ((m == null || m.version != version) && this._file.exists()) {
+				try{
+					m = map(this._file);
+					this._mapping = m;
+				}catch (IOException e){
+					m = null;
+				}
+			}
+			if (m != null && m.version == version) {
+				this._stale = false;
+				return false;
+			}
+		}
+		export();
+		this._mapping = map(this._file);
+		this._stale = false;
+		return true;
+	}//end refresh
+
+	/**
+	 * Method to mark the snapshot stale after a change to one of its tables,
+	 * and to refresh it shortly after.
+	 *
+	 * @param table the changed table, in lower case
+	 */
+	public void onTableChange(String table){
+		for (String t : TABLES) {
+			if (t.equals(table)) {
+				markStale();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Method to stop serving lookups until the next refresh, which is
+	 * scheduled after snapshot.refreshDelayMs so a burst of changes is
+	 * exported once.
+	 */
+	public void markStale(){
+		this._stale = true;
+		synchronized (this._refresher) {
+			if (this._scheduled || this._refresher.isShutdown()) return;
+			this._scheduled = true;
+		}
+		this._refresher.schedule(new Runnable(){
+			public void run(){
+				synchronized (_refresher) {
+					_scheduled = false;
+				}
+				refreshQuietly();
+			}
+		}, this._refreshDelayMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to look up a cruise and its ship assignment.
+	 *
+	 * @param cnum the cruise number
+	 * @return the cruise, or null when it is not in a current snapshot
+	 */
+	public Cruise cruise(int cnum){
+		Mapping m = current();
+		int off = m == null ? -1 : m.find(CRUISE, cnum);
+		if (off < 0) {
+			this._misses.incrementAndGet();
+			return null;
+		}
+		this._hits.incrementAndGet();
+		MappedByteBuffer b = m.buf;
+		int info = m.find(CRUISE_INFO, cnum);
+		return new Cruise(cnum, b.getInt(off + 4), b.getInt(off + 8),
+			LocalDate.ofEpochDay(b.getInt(off + 12)), LocalDate.ofEpochDay(b.getInt(off + 16)),
+			m.ports[b.getShort(off + 20) & 0xffff], m.ports[b.getShort(off + 22) & 0xffff],
+			info < 0 ? -1 : b.getInt(info + 12), info < 0 ? -1 : b.getInt(info + 8));
+	}
+
+	/**
+	 * Method to look up a ship.
+	 *
+	 * @param id the ship id
+	 * @return the ship, or null when it is not in a current snapshot
+	 */
+	public Ship ship(int id){
+		Mapping m = current();
+		int off = m == null ? -1 : m.find(SHIP, id);
+		if (off < 0) {
+			this._misses.incrementAndGet();
+			return null;
+		}
+		this._hits.incrementAndGet();
+		return new Ship(id, text(m.buf, off + 4, MAKE), text(m.buf, off + 4 + MAKE, MODEL),
+			m.buf.getInt(off + 4 + MAKE + MODEL), m.buf.getInt(off + 8 + MAKE + MODEL));
+	}
+
+	/**
+	 * Method to look up the seats of a ship without decoding the rest of
+	 * its record.
+	 *
+	 * @param id the ship id
+	 * @return the seats, or -1 when the ship is not in a current snapshot
+	 */
+	public int shipSeats(int id){
+		Mapping m = current();
+		int off = m == null ? -1 : m.find(SHIP, id);
+		if (off < 0) {
+			this._misses.incrementAndGet();
+			return -1;
+		}
+		this._hits.incrementAndGet();
+		return m.buf.getInt(off + 8 + MAKE + MODEL);
+	}
+
+	/**
+	 * Method to look up the name of a captain.
+	 *
+	 * @param id the captain id
+	 * @return the name, or null when the captain is not in a current snapshot
+	 */
+	public String captainName(int id){
+		return name(CAPTAIN, id);
+	}
+
+	/**
+	 * Method to look up the name of a technician.
+	 *
+	 * @param id the technician id
+	 * @return the name, or null when the technician is not in a current
+	 *         snapshot
+	 */
+	public String technicianName(int id){
+		return name(TECHNICIAN, id);
+	}
+
+	/**
+	 * Method to stop the version checks.  The mapping stays readable until
+	 * it is garbage collected.
+	 */
+	public void close(){
+		this._refresher.shutdownNow();
+	}
+
+	/**
+	 * Method to return a one line summary of the snapshot.
+	 *
+	 * @return the version, row counts and lookup counters
+	 */
+	public String getStats(){
+		Mapping m = this._mapping;
+		StringBuilder sb = new StringBuilder(this._file.getPath());
+		if (m != null) {
+			sb.append(" version=").append(m.version).append(" bytes=").append(m.buf.limit());
+			for (int t = 0; t < TABLES.length; ++t) sb.append(' ').append(TABLES[t]).append('=').append(m.counts[t]);
+		}
+		return sb.append(" stale=").append(this._stale).append(" hits=").append(this._hits.get())
+			.append(" misses=").append(this._misses.get()).append(" exports=").append(this._exports.get()).toString();
+	}
+
+	private Mapping current(){
+		return this._stale ? null : this._mapping;
+	}
+
+	private String name(int table, int id){
+		Mapping m = current();
+		int off = m == null ? -1 : m.find(table, id);
+		if (off < 0) {
+			this._misses.incrementAndGet();
+			return null;
+		}
+		this._hits.incrementAndGet();
+		return text(m.buf, off + 4, NAME);
+	}
+
+	private void refreshQuietly(){
+		try{
+			refresh(false);
+		}catch (Exception e){
+			System.err.println("Reference snapshot refresh failed: " + e.getMessage());
+		}
+	}
+
+	//writes every table, read in one transaction at one version, to a new file
+	private void export() throws SQLException, IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+		DataOutputStream sections = new DataOutputStream(bytes);
+		Map<String, Integer> ports = new LinkedHashMap<String, Integer>();
+		long version;
+
+		ConnectionPool.PooledConnection pc = this._esql.getPool().borrow();
+		Connection conn = pc.getConnection();
+		try{
+			conn.setAutoCommit(false);
+			conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			Statement stmt = conn.createStatement();
+			try{
+				ResultSet rs = stmt.executeQuery(VERSION_QUERY);
+				rs.next();
+				version = rs.getLong(1);
+				rs.close();
+				for (int t = 0; t < TABLES.length; ++t) {
+					writeSection(sections, t, stmt.executeQuery(EXPORT_QUERIES[t]), ports);
+				}
+			}finally{
+				stmt.close();
+			}
+			conn.commit();
+		}catch (SQLException e){
+			conn.rollback();
+			throw e;
+		}finally{
+			conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+			conn.setAutoCommit(true);
+			this._esql.getPool().release(pc);
+		}
+		if (ports.size() > 0xffff) {
+			throw new IOException("Too many ports for the dictionary: " + ports.size());
+		}
+
+		File dir = this._file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(this._file.getName(), ".tmp", dir);
+		try{
+			FileOutputStream fos = new FileOutputStream(tmp);
+			try{
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT);
+				out.writeLong(version);
+				out.writeInt(ports.size());
+				for (String port : ports.keySet()) writeText(out, port, PORT);
+				sections.flush();
+				bytes.writeTo(out);
+				out.flush();
+				fos.getFD().sync();
+			}finally{
+				fos.close();
+			}
+			Files.move(tmp.toPath(), this._file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		}finally{
+			tmp.delete();
+		}
+		this._exports.incrementAndGet();
+	}//end export
+
+	//writes the sorted keys of a table, then its records
+	private static void writeSection(DataOutputStream out, int table, ResultSet rs, Map<String, Integer> ports)
+			throws SQLException, IOException {
+		ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+		DataOutputStream keys = new DataOutputStream(keyBytes);
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+		DataOutputStream rec = new DataOutputStream(recordBytes);
+		int count = 0;
+		try{
+			while (rs.next()) {
+				keys.writeInt(rs.getInt(1));
+				rec.writeInt(rs.getInt(1));
+				switch (table) {
+					case SHIP:
+						writeText(rec, rs.getString(2), MAKE);
+						writeText(rec, rs.getString(3), MODEL);
+						rec.writeInt(rs.getInt(4));
+						rec.writeInt(rs.getInt(5));
+						break;
+					case CAPTAIN:
+						writeText(rec, rs.getString(2), NAME);
+						writeText(rec, rs.getString(3), NATIONALITY);
+						break;
+					case TECHNICIAN:
+						writeText(rec, rs.getString(2), NAME);
+						break;
+					case CRUISE:
+						rec.writeInt(rs.getInt(2));
+						rec.writeInt(rs.getInt(3));
+						rec.writeInt((int) rs.getDate(4).toLocalDate().toEpochDay());
+						rec.writeInt((int) rs.getDate(5).toLocalDate().toEpochDay());
+						rec.writeShort(code(ports, rs.getString(6)));
+						rec.writeShort(code(ports, rs.getString(7)));
+						break;
+					default:
+						rec.writeInt(rs.getInt(2));
+						rec.writeInt(rs.getInt(3));
+						rec.writeInt(rs.getInt(4));
+						break;
+				}
+				++count;
+			}
+		}finally{
+			rs.close();
+		}
+		out.writeInt(count);
+		out.writeInt(WIDTHS[table]);
+		keyBytes.writeTo(out);
+		recordBytes.writeTo(out);
+	}//end writeSection
+
+	private static int code(Map<String, Integer> ports, String port){
+		String p = port.trim();
+		Integer c = ports.get(p);
+		if (c == null) {
+			c = ports.size();
+			ports.put(p, c);
+		}
+		return c;
+	}
+
+	private static Mapping map(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try{
+			//the mapping stays valid after the channel is closed
+			return new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}finally{
+			channel.close();
+		}
+	}
+
+	//zero-padded UTF-8, cut at a character boundary when too long
+	private static void writeText(DataOutputStream out, String s, int width) throws IOException {
+		byte[] b = s == null ? new byte[0] : rtrim(s).getBytes(StandardCharsets.UTF_8);
+		int len = Math.min(b.length, width);
+		while (len < b.length && len > 0 && (b[len] & 0xc0) == 0x80) --len;
+		out.write(b, 0, len);
+		for (int i = len; i < width; ++i) out.write(0);
+	}
+
+	private static String text(MappedByteBuffer buf, int off, int width){
+		int len = 0;
+		while (len < width && buf.get(off + len) != 0) ++len;
+		byte[] b = new byte[len];
+		for (int i = 0; i < len; ++i) b[i] = buf.get(off + i);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static String rtrim(String s){
+		int end = s.length();
+		while (end > 0 && s.charAt(end - 1) == ' ') --end;
+		return s.substring(0, end);
+	}
+}//end ReferenceSnapshot
@@ -0,0 +1,243 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class routes read-only queries to streaming replicas of the primary
+ * database.  Replicas are listed in the replicas property as comma
+ * separated host:port or host:port/dbname entries; without it every query
+ * goes to the primary.
+ *
+ * A background thread measures the replay lag of each replica every
+ * replica.checkMs (default 1000).  Reads go round robin to the replicas
+ * whose lag is within replica.maxLagMs (default 1000), and to the primary
+ * when none is.  For read-your-writes, a read also goes to the primary when
+ * a write was made shortly before, within the lag bound plus one check
+ * period: a write by the same thread for session reads, or by any thread
+ * for reads that fill caches shared by every session.
+ *
+ */
+
+public class ReplicaRouter{
+	//zero when everything received was replayed, as an idle primary sends
+	//nothing; that only holds while the WAL receiver is streaming, since a
+	//disconnected replica has replayed all it received too.  The view has
+	//no row without a receiver, and its status needs pg_read_all_stats.
+	private static final String LAG_QUERY =
+		"SELECT pg_is_in_recovery(), CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+		"ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 END, " +
+		"(SELECT W.status FROM pg_stat_wal_receiver W)";
+	//lag of a replica that failed or is not replaying
+	private static final long UNKNOWN_LAG = -1;
+	private static final long NO_WRITE = Long.MIN_VALUE;
+
+	/**
+	 * One replica and its last measured lag.
+	 */
+	static class Replica{
+		final String name;
+		final ConnectionPool pool;
+		volatile long lagMs = UNKNOWN_LAG;
+		final AtomicLong reads = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+
+		Replica(String name, ConnectionPool pool){
+			this.name = name;
+			this.pool = pool;
+		}
+	}//end Replica
+
+	private final Replica[] _replicas;
+	private final long _maxLagMs;
+	private final long _stickyNanos;
+	private final AtomicInteger _next = new AtomicInteger();
+	private final ScheduledExecutorService _monitor;
+
+	//nanoTime of the last write, by this process and by each thread
+	private volatile long _lastWrite = NO_WRITE;
+	private final ThreadLocal<long[]> _threadLastWrite = new ThreadLocal<long[]>(){
+		protected long[] initialValue(){
+			return new long[]{NO_WRITE};
+		}
+	};
+
+	private final AtomicLong _replicaReads = new AtomicLong();
+	private final AtomicLong _recentWriteReads = new AtomicLong();
+	private final AtomicLong _laggingReads = new AtomicLong();
+
+	/**
+	 * Method to set up the replica pools from a replica list.
+	 *
+	 * @param replicas host:port[/dbname] entries separated by commas, or
+	 *        null for none
+	 * @param dbname the database name used when an entry has none
+	 * @param user the user name
+	 * @param passwd the password
+	 * @param poolSize the maximum number of connections per replica
+	 * @throws java.sql.SQLException when a replica pool could not be created
+	 */
+	public ReplicaRouter(String replicas, String dbname, String user, String passwd, int poolSize) throws SQLException {
+		String[] entries = replicas == null || replicas.trim().isEmpty() ? new String[0] : replicas.split(",");
+		this._replicas = new Replica[entries.length];
+		for (int i = 0; i < entries.length; ++i) {
+			String name = entries[i].trim();
+			String url = "jdbc:postgresql://" + name + (name.indexOf('/') < 0 ? "/" + dbname : "") + "?readOnly=true";
+			//no connection is opened up front, so a replica that is down
+			//at startup only takes itself out of the rotation
+			this._replicas[i] = new Replica(name, new ConnectionPool(url, user, passwd, poolSize, 0,
+				ConnectionPool.DEFAULT_IDLE_TIMEOUT_MS, ConnectionPool.DEFAULT_BORROW_TIMEOUT_MS));
+		}
+		this._maxLagMs = Long.getLong("replica.maxLagMs", 1000L);
+		long checkMs = Long.getLong("replica.checkMs", 1000L);
+		if (this._maxLagMs < 0 || checkMs < 1) {
+			throw new IllegalArgumentException("Invalid replica lag bound: maxLagMs=" + this._maxLagMs +
+				" checkMs=" + checkMs);
+		}
+		this._stickyNanos = TimeUnit.MILLISECONDS.toNanos(this._maxLagMs + checkMs);
+
+		if (this._replicas.length == 0) {
+			this._monitor = null;
+			return;
+		}
+		this._monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "replica-monitor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._monitor.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				checkAll();
+			}
+		}, 0, checkMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to tell whether any replica is configured.
+	 *
+	 * @return true when reads may go to a replica
+	 */
+	public boolean isEnabled(){
+		return this._replicas.length > 0;
+	}
+
+	/**
+	 * Method to record a statement run on the primary, which may have
+	 * written.
+	 */
+	public void onWrite(){
+		if (this._replicas.length == 0) return;
+		long now = System.nanoTime();
+		this._lastWrite = now;
+		this._threadLastWrite.get()[0] = now;
+	}
+
+	/**
+	 * Method to record a write another process made, as told by a change
+	 * notification, so the shared caches it invalidates are reloaded from
+	 * the primary rather than from a replica that may not have replayed it.
+	 */
+	public void onNotifiedWrite(){
+		if (this._replicas.length == 0) return;
+		this._lastWrite = System.nanoTime();
+	}
+
+	/**
+	 * Method to pick where a read-only query runs.
+	 *
+	 * @param shared whether the result fills a cache shared by every
+	 *        session, so a write by any thread must be visible to it
+	 * @return a replica, or null for the primary
+	 */
+	public Replica route(boolean shared){
+		if (this._replicas.length == 0) return null;
+		long lastWrite = shared ? this._lastWrite : this._threadLastWrite.get()[0];
+		if (lastWrite != NO_WRITE && System.nanoTime() - lastWrite < this._stickyNanos) {
+			this._recentWriteReads.incrementAndGet();
+			return null;
+		}
+		int first = this._next.getAndIncrement();
+		for (int i = 0; i < this._replicas.length; ++i) {
+			Replica r = this._replicas[Math.abs((first + i) % this._replicas.length)];
+			long lag = r.lagMs;
+			if (lag != UNKNOWN_LAG && lag <= this._maxLagMs) {
+				r.reads.incrementAndGet();
+				this._replicaReads.incrementAndGet();
+				return r;
+			}
+		}
+		this._laggingReads.incrementAndGet();
+		return null;
+	}//end route
+
+	/**
+	 * Method to take a replica out of the rotation until its next check.
+	 *
+	 * @param replica the replica a query failed on
+	 * @param e the failure
+	 */
+	public void onFailure(Replica replica, SQLException e){
+		replica.failures.incrementAndGet();
+		replica.lagMs = UNKNOWN_LAG;
+		System.err.println("Replica " + replica.name + " failed, reading from the primary: " + e.getMessage());
+	}
+
+	/**
+	 * Method to stop the lag checks and close the replica pools.
+	 */
+	public void close(){
+		if (this._monitor != null) this._monitor.shutdownNow();
+		for (Replica r : this._replicas) r.pool.close();
+	}
+
+	/**
+	 * Method to return a one line summary of the routing so far.
+	 *
+	 * @return the routing counters and each replica's lag
+	 */
+	public String getStats(){
+		StringBuilder sb = new StringBuilder("replicaReads=").append(this._replicaReads.get())
+			.append(" afterWrite=").append(this._recentWriteReads.get())
+			.append(" lagging=").append(this._laggingReads.get());
+		for (Replica r : this._replicas) {
+			sb.append(' ').append(r.name).append("[lagMs=").append(r.lagMs == UNKNOWN_LAG ? "?" : Long.toString(r.lagMs))
+				.append(" reads=").append(r.reads.get()).append(" failures=").append(r.failures.get()).append(']');
+		}
+		return sb.toString();
+	}
+
+	private void checkAll(){
+		for (Replica r : this._replicas) {
+			r.lagMs = check(r);
+		}
+	}
+
+	//measures a replica's lag; a server that is not in recovery is no
+	//replica, and one not streaming from the primary has no known lag
+	private long check(Replica r){
+		ConnectionPool.PooledConnection pc = null;
+		try{
+			pc = r.pool.borrow();
+			PreparedStatement stmt = pc.prepare(LAG_QUERY);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				if (!rs.next() || !rs.getBoolean(1) || !"streaming".equals(rs.getString(3))) return UNKNOWN_LAG;
+				long lag = (long) rs.getDouble(2);
+				return rs.wasNull() ? UNKNOWN_LAG : Math.max(0, lag);
+			}finally{
+				rs.close();
+			}
+		}catch (SQLException e){
+			return UNKNOWN_LAG;
+		}finally{
+			if (pc != null) r.pool.release(pc);
+		}
+	}
+}//end ReplicaRouter
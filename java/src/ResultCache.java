@@ -0,0 +1,313 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class caches query results by statement and parameters.  Each entry
+ * names the tables it was read from, and is dropped as soon as one of them
+ * changes: triggers (sql/notify.sql) NOTIFY the table name on the
+ * table_change channel at commit, and a listener thread holding its own
+ * connection LISTENs on it, so every process sharing the database drops
+ * the same entries without polling.  Changes to Ship, Cruise and CruiseInfo
+ * also clear the seat cache, changes to them or Captain clear the schedule
+ * index, and changes to the reference tables mark the reference snapshot
+ * stale.
+ *
+ * The cache holds at most cache.size (default 1024) results, evicting the
+ * least recently used, each for at most cache.ttlMs (default 60000), which
+ * bounds staleness should notifications be lost.  While the listener is
+ * disconnected nothing is cached, and every entry is dropped when it
+ * reconnects.
+ *
+ */
+
+public class ResultCache{
+	public static final String CHANNEL = "table_change";
+	public static final int DEFAULT_CAPACITY = 1024;
+	//how long the listener waits for notifications before checking for close
+	private static final int LISTEN_TIMEOUT_MS = 500;
+	private static final long RECONNECT_DELAY_MS = 1000L;
+
+	private final DBproject _esql;
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final long _ttlNanos;
+	private final LinkedHashMap<Key, Entry> _entries;
+	//bumped by every invalidation, so a load that raced with one is not cached
+	private long _generation = 0;
+	private boolean _listening = false;
+	private volatile boolean _closed = false;
+	private final Thread _listener;
+
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _invalidations = 0;
+	private long _notifications = 0;
+
+	private static final class Key{
+		final String sql;
+		final Object[] params;
+		final int hash;
+
+		Key(String sql, Object[] params){
+			this.sql = sql;
+			this.params = params;
+			this.hash = 31 * sql.hashCode() + Arrays.hashCode(params);
+		}
+
+		public boolean equals(Object o){
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return this.hash == k.hash && this.sql.equals(k.sql) && Arrays.equals(this.params, k.params);
+		}
+
+		public int hashCode(){
+			return this.hash;
+		}
+	}//end Key
+
+	private static final class Entry{
+		final QueryResult result;
+		final String[] tables;
+		final long loadedAt;
+
+		Entry(QueryResult result, String[] tables, long loadedAt){
+			this.result = result;
+			this.tables = tables;
+			this.loadedAt = loadedAt;
+		}
+	}//end Entry
+
+	public ResultCache(DBproject esql, String url, String user, String passwd){
+		this._esql = esql;
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		final int capacity = Integer.getInteger("cache.size", DEFAULT_CAPACITY);
+		long ttlMs = Long.getLong("cache.ttlMs", 60000L);
+		if (capacity < 0 || ttlMs < 0) {
+			throw new IllegalArgumentException("Invalid result cache bounds: size=" + capacity + " ttlMs=" + ttlMs);
+		}
+		this._ttlNanos = ttlMs * 1000000L;
+		this._entries = new LinkedHashMap<Key, ResultCache.Entry>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<Key, ResultCache.Entry> eldest){
+				return size() > capacity;
+			}
+		};
+		if (capacity == 0 || ttlMs == 0) {
+			this._listener = null;
+			return;
+		}
+		this._listener = new Thread(new Runnable(){
+			public void run(){
+				listen();
+			}
+		}, "cache-listener");
+		this._listener.setDaemon(true);
+		this._listener.start();
+	}
+
+	/**
+	 * Method to return a cached result, or run the query on the primary and
+	 * cache its result.
+	 *
+	 * @param tables the tables the query reads, in lower case
+	 * @param query the input query string, with ? placeholders for params
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result, shared with other callers
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryResult get(String[] tables, String query, Object... params) throws SQLException {
+		Key key = new Key(query, params.clone());
+		long generation;
+		boolean cacheable;
+		synchronized (this) {
+			Entry e = this._entries.get(key);
+			if (e != null && System.nanoTime() - e.loadedAt < this._ttlNanos) {
+				this._hits++;
+				return e.result;
+			}
+			if (e != null) this._entries.remove(key);
+			this._misses++;
+			generation = this._generation;
+			cacheable = this._listening;
+		}
+
+		//load outside the lock so a slow query does not block other readers
+		long start = System.nanoTime();
+		QueryResult result = this._esql.readFromPrimary(query, params);
+		if (cacheable) {
+			synchronized (this) {
+				if (generation == this._generation) {
+					this._entries.put(key, new Entry(result, tables, start));
+				}
+			}
+		}
+		return result;
+	}//end get
+
+	/**
+	 * Method to tell whether results are cached at all.
+	 *
+	 * @return false when cache.size or cache.ttlMs is zero
+	 */
+	public boolean isEnabled(){
+		return this._listener != null;
+	}
+
+	/**
+	 * Method to wait until the listener is connected, as nothing is cached
+	 * before.
+	 *
+	 * @param timeoutMs the longest wait
+	 * @return true when the listener is connected
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 */
+	public synchronized boolean awaitListening(long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		long remaining = timeoutMs;
+		while (!this._listening && !this._closed && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return this._listening;
+	}
+
+	/**
+	 * Method to drop every entry read from a table.
+	 *
+	 * @param table the table name, in lower case
+	 */
+	public void invalidate(String table){
+		//the caches cleared below reload from the primary
+		ReplicaRouter router = this._esql.getReplicaRouter();
+		if (router != null) router.onNotifiedWrite();
+		if (table.equals("ship") || table.equals("cruise") || table.equals("cruiseinfo")) {
+			this._esql.getSeatCache().clear();
+		}
+		if (table.equals("cruise") || table.equals("cruiseinfo") || table.equals("ship") || table.equals("captain")) {
+			ScheduleIndex schedule = this._esql.getScheduleIndex();
+			if (schedule != null) schedule.clear();
+		}
+		ReferenceSnapshot snapshot = this._esql.getReferenceSnapshot();
+		if (snapshot != null) snapshot.onTableChange(table);
+		synchronized (this) {
+			this._generation++;
+			Iterator<Entry> it = this._entries.values().iterator();
+			while (it.hasNext()) {
+				if (Arrays.asList(it.next().tables).contains(table)) {
+					it.remove();
+					this._invalidations++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to drop every entry.
+	 */
+	public void clear(){
+		synchronized (this) {
+			this._generation++;
+			this._invalidations += this._entries.size();
+			this._entries.clear();
+		}
+	}
+
+	/**
+	 * Method to stop the listener.
+	 */
+	public void close(){
+		this._closed = true;
+		if (this._listener != null) {
+			try{
+				this._listener.join(2 * LISTEN_TIMEOUT_MS);
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Method to return a one line summary of the cache.
+	 *
+	 * @return the hit, miss and invalidation counters
+	 */
+	public synchronized String getStats(){
+		long lookups = this._hits + this._misses;
+		return "size=" + this._entries.size() + " hits=" + this._hits + " misses=" + this._misses +
+			" hitRate=" + (lookups == 0 ? 0 : this._hits * 100 / lookups) + "%" +
+			" invalidations=" + this._invalidations + " notifications=" + this._notifications +
+			" listening=" + this._listening;
+	}
+
+	//holds a LISTEN connection open, reconnecting after failures
+	private void listen(){
+		Connection conn = null;
+		while (!this._closed) {
+			try{
+				if (conn == null) {
+					conn = DriverManager.getConnection(this._url, this._user, this._passwd);
+					Statement stmt = conn.createStatement();
+					stmt.execute("LISTEN " + CHANNEL);
+					stmt.close();
+					//changes made while not listening were missed
+					ReplicaRouter router = this._esql.getReplicaRouter();
+					if (router != null) router.onNotifiedWrite();
+					clear();
+					this._esql.getSeatCache().clear();
+					ScheduleIndex schedule = this._esql.getScheduleIndex();
+					if (schedule != null) schedule.clear();
+					ReferenceSnapshot snapshot = this._esql.getReferenceSnapshot();
+					if (snapshot != null) snapshot.markStale();
+					synchronized (this) {
+						this._listening = true;
+						notifyAll();
+					}
+				}
+				PGNotification[] notifications = conn.unwrap(PGConnection.class).getNotifications(LISTEN_TIMEOUT_MS);
+				if (notifications != null) {
+					for (PGNotification n : notifications) {
+						synchronized (this) {
+							this._notifications++;
+						}
+						invalidate(n.getParameter().toLowerCase());
+					}
+				}
+			}catch (SQLException e){
+				synchronized (this) {
+					this._listening = false;
+				}
+				clear();
+				if (conn != null) {
+					System.err.println("Result cache listener failed, reconnecting: " + e.getMessage());
+					try{
+						conn.close();
+					}catch (SQLException ignored){
+					}
+					conn = null;
+				}
+				try{
+					Thread.sleep(RECONNECT_DELAY_MS);
+				}catch (InterruptedException ie){
+					return;
+				}
+			}
+		}
+		if (conn != null) {
+			try{
+				conn.close();
+			}catch (SQLException ignored){
+			}
+		}
+	}//end listen
+}//end ResultCache
@@ -0,0 +1,86 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class hands out reservation numbers from blocks reserved with the
+ * allocate_rnum_block function (sql/functions.sql).  Within a block an id
+ * costs one atomic increment; the database is only asked for a new block
+ * once the current one is used up.
+ *
+ */
+
+public class RnumAllocator{
+	//default number of ids reserved per round trip
+	public static final int DEFAULT_BLOCK_SIZE = 50;
+
+	private static final String ALLOCATE_QUERY = "SELECT allocate_rnum_block(?)";
+
+	private final DBproject _esql;
+	private final int _blockSize;
+	private final Object _refillLock = new Object();
+	private volatile Block _block = new Block(0, 0);
+
+	//a contiguous range of ids [next, end)
+	private static final class Block{
+		final AtomicInteger next;
+		final int end;
+
+		Block(int first, int size){
+			this.next = new AtomicInteger(first);
+			this.end = first + size;
+		}
+	}
+
+	public RnumAllocator(DBproject esql, int blockSize){
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Invalid block size: " + blockSize);
+		}
+		this._esql = esql;
+		this._blockSize = blockSize;
+	}
+
+	/**
+	 * Method to return the next unused reservation number.
+	 *
+	 * @return a reservation number no other caller will receive
+	 * @throws java.sql.SQLException when a new block could not be reserved
+	 */
+	public int next() throws SQLException {
+		while (true) {
+			Block b = this._block;
+			int id = b.next.getAndIncrement();
+			if (id < b.end) {
+				return id;
+			}
+			refill(b);
+		}
+	}//end next
+
+	/**
+	 * Method to reserve a run of consecutive reservation numbers directly
+	 * from the database, bypassing the in-memory block.  Used by bulk
+	 * writers that need many ids at once.
+	 *
+	 * @param count the number of ids needed
+	 * @return the first id of the run
+	 * @throws java.sql.SQLException when the ids could not be reserved
+	 */
+	public int reserve(int count) throws SQLException {
+		return this._esql.queryForInt(ALLOCATE_QUERY, count);
+	}
+
+	public int getBlockSize(){
+		return this._blockSize;
+	}
+
+	//only one thread fetches a new block; the others wait for it and retry
+	private void refill(Block exhausted) throws SQLException {
+		synchronized (this._refillLock) {
+			if (this._block != exhausted) {
+				return;
+			}
+			int first = this._esql.queryForInt(ALLOCATE_QUERY, this._blockSize);
+			this._block = new Block(first, this._blockSize);
+		}
+	}//end refill
+}//end RnumAllocator
@@ -0,0 +1,506 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
+
+/**
+ * This class assigns ships and captains to cruises, through the
+ * assign_cruise server-side function (sql/functions.sql), and keeps an
+ * interval index of the sailings of every ship and captain so conflicts and
+ * free ships are found without querying Cruise joined with CruiseInfo.
+ *
+ * A cruise occupies its ship and captain from its departure through its
+ * arrival day.  The sailings of one ship or captain are kept sorted by
+ * departure along with the running maximum of the arrivals, so whether a
+ * window overlaps any of them takes one binary search.  Finding a free ship
+ * checks the ships with enough seats, smallest first.
+ *
+ * The index is loaded on first use and dropped when Cruise, CruiseInfo,
+ * Ship or Captain change (see ResultCache), and reloaded once older than
+ * schedule.maxAgeMs (default 10000, 0 never expires), so changes made by
+ * other processes show within that time even when the change listener is
+ * off (cache.size=0 or cache.ttlMs=0).  assign_cruise re-checks under row
+ * locks, so a stale index can only reject early, never double-book.
+ *
+ */
+
+public class ScheduleIndex{
+	//SQLSTATEs raised by assign_cruise
+	private static final String NO_DATA_FOUND = "P0002";
+	private static final String EXCLUSION_VIOLATION = "23P01";
+	private static final String CHECK_VIOLATION = "23514";
+
+	static final String LOAD_QUERY =
+		"SELECT CI.cruise_id, CI.ship_id, CI.captain_id, C.actual_departure_date, C.actual_arrival_date " +
+		"FROM CruiseInfo CI, Cruise C WHERE C.cnum = CI.cruise_id";
+	private static final String SHIPS_QUERY = "SELECT S.id, S.seats FROM Ship S ORDER BY S.seats, S.id";
+	private static final String CAPTAINS_QUERY = "SELECT C.id FROM Captain C ORDER BY C.id";
+	private static final String CRUISE_QUERY =
+		"SELECT C.actual_departure_date, C.actual_arrival_date FROM Cruise C WHERE C.cnum = ?";
+	private static final String ASSIGN_QUERY = "SELECT assign_cruise(?, ?, ?)";
+
+	private final DBproject _esql;
+	private final long _maxAgeNanos;
+	private State _state = null;
+	//bumped by every clear, so a load that raced with one is not kept
+	private long _clears = 0;
+
+	private long _loads = 0;
+	private long _assigned = 0;
+	private long _conflicts = 0;
+
+	/**
+	 * An assignment made by assign.
+	 */
+	public static class Assignment{
+		public final int ciid;
+		public final int cnum;
+		public final int shipId;
+		public final int captainId;
+		public final LocalDate departure;
+		public final LocalDate arrival;
+
+		Assignment(int ciid, int cnum, int shipId, int captainId, LocalDate departure, LocalDate arrival){
+			this.ciid = ciid;
+			this.cnum = cnum;
+			this.shipId = shipId;
+			this.captainId = captainId;
+			this.departure = departure;
+			this.arrival = arrival;
+		}
+
+		public String toString(){
+			return "ciid=" + this.ciid + " cnum=" + this.cnum + " ship=" + this.shipId +
+				" captain=" + this.captainId + " " + this.departure + ".." + this.arrival;
+		}
+	}//end Assignment
+
+	/**
+	 * The sailings of one ship or captain, sorted by departure day.  Never
+	 * changed once built; adding or removing a sailing copies it.
+	 */
+	static final class Timeline{
+		static final Timeline EMPTY = new Timeline(new int[0], new long[0], new long[0]);
+
+		final int[] cnums;
+		final long[] from;
+		final long[] to;
+		//index of the latest arrival among sailings 0..i
+		final int[] latest;
+
+		Timeline(int[] cnums, long[] from, long[] to){
+			this.cnums = cnums;
+			this.from = from;
+			this.to = to;
+			this.latest = new int[cnums.length];
+			for (int i = 0; i < cnums.length; ++i) {
+				this.latest[i] = i > 0 && to[this.latest[i - 1]] >= to[i] ? this.latest[i - 1] : i;
+			}
+		}
+
+		//a cruise overlapping the days from..to, or -1
+		int overlap(long from, long to){
+			//the last sailing departing by the window's end
+			int lo = 0, hi = this.cnums.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.from[mid] <= to) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			if (lo == 0) return -1;
+			int i = this.latest[lo - 1];
+			return this.to[i] >= from ? this.cnums[i] : -1;
+		}
+
+		//a cruise other than cnum overlapping the days from..to, or -1
+		int overlap(long from, long to, int cnum){
+			int other = overlap(from, to);
+			return other != cnum ? other : remove(cnum).overlap(from, to);
+		}
+
+		Timeline add(int cnum, long from, long to){
+			Timeline t = remove(cnum);
+			int n = t.cnums.length;
+			int at = 0;
+			while (at < n && t.from[at] <= from) ++at;
+			int[] cnums = new int[n + 1];
+			long[] f = new long[n + 1];
+			long[] e = new long[n + 1];
+			System.arraycopy(t.cnums, 0, cnums, 0, at);
+			System.arraycopy(t.from, 0, f, 0, at);
+			System.arraycopy(t.to, 0, e, 0, at);
+			cnums[at] = cnum;
+			f[at] = from;
+			e[at] = to;
+			System.arraycopy(t.cnums, at, cnums, at + 1, n - at);
+			System.arraycopy(t.from, at, f, at + 1, n - at);
+			System.arraycopy(t.to, at, e, at + 1, n - at);
+			return new Timeline(cnums, f, e);
+		}
+
+		Timeline remove(int cnum){
+			int n = this.cnums.length;
+			int[] cnums = new int[n];
+			long[] f = new long[n];
+			long[] e = new long[n];
+			int k = 0;
+			for (int i = 0; i < n; ++i) {
+				if (this.cnums[i] == cnum) continue;
+				cnums[k] = this.cnums[i];
+				f[k] = this.from[i];
+				e[k++] = this.to[i];
+			}
+			return k == n ? this : new Timeline(Arrays.copyOf(cnums, k), Arrays.copyOf(f, k), Arrays.copyOf(e, k));
+		}
+	}//end Timeline
+
+	//the index as loaded, updated by copying on assignment
+	private static final class State{
+		final Map<Integer, Timeline> ships;
+		final Map<Integer, Timeline> captains;
+		//ship and captain of each assigned cruise
+		final Map<Integer, int[]> assignments;
+		//ships by seats, then id
+		final int[] shipIds;
+		final int[] shipSeats;
+		final int[] captainIds;
+		//nanoTime the load started
+		final long loadedAt;
+
+		State(Map<Integer, Timeline> ships, Map<Integer, Timeline> captains, Map<Integer, int[]> assignments,
+				int[] shipIds, int[] shipSeats, int[] captainIds, long loadedAt){
+			this.ships = ships;
+			this.captains = captains;
+			this.assignments = assignments;
+			this.shipIds = shipIds;
+			this.shipSeats = shipSeats;
+			this.captainIds = captainIds;
+			this.loadedAt = loadedAt;
+		}
+
+		static int overlap(Map<Integer, Timeline> timelines, int id, long from, long to, int cnum){
+			Timeline t = timelines.get(id);
+			return t == null ? -1 : t.overlap(from, to, cnum);
+		}
+
+		int freeShip(long from, long to, int seats, int cnum){
+			int lo = 0, hi = this.shipSeats.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.shipSeats[mid] < seats) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			for (int i = lo; i < this.shipIds.length; ++i) {
+				if (overlap(this.ships, this.shipIds[i], from, to, cnum) < 0) return this.shipIds[i];
+			}
+			return -1;
+		}
+
+		int freeCaptain(long from, long to, int cnum){
+			for (int id : this.captainIds) {
+				if (overlap(this.captains, id, from, to, cnum) < 0) return id;
+			}
+			return -1;
+		}
+	}//end State
+
+	public ScheduleIndex(DBproject esql){
+		this._esql = esql;
+		long maxAgeMs = Long.getLong("schedule.maxAgeMs", 10000L);
+		this._maxAgeNanos = maxAgeMs <= 0 ? Long.MAX_VALUE : maxAgeMs * 1000000L;
+	}
+
+	/**
+	 * Method to assign a ship and captain to a cruise, replacing its current
+	 * assignment.
+	 *
+	 * @param cnum the cruise number
+	 * @param shipId the ship id, or -1 for the smallest free ship holding the
+	 *        cruise's reserved seats
+	 * @param captainId the captain id, or -1 for the free captain with the
+	 *        lowest id
+	 * @return the assignment made
+	 * @throws java.sql.SQLException when the cruise, ship or captain does not
+	 *         exist, the ship or captain is sailing another cruise at the
+	 *         time, or the assignment failed
+	 */
+	public Assignment assign(int cnum, int shipId, int captainId) throws SQLException {
+		QueryResult cruise = this._esql.readFromPrimary(CRUISE_QUERY, new Object[]{cnum});
+		if (cruise.isEmpty()) {
+			throw new SQLException("Cruise not found!", NO_DATA_FOUND);
+		}
+		LocalDate departure = cruise.getDate(0, 0);
+		LocalDate arrival = cruise.getDate(0, 1);
+		//the days between the two dates, as assign_cruise counts them
+		long from = Math.min(departure.toEpochDay(), arrival.toEpochDay());
+		long to = Math.max(departure.toEpochDay(), arrival.toEpochDay());
+
+		State s = state();
+		if (shipId < 0) {
+			int reserved = this._esql.readFromPrimary(SeatCache.RESERVED_QUERY, new Object[]{cnum}).getInt(0, 0);
+			shipId = s.freeShip(from, to, Math.max(1, reserved), cnum);
+			if (shipId < 0) {
+				throw conflict("No ship with " + Math.max(1, reserved) + " seats is free from " + departure +
+					" to " + arrival);
+			}
+		} else {
+			int other = State.overlap(s.ships, shipId, from, to, cnum);
+			if (other >= 0) throw conflict("Ship " + shipId + " is already sailing cruise " + other);
+		}
+		if (captainId < 0) {
+			captainId = s.freeCaptain(from, to, cnum);
+			if (captainId < 0) {
+				throw conflict("No captain is free from " + departure + " to " + arrival);
+			}
+		} else {
+			int other = State.overlap(s.captains, captainId, from, to, cnum);
+			if (other >= 0) throw conflict("Captain " + captainId + " is already sailing cruise " + other);
+		}
+
+		int ciid;
+		try{
+			ciid = this._esql.executeQueryForResult(ASSIGN_QUERY, cnum, shipId, captainId).getInt(0, 0);
+		}catch (SQLException e){
+			throw unwrap(e);
+		}
+		onAssigned(s, cnum, shipId, captainId, from, to);
+		this._esql.getSeatCache().invalidate(cnum);
+		return new Assignment(ciid, cnum, shipId, captainId, departure, arrival);
+	}//end assign
+
+	/**
+	 * Method to find the smallest ship with enough seats sailing no cruise
+	 * between two days.
+	 *
+	 * @param from the first day
+	 * @param to the last day
+	 * @param seats the least number of seats
+	 * @return the ship id, or -1 when none is free
+	 * @throws java.sql.SQLException when the index could not be loaded
+	 */
+	public int findFreeShip(Date from, Date to, int seats) throws SQLException {
+		return state().freeShip(from.toLocalDate().toEpochDay(), to.toLocalDate().toEpochDay(), seats, -1);
+	}
+
+	/**
+	 * Method to find a captain sailing no cruise between two days.
+	 *
+	 * @param from the first day
+	 * @param to the last day
+	 * @return the captain id, or -1 when none is free
+	 * @throws java.sql.SQLException when the index could not be loaded
+	 */
+	public int findFreeCaptain(Date from, Date to) throws SQLException {
+		return state().freeCaptain(from.toLocalDate().toEpochDay(), to.toLocalDate().toEpochDay(), -1);
+	}
+
+	/**
+	 * Method to find a cruise a ship is sailing between two days.
+	 *
+	 * @param shipId the ship id
+	 * @param from the first day
+	 * @param to the last day
+	 * @return the cruise number, or -1 when the ship is free
+	 * @throws java.sql.SQLException when the index could not be loaded
+	 */
+	public int findShipConflict(int shipId, Date from, Date to) throws SQLException {
+		return State.overlap(state().ships, shipId, from.toLocalDate().toEpochDay(),
+			to.toLocalDate().toEpochDay(), -1);
+	}
+
+	/**
+	 * Method to find a cruise a captain is sailing between two days.
+	 *
+	 * @param captainId the captain id
+	 * @param from the first day
+	 * @param to the last day
+	 * @return the cruise number, or -1 when the captain is free
+	 * @throws java.sql.SQLException when the index could not be loaded
+	 */
+	public int findCaptainConflict(int captainId, Date from, Date to) throws SQLException {
+		return State.overlap(state().captains, captainId, from.toLocalDate().toEpochDay(),
+			to.toLocalDate().toEpochDay(), -1);
+	}
+
+	/**
+	 * Method to drop the index, so it is reloaded on next use.
+	 */
+	public synchronized void clear(){
+		this._clears++;
+		this._state = null;
+	}
+
+	/**
+	 * Method to return a one line summary of the index.
+	 *
+	 * @return the sizes and counters
+	 */
+	public synchronized String getStats(){
+		State s = this._state;
+		return "loaded=" + (s != null) + (s == null ? "" : " cruises=" + s.assignments.size() +
+			" ships=" + s.shipIds.length + " captains=" + s.captainIds.length) +
+			" loads=" + this._loads + " assigned=" + this._assigned + " conflicts=" + this._conflicts;
+	}
+
+	//returns the index, loading it on first use and once it is too old
+	private State state() throws SQLException {
+		long clears;
+		long loadedAt = System.nanoTime();
+		synchronized (this) {
+			if (this._state != null && loadedAt - this._state.loadedAt < this._maxAgeNanos) return this._state;
+			clears = this._clears;
+		}
+
+		//load outside the lock so lookups of a loaded index are not blocked
+		QueryResult sailings = this._esql.executeSharedReadQueryForResult(LOAD_QUERY);
+		QueryResult ships = this._esql.executeSharedReadQueryForResult(SHIPS_QUERY);
+		QueryResult captains = this._esql.executeSharedReadQueryForResult(CAPTAINS_QUERY);
+
+		Map<Integer, Timeline> shipTimelines = new HashMap<Integer, Timeline>();
+		Map<Integer, Timeline> captainTimelines = new HashMap<Integer, Timeline>();
+		Map<Integer, int[]> assignments = new HashMap<Integer, int[]>();
+		//sorted by departure once, so each timeline is built in order
+		Integer[] order = new Integer[sailings.getRowCount()];
+		final long[] departures = new long[order.length];
+		final long[] arrivals = new long[order.length];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+			long departure = sailings.getDate(i, 3).toEpochDay();
+			long arrival = sailings.getDate(i, 4).toEpochDay();
+			departures[i] = Math.min(departure, arrival);
+			arrivals[i] = Math.max(departure, arrival);
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				return Long.compare(departures[a], departures[b]);
+			}
+		});
+		Map<Integer, TimelineBuilder> shipBuilders = new HashMap<Integer, TimelineBuilder>();
+		Map<Integer, TimelineBuilder> captainBuilders = new HashMap<Integer, TimelineBuilder>();
+		for (int i : order) {
+			int cnum = sailings.getInt(i, 0);
+			int ship = sailings.getInt(i, 1);
+			int captain = sailings.getInt(i, 2);
+			builder(shipBuilders, ship).add(cnum, departures[i], arrivals[i]);
+			builder(captainBuilders, captain).add(cnum, departures[i], arrivals[i]);
+			assignments.put(cnum, new int[]{ship, captain});
+		}
+		for (Map.Entry<Integer, TimelineBuilder> e : shipBuilders.entrySet()) {
+			shipTimelines.put(e.getKey(), e.getValue().build());
+		}
+		for (Map.Entry<Integer, TimelineBuilder> e : captainBuilders.entrySet()) {
+			captainTimelines.put(e.getKey(), e.getValue().build());
+		}
+		int[] shipIds = new int[ships.getRowCount()];
+		int[] shipSeats = new int[shipIds.length];
+		for (int i = 0; i < shipIds.length; ++i) {
+			shipIds[i] = ships.getInt(i, 0);
+			shipSeats[i] = ships.getInt(i, 1);
+		}
+		int[] captainIds = new int[captains.getRowCount()];
+		for (int i = 0; i < captainIds.length; ++i) captainIds[i] = captains.getInt(i, 0);
+		State loaded = new State(shipTimelines, captainTimelines, assignments, shipIds, shipSeats, captainIds,
+			loadedAt);
+
+		synchronized (this) {
+			this._loads++;
+			//another thread loaded it since
+			if (this._state != null && this._state.loadedAt - loadedAt >= 0) return this._state;
+			if (clears == this._clears) this._state = loaded;
+			return loaded;
+		}
+	}//end state
+
+	//collects the sailings of one ship or captain in departure order
+	private static final class TimelineBuilder{
+		int n = 0;
+		int[] cnums = new int[8];
+		long[] from = new long[8];
+		long[] to = new long[8];
+
+		void add(int cnum, long f, long t){
+			if (this.n == this.cnums.length) {
+				this.cnums = Arrays.copyOf(this.cnums, 2 * this.n);
+				this.from = Arrays.copyOf(this.from, 2 * this.n);
+				this.to = Arrays.copyOf(this.to, 2 * this.n);
+			}
+			this.cnums[this.n] = cnum;
+			this.from[this.n] = f;
+			this.to[this.n++] = t;
+		}
+
+		Timeline build(){
+			return new Timeline(Arrays.copyOf(this.cnums, this.n), Arrays.copyOf(this.from, this.n),
+				Arrays.copyOf(this.to, this.n));
+		}
+	}//end TimelineBuilder
+
+	private static TimelineBuilder builder(Map<Integer, TimelineBuilder> builders, int id){
+		TimelineBuilder b = builders.get(id);
+		if (b == null) {
+			b = new TimelineBuilder();
+			builders.put(id, b);
+		}
+		return b;
+	}
+
+	//moves the cruise to its new ship and captain in the loaded index
+	private synchronized void onAssigned(State s, int cnum, int shipId, int captainId, long from, long to){
+		this._assigned++;
+		if (this._state != s) return;
+		Map<Integer, Timeline> ships = new HashMap<Integer, Timeline>(s.ships);
+		Map<Integer, Timeline> captains = new HashMap<Integer, Timeline>(s.captains);
+		Map<Integer, int[]> assignments = new HashMap<Integer, int[]>(s.assignments);
+		int[] old = assignments.put(cnum, new int[]{shipId, captainId});
+		if (old != null) {
+			ships.put(old[0], ships.get(old[0]).remove(cnum));
+			captains.put(old[1], captains.get(old[1]).remove(cnum));
+		}
+		ships.put(shipId, timeline(ships, shipId).add(cnum, from, to));
+		captains.put(captainId, timeline(captains, captainId).add(cnum, from, to));
+		this._state = new State(ships, captains, assignments, s.shipIds, s.shipSeats, s.captainIds, s.loadedAt);
+	}
+
+	private static Timeline timeline(Map<Integer, Timeline> timelines, int id){
+		Timeline t = timelines.get(id);
+		return t == null ? Timeline.EMPTY : t;
+	}
+
+	private SQLException conflict(String message){
+		synchronized (this) {
+			this._conflicts++;
+		}
+		return new SQLException(message, EXCLUSION_VIOLATION);
+	}
+
+	//replaces the driver's message of the errors assign_cruise raises with
+	//the server's own
+	private SQLException unwrap(SQLException e){
+		String state = e.getSQLState();
+		if (EXCLUSION_VIOLATION.equals(state)) {
+			synchronized (this) {
+				this._conflicts++;
+			}
+		}
+		if ((NO_DATA_FOUND.equals(state) || EXCLUSION_VIOLATION.equals(state) || CHECK_VIOLATION.equals(state)) &&
+				e instanceof PSQLException) {
+			ServerErrorMessage msg = ((PSQLException) e).getServerErrorMessage();
+			if (msg != null) {
+				return new SQLException(msg.getMessage(), state, e);
+			}
+		}
+		return e;
+	}
+}//end ScheduleIndex
@@ -0,0 +1,220 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class bootstraps and verifies the indexes the menu queries depend
+ * on.  It runs sql/create_index.sql, checks that every required index
+ * exists and is valid, then runs EXPLAIN (ANALYZE, BUFFERS) on each hot
+ * query with sample arguments and warns when one falls back to a
+ * sequential scan of a table it should reach through an index.
+ *
+ * Small tables such as Ship or the summaries may legitimately be scanned,
+ * so each query names the tables it must not scan sequentially.
+ *
+ */
+
+public class SchemaCheck{
+	//indexes by the script creating them
+	static final String[][] REQUIRED_INDEXES = {
+		{"create_index.sql", "customer_id", "reservation_cruise_status", "reservation_customer_id",
+			"reservation_status", "cruise_ship_id", "cruiseinfo_cruise_ship"},
+		{"functions.sql", "reservation_waitlist", "cruiseinfo_captain_id", "cruise_sailing_days"},
+		{"summaries.sql", "repairs_repair_date", "ship_repair_summary_total", "ship_repair_summary_mj",
+			"ship_repair_summary_mn", "ship_repair_summary_sv"},
+		{"archive.sql", "cruise_departure_date"}
+	};
+
+	private static final String INDEXES_QUERY =
+		"SELECT C.relname, I.indisvalid FROM pg_index I, pg_class C, pg_namespace N " +
+		"WHERE C.oid = I.indexrelid AND N.oid = C.relnamespace AND N.nspname = current_schema()";
+	private static final String SAMPLE_CRUISE_QUERY = "SELECT MIN(CI.cruise_id) FROM CruiseInfo CI";
+
+	private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+	private static final Pattern SCAN = Pattern.compile("((?:Parallel )?(?:Index Only Scan|Index Scan|Bitmap Index Scan|Seq Scan)) (?:using (\\w+) )?on (\\w+)");
+	private static final Pattern EXECUTION_TIME = Pattern.compile("Execution [Tt]ime: ([0-9.]+) ms");
+	private static final Pattern BUFFERS = Pattern.compile("Buffers: (.*)");
+
+	/**
+	 * A hot query and the tables it must reach through an index.
+	 */
+	static class Check{
+		final String name;
+		final String sql;
+		final Object[] params;
+		final String[] indexedTables;
+
+		Check(String name, String sql, Object[] params, String... indexedTables){
+			this.name = name;
+			this.sql = sql;
+			this.params = params;
+			this.indexedTables = indexedTables;
+		}
+	}
+
+	private final DBproject _esql;
+	private int _warnings = 0;
+
+	public SchemaCheck(DBproject esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to create the indexes, verify them and check the query plans.
+	 *
+	 * @param sqlDir the directory holding create_index.sql
+	 * @return the number of warnings
+	 * @throws java.sql.SQLException when a statement failed
+	 * @throws java.io.IOException when create_index.sql could not be read
+	 */
+	public int run(File sqlDir) throws SQLException, IOException {
+		this._warnings = 0;
+		int statements = runScript(new File(sqlDir, "create_index.sql"));
+		System.out.println("create_index.sql: " + statements + " statements");
+		verifyIndexes();
+
+		//fresh statistics, so the plans are the ones the data calls for
+		this._esql.executeUpdate("ANALYZE");
+		int cnum = this._esql.queryForInt(SAMPLE_CRUISE_QUERY);
+		for (Check c : checks(cnum)) {
+			explain(c);
+		}
+		System.out.println(this._warnings == 0 ? "Schema OK" : "Schema check: " + this._warnings + " warnings");
+		return this._warnings;
+	}//end run
+
+	//the hot queries behind the menu, with sample arguments
+	static Check[] checks(int cnum){
+		return new Check[]{
+			new Check("seats", SeatCache.LOAD_QUERY, new Object[]{cnum}, "reservation", "cruiseinfo", "cruise"),
+			new Check("book: ship seats",
+				"SELECT S.seats FROM Ship S, CruiseInfo CI WHERE S.id = CI.ship_id AND CI.cruise_id = ?",
+				new Object[]{cnum}, "cruiseinfo"),
+			new Check("book: reserved seats",
+				"SELECT COUNT(R.rnum) FROM Reservation R WHERE R.status = 'R' AND R.cid = ?",
+				new Object[]{cnum}, "reservation"),
+			new Check("promote: waitlist",
+				"SELECT W.rnum FROM Reservation W WHERE W.cid = ? AND W.status = 'W' ORDER BY W.rnum LIMIT ?",
+				new Object[]{cnum, WaitlistPromoter.DEFAULT_BATCH_SIZE}, "reservation"),
+			new Check("repairs", DBproject.REPAIRS_PER_SHIP, new Object[0], "repairs"),
+			new Check("top-repairs", DBproject.TOP_REPAIRS[0], new Object[]{10}, "repairs", "shiprepairsummary"),
+			new Check("status", StatusCounters.LOAD_QUERY, new Object[0], "reservation", "customer")
+		};
+	}
+
+	//runs the ;-separated statements of a script, skipping -- comments
+	private int runScript(File script) throws SQLException, IOException {
+		StringBuilder sql = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new FileReader(script));
+		try{
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int comment = line.indexOf("--");
+				sql.append(comment < 0 ? line : line.substring(0, comment)).append('\n');
+			}
+		}finally{
+			reader.close();
+		}
+		int n = 0;
+		for (String statement : sql.toString().split(";")) {
+			if (statement.trim().isEmpty()) continue;
+			this._esql.executeUpdate(statement.trim());
+			++n;
+		}
+		return n;
+	}
+
+	private void verifyIndexes() throws SQLException {
+		Map<String, Boolean> valid = new HashMap<String, Boolean>();
+		for (List<String> row : this._esql.executeQueryAndReturnResult(INDEXES_QUERY)) {
+			valid.put(row.get(0), "t".equals(row.get(1)));
+		}
+		for (String[] script : REQUIRED_INDEXES) {
+			for (int i = 1; i < script.length; ++i) {
+				Boolean ok = valid.get(script[i]);
+				if (ok == null) {
+					warn("index " + script[i] + " is missing, run " + script[0]);
+				} else if (!ok) {
+					warn("index " + script[i] + " is invalid, drop it and run " + script[0]);
+				} else {
+					System.out.println("\tindex " + script[i] + ": ok");
+				}
+			}
+		}
+	}
+
+	//runs EXPLAIN (ANALYZE, BUFFERS) and warns on forbidden sequential scans
+	private void explain(Check c) throws SQLException {
+		List<List<String>> plan;
+		try{
+			plan = this._esql.executeQueryAndReturnResult("EXPLAIN (ANALYZE, BUFFERS) " + inline(c.sql, c.params));
+		}catch (SQLException e){
+			warn(c.name + ": " + e.getMessage());
+			return;
+		}
+		String time = "?", buffers = null;
+		StringBuilder scans = new StringBuilder();
+		String seqScanned = null;
+		for (List<String> row : plan) {
+			String line = row.get(0);
+			Matcher m = SCAN.matcher(line);
+			if (m.find()) {
+				if (scans.length() > 0) scans.append(", ");
+				scans.append(m.group(1)).append(m.group(2) == null ? "" : " using " + m.group(2))
+					.append(" on ").append(m.group(3));
+			}
+			m = SEQ_SCAN.matcher(line);
+			if (m.find() && seqScanned == null && contains(c.indexedTables, m.group(1))) {
+				seqScanned = m.group(1);
+			}
+			m = EXECUTION_TIME.matcher(line);
+			if (m.find()) time = m.group(1);
+			m = BUFFERS.matcher(line);
+			if (m.find() && buffers == null) buffers = m.group(1).trim();
+		}
+		System.out.println("\t" + c.name + ": " + time + " ms, buffers " + (buffers == null ? "n/a" : buffers) +
+			" [" + scans + "]");
+		if (seqScanned != null) {
+			warn(c.name + " scans " + seqScanned + " sequentially");
+			for (List<String> row : plan) {
+				System.out.println("\t\t" + row.get(0));
+			}
+		}
+	}
+
+	private void warn(String message){
+		this._warnings++;
+		System.out.println("WARNING: " + message);
+	}
+
+	//replaces each ? with a literal, EXPLAIN cannot take bind parameters
+	static String inline(String sql, Object[] params){
+		StringBuilder sb = new StringBuilder();
+		int p = 0;
+		for (int i = 0; i < sql.length(); ++i) {
+			char ch = sql.charAt(i);
+			if (ch != '?') {
+				sb.append(ch);
+			} else if (params[p] instanceof Number) {
+				sb.append(params[p++]);
+			} else {
+				sb.append('\'').append(String.valueOf(params[p++]).replace("'", "''")).append('\'');
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean contains(String[] tables, String table){
+		for (String t : tables) {
+			if (t.equalsIgnoreCase(table)) return true;
+		}
+		return false;
+	}
+}//end SchemaCheck
@@ -0,0 +1,309 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * This class runs DBproject operations from a script instead of the
+ * interactive menu.  Each line holds one command and its arguments; blank
+ * lines and lines starting with # are skipped, and arguments containing
+ * spaces can be double quoted:
+ *
+ *   add-ship <id> <make> <model> <age> <seats>
+ *   add-captain <id> <name> <nationality>
+ *   add-cruise <cnum> <cost> <sold> <stops> <yyyy-mm-dd> <yyyy-mm-dd> <arrival port> <departure port>
+ *   assign <cnum> <ship id|*> <captain id|*>
+ *   free-ship <from yyyy-mm-dd> <to yyyy-mm-dd> <seats>
+ *   book <ccid> <cnum>
+ *   cancel <rnum>
+ *   promote <cnum>
+ *   seats <cnum> <yyyy-mm-dd>
+ *   repairs
+ *   top-repairs <k> [MJ|MN|SV|*] [<from yyyy-mm-dd|*> <to yyyy-mm-dd|*>]
+ *   status <W|R|C> [all]
+ *   overview
+ *   dashboard [k]
+ *   archive <yyyy-mm-dd>
+ *
+ * Commands run back to back without prompts.  Every command prints one tab
+ * separated line: ok or error, the script line number, the command, the
+ * elapsed microseconds, then key=value results or the error message.
+ *
+ */
+
+public class ScriptRunner{
+	private final DBproject _esql;
+	private final PrintWriter _out;
+
+	//per command: {calls, errors, total nanos}
+	private final Map<String, long[]> _timings = new TreeMap<String, long[]>();
+
+	public ScriptRunner(DBproject esql, PrintWriter out){
+		this._esql = esql;
+		this._out = out;
+	}
+
+	/**
+	 * Method to run every command of a script.  A failing command is
+	 * reported and the script continues with the next line.
+	 *
+	 * @param script the script to read commands from
+	 * @throws java.io.IOException when the script could not be read
+	 */
+	public void run(BufferedReader script) throws IOException {
+		String line;
+		int lineNo = 0;
+		try{
+			while ((line = script.readLine()) != null) {
+				++lineNo;
+				List<String> words = tokenize(line);
+				if (words.isEmpty() || words.get(0).startsWith("#")) continue;
+				execute(lineNo, words);
+				//only flush when the next read could block, e.g. on a pipe
+				if (!script.ready()) this._out.flush();
+			}
+		}finally{
+			this._out.flush();
+		}
+	}//end run
+
+	/**
+	 * Method to run one command and print its result line.
+	 *
+	 * @param lineNo the script line number, used in the output
+	 * @param words the command followed by its arguments
+	 * @return whether the command succeeded
+	 */
+	public boolean execute(int lineNo, List<String> words){
+		String name = words.get(0);
+		long start = System.nanoTime();
+		String result;
+		boolean ok;
+		try{
+			result = dispatch(name, words);
+			ok = true;
+		}catch (Exception e){
+			result = "message=" + clean(e.getMessage() == null ? e.toString() : e.getMessage());
+			ok = false;
+		}
+		long nanos = System.nanoTime() - start;
+		record(name, ok, nanos);
+
+		this._out.print(ok ? "ok" : "error");
+		this._out.print('\t');
+		this._out.print(lineNo);
+		this._out.print('\t');
+		this._out.print(name);
+		this._out.print('\t');
+		this._out.print(nanos / 1000);
+		if (result.length() > 0) {
+			this._out.print('\t');
+			this._out.print(result);
+		}
+		this._out.println();
+		return ok;
+	}//end execute
+
+	//runs a command and returns its tab separated key=value results
+	private String dispatch(String name, List<String> a) throws Exception {
+		if (name.equals("book")) {
+			args(a, 2);
+			BookingEngine.Booking b = this._esql.bookCruise(toInt(a.get(1)), toInt(a.get(2)));
+			return "rnum=" + b.rnum + "\tstatus=" + b.status;
+		} else if (name.equals("cancel")) {
+			args(a, 1);
+			BookingEngine.Booking b = this._esql.cancelReservation(toInt(a.get(1)));
+			return "ccid=" + b.ccid + "\tcnum=" + b.cnum + "\tstatus=" + b.status;
+		} else if (name.equals("promote")) {
+			args(a, 1);
+			return "promoted=" + this._esql.promoteWaitlist(toInt(a.get(1)));
+		} else if (name.equals("seats")) {
+			args(a, 2);
+			SeatCache.Entry e = this._esql.findSeats(toInt(a.get(1)), Date.valueOf(a.get(2)));
+			if (e == null) {
+				throw new IllegalArgumentException("Cruise not found!");
+			}
+			return "capacity=" + e.capacity + "\treserved=" + e.getReserved() + "\tavailable=" + e.getAvailable();
+		} else if (name.equals("repairs")) {
+			args(a, 0);
+			QueryResult r = this._esql.repairsPerShip();
+			StringBuilder sb = new StringBuilder("rows=").append(r.getRowCount()).append("\trepairs=");
+			for (int i = 0; i < r.getRowCount(); ++i) {
+				if (i > 0) sb.append(',');
+				sb.append(r.getInt(i, 0)).append(':').append(r.getLong(i, 1));
+			}
+			return sb.toString();
+		} else if (name.equals("top-repairs")) {
+			if (a.size() != 2 && a.size() != 3 && a.size() != 5) {
+				throw new IllegalArgumentException("Expected 1, 2 or 4 arguments, got " + (a.size() - 1));
+			}
+			String code = a.size() > 2 ? optional(a.get(2)) : null;
+			String from = a.size() > 3 ? optional(a.get(3)) : null;
+			String to = a.size() > 3 ? optional(a.get(4)) : null;
+			QueryResult r = this._esql.topRepairedShips(toInt(a.get(1)), code,
+				from == null ? null : Date.valueOf(from), to == null ? null : Date.valueOf(to));
+			StringBuilder sb = new StringBuilder("rows=").append(r.getRowCount()).append("\trepairs=");
+			for (int i = 0; i < r.getRowCount(); ++i) {
+				if (i > 0) sb.append(',');
+				sb.append(r.getInt(i, 0)).append(':').append(r.getLong(i, 1)).append(':').append(r.getLong(i, 2))
+					.append('/').append(r.getLong(i, 3)).append('/').append(r.getLong(i, 4));
+			}
+			return sb.toString();
+		} else if (name.equals("status")) {
+			if (a.size() != 2 && !(a.size() == 3 && a.get(2).equals("all"))) {
+				throw new IllegalArgumentException("Expected <W|R|C> [all]");
+			}
+			return "count=" + this._esql.countPassengersWithStatus(a.get(1), a.size() == 3);
+		} else if (name.equals("overview")) {
+			args(a, 0);
+			SortedMap<Integer, long[]> overview = this._esql.statusOverview();
+			StringBuilder sb = new StringBuilder("cruises=").append(overview.size()).append("\tcounts=");
+			boolean first = true;
+			for (Map.Entry<Integer, long[]> e : overview.entrySet()) {
+				if (!first) sb.append(',');
+				first = false;
+				long[] c = e.getValue();
+				sb.append(e.getKey()).append(':').append(c[0]).append('/').append(c[1]).append('/').append(c[2]);
+			}
+			return sb.toString();
+		} else if (name.equals("dashboard")) {
+			if (a.size() > 2) {
+				throw new IllegalArgumentException("Expected 0 or 1 arguments, got " + (a.size() - 1));
+			}
+			AsyncOperations.Dashboard d;
+			try{
+				d = this._esql.getAsync().dashboard(a.size() > 1 ? toInt(a.get(1)) : 10).get();
+			}catch (ExecutionException e){
+				throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+			StringBuilder sb = new StringBuilder("ships=").append(d.repairs.getRowCount()).append("\ttop=");
+			for (int i = 0; i < d.topRepairs.getRowCount(); ++i) {
+				if (i > 0) sb.append(',');
+				sb.append(d.topRepairs.getInt(i, 0)).append(':').append(d.topRepairs.getLong(i, 1));
+			}
+			for (int i = 0; i < d.statusCounts.length; ++i) {
+				sb.append('\t').append(StatusCounters.STATUSES.charAt(i)).append('=').append(d.statusCounts[i]);
+			}
+			return sb.append("\tcruises=").append(d.overview.size()).append("\tms=").append(d.millis).toString();
+		} else if (name.equals("archive")) {
+			args(a, 1);
+			Archiver.Summary summary = this._esql.archiveDeparted(Date.valueOf(a.get(1)));
+			return "cruises=" + summary.cruises + "\treservations=" + summary.reservations + "\tbatches=" + summary.batches;
+		} else if (name.equals("assign")) {
+			args(a, 3);
+			ScheduleIndex.Assignment assignment = this._esql.assignCruise(toInt(a.get(1)),
+				a.get(2).equals("*") ? -1 : toInt(a.get(2)), a.get(3).equals("*") ? -1 : toInt(a.get(3)));
+			return "ciid=" + assignment.ciid + "\tship=" + assignment.shipId + "\tcaptain=" + assignment.captainId;
+		} else if (name.equals("free-ship")) {
+			args(a, 3);
+			return "ship=" + this._esql.findFreeShip(Date.valueOf(a.get(1)), Date.valueOf(a.get(2)), toInt(a.get(3)));
+		} else if (name.equals("add-ship")) {
+			args(a, 5);
+			this._esql.addShip(toInt(a.get(1)), a.get(2), a.get(3), toInt(a.get(4)), toInt(a.get(5)));
+			return "";
+		} else if (name.equals("add-captain")) {
+			args(a, 3);
+			this._esql.addCaptain(toInt(a.get(1)), a.get(2), a.get(3));
+			return "";
+		} else if (name.equals("add-cruise")) {
+			args(a, 8);
+			this._esql.addCruise(toInt(a.get(1)), toInt(a.get(2)), toInt(a.get(3)), toInt(a.get(4)),
+				Date.valueOf(a.get(5)), Date.valueOf(a.get(6)), a.get(7), a.get(8));
+			return "";
+		}
+		throw new IllegalArgumentException("Unknown command");
+	}//end dispatch
+
+	/**
+	 * Method to return the per-command call counts and timings.
+	 *
+	 * @return one line per command
+	 */
+	public String getSummary(){
+		StringBuilder sb = new StringBuilder();
+		long calls = 0, nanos = 0;
+		for (Map.Entry<String, long[]> e : this._timings.entrySet()) {
+			long[] t = e.getValue();
+			sb.append(e.getKey()).append(": calls=").append(t[0]).append(" errors=").append(t[1])
+				.append(" avgUs=").append(t[2] / t[0] / 1000).append('\n');
+			calls += t[0];
+			nanos += t[2];
+		}
+		long perSec = nanos == 0 ? 0 : calls * 1000000000L / nanos;
+		sb.append("total: calls=").append(calls).append(" ms=").append(nanos / 1000000)
+			.append(" commands/s=").append(perSec);
+		return sb.toString();
+	}
+
+	private void record(String name, boolean ok, long nanos){
+		long[] t = this._timings.get(name);
+		if (t == null) {
+			t = new long[3];
+			this._timings.put(name, t);
+		}
+		t[0]++;
+		if (!ok) t[1]++;
+		t[2] += nanos;
+	}
+
+	private static void args(List<String> words, int expected){
+		if (words.size() - 1 != expected) {
+			throw new IllegalArgumentException("Expected " + expected + " arguments, got " + (words.size() - 1));
+		}
+	}
+
+	private static int toInt(String s){
+		try{
+			return Integer.parseInt(s);
+		}catch (NumberFormatException e){
+			throw new IllegalArgumentException("Not a number: " + s);
+		}
+	}
+
+	//* stands for an omitted argument
+	private static String optional(String s){
+		return s.equals("*") ? null : s;
+	}
+
+	//keeps a message on one output line
+	private static String clean(String s){
+		return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * Method to split a script line into words.  Double quotes group words
+	 * containing spaces.
+	 *
+	 * @param line the script line
+	 * @return the words of the line
+	 */
+	static List<String> tokenize(String line){
+		List<String> words = new ArrayList<String>();
+		StringBuilder word = new StringBuilder();
+		boolean quoted = false, inWord = false;
+		for (int i = 0; i < line.length(); ++i) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+				inWord = true;
+			} else if (!quoted && Character.isWhitespace(c)) {
+				if (inWord) {
+					words.add(word.toString());
+					word.setLength(0);
+					inWord = false;
+				}
+			} else {
+				word.append(c);
+				inWord = true;
+			}
+		}
+		if (inWord) words.add(word.toString());
+		return words;
+	}//end tokenize
+}//end ScriptRunner
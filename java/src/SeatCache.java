@@ -0,0 +1,209 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches the ship capacity and the number of reserved ('R') seats
+ * of each cruise.  A cruise is loaded with one query on first use; after that
+ * bookings made through this process update the counters in place, so seat
+ * lookups are answered from memory.  The cache is bounded and evicts the
+ * least recently used cruise.  Bookings send no change notification, so a
+ * cruise loaded longer than seats.maxAgeMs ago (default 10000, 0 never
+ * expires) is reloaded, and bookings made by other processes are reflected
+ * within that time.
+ *
+ */
+
+public class SeatCache{
+	//default number of cruises kept in memory
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	static final String LOAD_QUERY =
+		"SELECT S.seats, C.actual_departure_date, " +
+		"(SELECT COUNT(R.rnum) FROM Reservation R WHERE R.status = 'R' AND R.cid = C.cnum) " +
+		"FROM Ship S, CruiseInfo CI, Cruise C " +
+		"WHERE CI.ship_id = S.id AND CI.cruise_id = C.cnum AND C.cnum = ?";
+	//what is left to load when the reference snapshot has the cruise and ship
+	static final String RESERVED_QUERY = "SELECT COUNT(R.rnum) FROM Reservation R WHERE R.status = 'R' AND R.cid = ?";
+
+	private final DBproject _esql;
+	private final LinkedHashMap<Integer, Entry> _entries;
+	private final long _maxAgeNanos;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _expirations = 0;
+	//bumped by every write, so a load that raced with one is not cached
+	private long _writes = 0;
+
+	/**
+	 * Seat counters of one cruise.
+	 */
+	public static class Entry{
+		public final int cnum;
+		public final int capacity;
+		public final long departureDay;
+		int reserved;
+		//nanoTime the load started
+		final long loadedAt;
+
+		Entry(int cnum, int capacity, long departureDay, int reserved, long loadedAt){
+			this.cnum = cnum;
+			this.capacity = capacity;
+			this.departureDay = departureDay;
+			this.reserved = reserved;
+			this.loadedAt = loadedAt;
+		}
+
+		public int getReserved(){
+			return this.reserved;
+		}
+
+		public int getAvailable(){
+			return this.capacity - this.reserved;
+		}
+
+		public boolean departsOn(Date date){
+			return this.departureDay == date.toLocalDate().toEpochDay();
+		}
+	}//end Entry
+
+	public SeatCache(DBproject esql, final int capacity){
+		this._esql = esql;
+		long maxAgeMs = Long.getLong("seats.maxAgeMs", 10000L);
+		this._maxAgeNanos = maxAgeMs <= 0 ? Long.MAX_VALUE : maxAgeMs * 1000000L;
+		this._entries = new LinkedHashMap<Integer, Entry>(64, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<Integer, SeatCache.Entry> eldest){
+				if (size() > capacity) {
+					_evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to return the seat counters of a cruise, loading them from the
+	 * database on a miss.
+	 *
+	 * @param cnum the cruise number
+	 * @return a snapshot of the counters, or null when the cruise does not
+	 *         exist or has no ship assigned
+	 * @throws java.sql.SQLException when the counters could not be loaded
+	 */
+	public Entry get(int cnum) throws SQLException {
+		long writes;
+		long loadedAt = System.nanoTime();
+		synchronized (this) {
+			Entry e = this._entries.get(cnum);
+			if (e != null && loadedAt - e.loadedAt < this._maxAgeNanos) {
+				this._hits++;
+				return snapshot(e);
+			}
+			if (e != null) this._expirations++;
+			this._misses++;
+			writes = this._writes;
+		}
+
+		//load outside the lock so a slow query does not block other cruises
+		Entry loaded = loadFromSnapshot(cnum, loadedAt);
+		if (loaded == null) {
+			QueryResult result = this._esql.executeSharedReadQueryForResult(LOAD_QUERY, cnum);
+			if (result.isEmpty()) {
+				return null;
+			}
+			loaded = new Entry(cnum, result.getInt(0, 0),
+				result.getDate(0, 1).toEpochDay(), result.getInt(0, 2), loadedAt);
+		}
+
+		synchronized (this) {
+			//another caller may have loaded and updated it meanwhile
+			Entry e = this._entries.get(cnum);
+			if (e != null && e.loadedAt - loadedAt >= 0) {
+				return snapshot(e);
+			}
+			if (writes == this._writes) {
+				this._entries.put(cnum, loaded);
+			}
+			return snapshot(loaded);
+		}
+	}//end get
+
+	//takes the capacity and departure from a current reference snapshot, so
+	//only the reserved count is queried; null when the snapshot cannot tell
+	private Entry loadFromSnapshot(int cnum, long loadedAt) throws SQLException {
+		ReferenceSnapshot snapshot = this._esql.getReferenceSnapshot();
+		ReferenceSnapshot.Cruise cruise = snapshot == null ? null : snapshot.cruise(cnum);
+		int seats = cruise == null || cruise.shipId < 0 ? -1 : snapshot.shipSeats(cruise.shipId);
+		if (seats < 0) {
+			return null;
+		}
+		QueryResult result = this._esql.executeSharedReadQueryForResult(RESERVED_QUERY, cnum);
+		return new Entry(cnum, seats, cruise.departure.toEpochDay(), result.getInt(0, 0), loadedAt);
+	}
+
+	/**
+	 * Method to record a reservation written for a cruise.
+	 *
+	 * @param cnum the cruise number
+	 * @param status the status of the new reservation
+	 */
+	public synchronized void onReservation(int cnum, char status){
+		if (status != 'R') return;
+		this._writes++;
+		Entry e = this._entries.get(cnum);
+		if (e != null) {
+			e.reserved++;
+		}
+	}
+
+	/**
+	 * Method to record a reservation of a cruise being cancelled.
+	 *
+	 * @param cnum the cruise number
+	 * @param status the status the reservation had
+	 */
+	public synchronized void onCancellation(int cnum, char status){
+		if (status != 'R') return;
+		this._writes++;
+		Entry e = this._entries.get(cnum);
+		if (e != null) {
+			e.reserved--;
+		}
+	}
+
+	/**
+	 * Method to drop the cached counters of a cruise, forcing a reload on the
+	 * next lookup.
+	 *
+	 * @param cnum the cruise number
+	 */
+	public synchronized void invalidate(int cnum){
+		this._writes++;
+		this._entries.remove(cnum);
+	}
+
+	/**
+	 * Method to drop every cached cruise.
+	 */
+	public synchronized void clear(){
+		this._writes++;
+		this._entries.clear();
+	}
+
+	/**
+	 * Method to return a one line summary of the cache counters.
+	 *
+	 * @return the cache counters
+	 */
+	public synchronized String getStats(){
+		return "cruises=" + this._entries.size() + " hits=" + this._hits + " misses=" + this._misses +
+			" evictions=" + this._evictions + " expirations=" + this._expirations;
+	}
+
+	private static Entry snapshot(Entry e){
+		return new Entry(e.cnum, e.capacity, e.departureDay, e.reserved, e.loadedAt);
+	}
+}//end SeatCache
@@ -0,0 +1,75 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class times the phases of startup: the JVM up to main, loading the
+ * driver, connecting and, in fast startup mode, the warm-up tasks that run
+ * side by side.  Phases follow each other; tasks are shown with the phase
+ * they ran in.
+ *
+ */
+
+public class StartupTimer{
+	//milliseconds the JVM ran before main
+	private final long _jvmMs;
+	private final long _start = System.nanoTime();
+	private long _last = this._start;
+	private final List<String> _phases = new ArrayList<String>();
+	private final List<String> _tasks = new ArrayList<String>();
+
+	public StartupTimer(){
+		this._jvmMs = ManagementFactory.getRuntimeMXBean().getUptime();
+	}
+
+	/**
+	 * Method to end the current phase, which started when the previous one
+	 * ended.
+	 *
+	 * @param name the phase name
+	 */
+	public synchronized void phase(String name){
+		long now = System.nanoTime();
+		StringBuilder sb = new StringBuilder(name).append('=').append(millis(now - this._last)).append("ms");
+		if (!this._tasks.isEmpty()) {
+			sb.append(" [");
+			for (int i = 0; i < this._tasks.size(); ++i) sb.append(i == 0 ? "" : " ").append(this._tasks.get(i));
+			sb.append(']');
+			this._tasks.clear();
+		}
+		this._phases.add(sb.toString());
+		this._last = now;
+	}
+
+	/**
+	 * Method to record a task of the current phase, which may overlap other
+	 * tasks.
+	 *
+	 * @param name the task name
+	 * @param nanos how long the task took
+	 */
+	public synchronized void task(String name, long nanos){
+		this._tasks.add(name + "=" + millis(nanos) + "ms");
+	}
+
+	/**
+	 * Method to return a one line summary of startup so far.
+	 *
+	 * @return the time of each phase, and the total from JVM start
+	 */
+	public synchronized String getReport(){
+		StringBuilder sb = new StringBuilder("jvm=").append(this._jvmMs).append("ms");
+		for (String p : this._phases) sb.append(' ').append(p);
+		sb.append(" ready=").append(this._jvmMs + millis(this._last - this._start)).append("ms");
+		//-Xshare:auto silently runs without an archive that does not match
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (arg.startsWith("-XX:SharedArchiveFile=")) sb.append(" cds=").append(arg.substring(22));
+			if (arg.startsWith("-XX:ArchiveClassesAtExit=")) sb.append(" cds-dump=").append(arg.substring(25));
+		}
+		return sb.toString();
+	}
+
+	private static long millis(long nanos){
+		return nanos / 1000000;
+	}
+}//end StartupTimer
@@ -0,0 +1,109 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a least recently used cache of prepared statements for
+ * one physical connection, keyed by SQL template.  It is only ever touched
+ * by the session that currently holds the connection, so it needs no
+ * locking of its own.
+ *
+ */
+
+public class StatementCache{
+	//default number of statements kept per connection
+	public static final int DEFAULT_CAPACITY = 64;
+
+	//hit/miss counters across all connections
+	private static final AtomicLong _hits = new AtomicLong();
+	private static final AtomicLong _misses = new AtomicLong();
+	private static final AtomicLong _evictions = new AtomicLong();
+
+	private final Connection _connection;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	public StatementCache(Connection connection, final int capacity){
+		this._connection = connection;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+				if (size() > capacity) {
+					closeQuietly(eldest.getValue());
+					_evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to fetch the prepared statement for a SQL template, preparing
+	 * and caching it on a miss.  The returned statement is owned by the
+	 * cache and must not be closed by the caller.
+	 *
+	 * @param sql the SQL template with ? placeholders
+	 * @return the prepared statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = this._statements.get(sql);
+		if (ps != null && !ps.isClosed()) {
+			_hits.incrementAndGet();
+			ps.clearParameters();
+			return ps;
+		}
+		_misses.incrementAndGet();
+		ps = this._connection.prepareStatement(sql);
+		this._statements.put(sql, ps);
+		return ps;
+	}//end prepare
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public void clear(){
+		Iterator<PreparedStatement> it = this._statements.values().iterator();
+		while (it.hasNext()) {
+			closeQuietly(it.next());
+			it.remove();
+		}
+	}
+
+	public int size(){
+		return this._statements.size();
+	}
+
+	public static long getHits(){
+		return _hits.get();
+	}
+
+	public static long getMisses(){
+		return _misses.get();
+	}
+
+	/**
+	 * Method to return a one line summary of the cache counters.
+	 *
+	 * @return the cache counters
+	 */
+	public static String getStats(){
+		long hits = _hits.get();
+		long misses = _misses.get();
+		long total = hits + misses;
+		long ratio = total == 0 ? 0 : hits * 100 / total;
+		return "hits=" + hits + " misses=" + misses + " hitRatio=" + ratio + "%" +
+			" evictions=" + _evictions.get();
+	}
+
+	private static void closeQuietly(PreparedStatement ps){
+		try{
+			ps.close();
+		}catch (SQLException e){
+			// ignored.
+		}
+	}
+}//end StatementCache
@@ -0,0 +1,201 @@
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts reservations per status ('W', 'C', 'R'), in total and
+ * per cruise.  The counters are loaded with one query from the
+ * CruiseStatusSummary table (sql/summaries.sql), which triggers on
+ * Reservation keep current; after that reservations written through this
+ * process update them in place, so status counts are answered from memory.
+ *
+ * Totals are LongAdders, since every booking updates one of only three
+ * totals; per cruise counters are plain atomics, since bookings of one
+ * cruise are already serialized by its row lock.  Counters older than
+ * status.maxAgeMs (default 10000, 0 never expires) are reloaded, so writes
+ * made by other processes, or made here while a reload was running, are
+ * reflected within that time.
+ *
+ */
+
+public class StatusCounters{
+	//statuses in counter order
+	public static final String STATUSES = "WCR";
+
+	static final String LOAD_QUERY =
+		"SELECT S.cruise_id, S.status, S.reservation_count FROM CruiseStatusSummary S " +
+		"WHERE S.reservation_count <> 0";
+
+	private final DBproject _esql;
+	private final long _maxAgeNanos;
+	private volatile Counters _counters = null;
+	private long _loads = 0;
+
+	//one generation of counters, replaced as a whole on reload
+	private static class Counters{
+		final LongAdder[] totals = new LongAdder[STATUSES.length()];
+		final Map<Integer, AtomicLongArray> cruises = new ConcurrentHashMap<Integer, AtomicLongArray>();
+		final long loadedAt;
+
+		Counters(long loadedAt){
+			for (int i = 0; i < this.totals.length; ++i) this.totals[i] = new LongAdder();
+			this.loadedAt = loadedAt;
+		}
+
+		void add(int cnum, int status, long delta){
+			this.totals[status].add(delta);
+			AtomicLongArray c = this.cruises.get(cnum);
+			if (c == null) {
+				AtomicLongArray created = new AtomicLongArray(STATUSES.length());
+				c = ((ConcurrentHashMap<Integer, AtomicLongArray>) this.cruises).putIfAbsent(cnum, created);
+				if (c == null) c = created;
+			}
+			c.addAndGet(status, delta);
+		}
+	}//end Counters
+
+	public StatusCounters(DBproject esql){
+		this._esql = esql;
+		long maxAgeMs = Long.getLong("status.maxAgeMs", 10000L);
+		this._maxAgeNanos = maxAgeMs <= 0 ? Long.MAX_VALUE : maxAgeMs * 1000000L;
+	}
+
+	/**
+	 * Method to return the number of reservations with a status.
+	 *
+	 * @param status W, C or R
+	 * @return the number of reservations
+	 * @throws java.sql.SQLException when the counters could not be loaded
+	 */
+	public long getCount(char status) throws SQLException {
+		return counters().totals[index(status)].sum();
+	}
+
+	/**
+	 * Method to return the number of reservations of a cruise with a status.
+	 *
+	 * @param cnum the cruise number
+	 * @param status W, C or R
+	 * @return the number of reservations
+	 * @throws java.sql.SQLException when the counters could not be loaded
+	 */
+	public long getCount(int cnum, char status) throws SQLException {
+		AtomicLongArray c = counters().cruises.get(cnum);
+		return c == null ? 0 : c.get(index(status));
+	}
+
+	/**
+	 * Method to return the counts of every status for every cruise with
+	 * reservations.
+	 *
+	 * @return the W, C and R counts by cruise number, in cruise order
+	 * @throws java.sql.SQLException when the counters could not be loaded
+	 */
+	public SortedMap<Integer, long[]> getOverview() throws SQLException {
+		SortedMap<Integer, long[]> overview = new TreeMap<Integer, long[]>();
+		for (Map.Entry<Integer, AtomicLongArray> e : counters().cruises.entrySet()) {
+			long[] counts = new long[STATUSES.length()];
+			for (int i = 0; i < counts.length; ++i) counts[i] = e.getValue().get(i);
+			overview.put(e.getKey(), counts);
+		}
+		return overview;
+	}
+
+	/**
+	 * Method to record a reservation written for a cruise.
+	 *
+	 * @param cnum the cruise number
+	 * @param status the status of the new reservation
+	 */
+	public void onReservation(int cnum, char status){
+		add(cnum, status, 1);
+	}
+
+	/**
+	 * Method to record a reservation of a cruise being cancelled.
+	 *
+	 * @param cnum the cruise number
+	 * @param status the status the reservation had
+	 */
+	public void onCancellation(int cnum, char status){
+		add(cnum, status, -1);
+	}
+
+	/**
+	 * Method to record reservations of a cruise changing status.
+	 *
+	 * @param cnum the cruise number
+	 * @param from the old status
+	 * @param to the new status
+	 * @param count the number of reservations
+	 */
+	public void onStatusChange(int cnum, char from, char to, int count){
+		add(cnum, from, -count);
+		add(cnum, to, count);
+	}
+
+	/**
+	 * Method to drop the counters, forcing a reload on the next lookup.
+	 */
+	public synchronized void clear(){
+		this._counters = null;
+	}
+
+	/**
+	 * Method to return a one line summary of the counters.
+	 *
+	 * @return the totals and the number of loads
+	 */
+	public synchronized String getStats(){
+		Counters c = this._counters;
+		StringBuilder sb = new StringBuilder("loads=").append(this._loads);
+		if (c != null) {
+			for (int i = 0; i < STATUSES.length(); ++i) {
+				sb.append(' ').append(STATUSES.charAt(i)).append('=').append(c.totals[i].sum());
+			}
+			sb.append(" cruises=").append(c.cruises.size());
+		}
+		return sb.toString();
+	}
+
+	private void add(int cnum, char status, long delta){
+		int i = STATUSES.indexOf(status);
+		if (i < 0) return;
+		Counters c = this._counters;
+		if (c != null) c.add(cnum, i, delta);
+	}
+
+	//returns current counters, loading them when missing or too old
+	private Counters counters() throws SQLException {
+		Counters c = this._counters;
+		if (c != null && System.nanoTime() - c.loadedAt < this._maxAgeNanos) {
+			return c;
+		}
+		//writers are never blocked by a reload; callers racing to reload
+		//each run the query and the last one wins
+		long start = System.nanoTime();
+		QueryResult result = this._esql.executeSharedReadQueryForResult(LOAD_QUERY);
+		Counters loaded = new Counters(start);
+		for (int row = 0; row < result.getRowCount(); ++row) {
+			int i = STATUSES.indexOf(result.getChar(row, 1));
+			if (i >= 0) loaded.add(result.getInt(row, 0), i, result.getLong(row, 2));
+		}
+		synchronized (this) {
+			this._loads++;
+			this._counters = loaded;
+		}
+		return loaded;
+	}
+
+	private static int index(char status){
+		int i = STATUSES.indexOf(status);
+		if (i < 0) {
+			throw new IllegalArgumentException("Invalid status. Choose from W,R,C");
+		}
+		return i;
+	}
+}//end StatusCounters
@@ -0,0 +1,318 @@
+import java.time.Month;
+import java.time.Year;
+
+/**
+ * This class holds the input rules shared by the interactive menu, the
+ * script mode and the bulk loaders: numbers, dates, ship and cruise limits,
+ * reservation statuses and whole csv rows.  Every check scans the characters
+ * in place against static tables, so validating a row allocates nothing and
+ * the same code can check interactive input and millions of csv lines.
+ *
+ * Parsers return INVALID instead of throwing.  The limits mirror the domains
+ * in sql/create.sql.
+ *
+ */
+
+public final class Validator{
+	//returned by the parsers for malformed or out of range input
+	public static final int INVALID = Integer.MIN_VALUE;
+
+	//kinds of csv fields, see checkRow
+	public static final byte TEXT = 0;
+	public static final byte INT = 1;
+	public static final byte POSITIVE = 2;
+	public static final byte NON_NEGATIVE = 3;
+	public static final byte SEATS = 4;
+	public static final byte DATE = 5;
+	public static final byte DATE_MDY = 6;
+	public static final byte GENDER = 7;
+	public static final byte STATUS = 8;
+	public static final byte REPAIR_CODE = 9;
+
+	//_SEATS domain: 0 < seats < 500
+	public static final int MAX_SEATS = 499;
+
+	//full month names, lower case, by month number - 1
+	private static final String[] MONTH_NAMES = {
+		"january", "february", "march", "april", "may", "june",
+		"july", "august", "september", "october", "november", "december"
+	};
+	private static final Month[] MONTHS = Month.values();
+	//reservation statuses and repair codes, see the _STATUS and _CODE domains
+	private static final String STATUSES = "WCR";
+	private static final String[] REPAIR_CODES = {"MJ", "MN", "SV"};
+	//COPY's text format for NULL
+	private static final String COPY_NULL = "\\N";
+
+	private Validator(){
+	}
+
+	/**
+	 * Method to parse an optionally signed decimal integer, ignoring
+	 * surrounding whitespace.
+	 *
+	 * @param s the text
+	 * @param start the first character
+	 * @param end one past the last character
+	 * @return the value, or INVALID when it is not a number or overflows
+	 */
+	public static int parseInt(CharSequence s, int start, int end){
+		start = trimStart(s, start, end);
+		end = trimEnd(s, start, end);
+		if (start >= end) return INVALID;
+		boolean negative = s.charAt(start) == '-';
+		if (negative || s.charAt(start) == '+') {
+			if (++start == end) return INVALID;
+		}
+		long v = 0;
+		for (int i = start; i < end; ++i) {
+			int d = s.charAt(i) - '0';
+			if (d < 0 || d > 9) return INVALID;
+			v = v * 10 + d;
+			if (v > Integer.MAX_VALUE) return INVALID;
+		}
+		return (int) (negative ? -v : v);
+	}
+
+	public static int parseInt(CharSequence s){
+		return s == null ? INVALID : parseInt(s, 0, s.length());
+	}
+
+	/**
+	 * Method to parse a 4-digit year.
+	 *
+	 * @param s the text
+	 * @return the year, or INVALID
+	 */
+	public static int parseYear(CharSequence s){
+		if (s == null) return INVALID;
+		int start = trimStart(s, 0, s.length()), end = trimEnd(s, 0, s.length());
+		return end - start == 4 && isDigits(s, start, end) ? parseInt(s, start, end) : INVALID;
+	}
+
+	/**
+	 * Method to parse a month given as 1 to 12, 01 to 09, or its full English
+	 * name in any case.
+	 *
+	 * @param s the text
+	 * @return the month number, or INVALID
+	 */
+	public static int parseMonth(CharSequence s){
+		if (s == null) return INVALID;
+		int start = trimStart(s, 0, s.length()), end = trimEnd(s, 0, s.length());
+		if (end - start <= 2 && isDigits(s, start, end)) {
+			int m = parseInt(s, start, end);
+			return m >= 1 && m <= 12 ? m : INVALID;
+		}
+		for (int m = 0; m < MONTH_NAMES.length; ++m) {
+			if (equalsIgnoreCase(s, start, end, MONTH_NAMES[m])) return m + 1;
+		}
+		return INVALID;
+	}
+
+	/**
+	 * Method to parse a day given as 1 to 31 or 01 to 09, checked against the
+	 * length of the month.
+	 *
+	 * @param s the text
+	 * @param year the year, for February in leap years
+	 * @param month the month number
+	 * @return the day, or INVALID
+	 */
+	public static int parseDay(CharSequence s, int year, int month){
+		if (s == null) return INVALID;
+		int start = trimStart(s, 0, s.length()), end = trimEnd(s, 0, s.length());
+		if (end - start > 2 || !isDigits(s, start, end)) return INVALID;
+		int d = parseInt(s, start, end);
+		return isValidDate(year, month, d) ? d : INVALID;
+	}
+
+	/**
+	 * Method to return the number of days in a month, with the Gregorian
+	 * leap year rule (every 4th year, except centuries not divisible by 400).
+	 *
+	 * @param year the year
+	 * @param month the month number, 1 to 12
+	 * @return the number of days
+	 */
+	public static int daysInMonth(int year, int month){
+		return MONTHS[month - 1].length(Year.isLeap(year));
+	}
+
+	public static boolean isValidDate(int year, int month, int day){
+		return month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month);
+	}
+
+	/**
+	 * Method to check a number against a numeric field kind.
+	 *
+	 * @param kind INT, POSITIVE, NON_NEGATIVE or SEATS
+	 * @param value the number, INVALID is never valid
+	 * @return whether the number is valid
+	 */
+	public static boolean isValid(byte kind, int value){
+		switch (kind) {
+			case INT: return value != INVALID;
+			case POSITIVE: return value > 0;
+			case NON_NEGATIVE: return value >= 0;
+			case SEATS: return isShipSeats(value);
+			default: return false;
+		}
+	}
+
+	public static boolean isShipAge(int age){
+		return age >= 0;
+	}
+
+	public static boolean isShipSeats(int seats){
+		return seats > 0 && seats <= MAX_SEATS;
+	}
+
+	public static boolean isCruiseCost(int cost){
+		return cost > 0;
+	}
+
+	public static boolean isCruiseSold(int sold){
+		return sold >= 0;
+	}
+
+	public static boolean isCruiseStops(int stops){
+		return stops >= 0;
+	}
+
+	/**
+	 * Method to check a reservation status, one of W, C or R.
+	 *
+	 * @param s the text
+	 * @return whether it is a valid status
+	 */
+	public static boolean isStatus(CharSequence s){
+		return s != null && s.length() == 1 && STATUSES.indexOf(s.charAt(0)) >= 0;
+	}
+
+	/**
+	 * Method to look up a repair code.
+	 *
+	 * @param s the text
+	 * @return 0, 1 or 2 for MJ, MN or SV, or -1 when it is not a repair code
+	 */
+	public static int repairCodeIndex(CharSequence s){
+		if (s == null) return -1;
+		for (int i = 0; i < REPAIR_CODES.length; ++i) {
+			if (equals(s, 0, s.length(), REPAIR_CODES[i])) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Method to check one line of a csv file against its field kinds.  Fields
+	 * are separated by commas, as in COPY's text format, and \N (NULL) is
+	 * accepted for the nullable status and repair code columns.
+	 *
+	 * @param fields the kind of every field, in order
+	 * @param line the line, without its line terminator
+	 * @return -1 when the line is valid, otherwise the index of the first bad
+	 *         field (fields.length when the line has too many fields)
+	 */
+	public static int checkRow(byte[] fields, CharSequence line){
+		int len = line.length(), start = 0;
+		for (int f = 0; f < fields.length; ++f) {
+			if (start > len) return f;
+			int end = start;
+			while (end < len && line.charAt(end) != ',') ++end;
+			if (!checkField(fields[f], line, start, end)) return f;
+			start = end + 1;
+		}
+		return start <= len ? fields.length : -1;
+	}
+
+	//checks one csv field
+	private static boolean checkField(byte kind, CharSequence s, int start, int end){
+		if ((kind == STATUS || kind == REPAIR_CODE) && equals(s, start, end, COPY_NULL)) return true;
+		switch (kind) {
+			case TEXT:
+				return true;
+			case INT:
+			case POSITIVE:
+			case NON_NEGATIVE:
+			case SEATS:
+				return isValid(kind, parseInt(s, start, end));
+			case DATE:
+				return checkIsoDate(s, start, end);
+			case DATE_MDY:
+				return checkMdyDate(s, start, end);
+			case GENDER:
+				return end - start == 1 && (s.charAt(start) == 'F' || s.charAt(start) == 'M');
+			case STATUS:
+				return end - start == 1 && STATUSES.indexOf(s.charAt(start)) >= 0;
+			case REPAIR_CODE:
+				for (String code : REPAIR_CODES) {
+					if (equals(s, start, end, code)) return true;
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+
+	//yyyy-mm-dd, optionally followed by a time ("2014-05-01 16:45")
+	private static boolean checkIsoDate(CharSequence s, int start, int end){
+		int space = start;
+		while (space < end && s.charAt(space) != ' ') ++space;
+		if (space - start != 10 || s.charAt(start + 4) != '-' || s.charAt(start + 7) != '-') return false;
+		if (!isDigits(s, start, start + 4) || !isDigits(s, start + 5, start + 7) || !isDigits(s, start + 8, start + 10)) {
+			return false;
+		}
+		return isValidDate(parseInt(s, start, start + 4), parseInt(s, start + 5, start + 7),
+			parseInt(s, start + 8, start + 10));
+	}
+
+	//m/d/yyyy, as in customer.csv
+	private static boolean checkMdyDate(CharSequence s, int start, int end){
+		int slash1 = start;
+		while (slash1 < end && s.charAt(slash1) != '/') ++slash1;
+		int slash2 = slash1 + 1;
+		while (slash2 < end && s.charAt(slash2) != '/') ++slash2;
+		if (slash2 >= end || end - slash2 != 5 || !isDigits(s, start, slash1) || !isDigits(s, slash1 + 1, slash2)) {
+			return false;
+		}
+		if (slash1 - start > 2 || slash2 - slash1 > 3 || !isDigits(s, slash2 + 1, end)) return false;
+		return isValidDate(parseInt(s, slash2 + 1, end), parseInt(s, start, slash1), parseInt(s, slash1 + 1, slash2));
+	}
+
+	private static boolean isDigits(CharSequence s, int start, int end){
+		if (start >= end) return false;
+		for (int i = start; i < end; ++i) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') return false;
+		}
+		return true;
+	}
+
+	private static boolean equals(CharSequence s, int start, int end, String expected){
+		if (end - start != expected.length()) return false;
+		for (int i = 0; i < expected.length(); ++i) {
+			if (s.charAt(start + i) != expected.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	//expected is lower case
+	private static boolean equalsIgnoreCase(CharSequence s, int start, int end, String expected){
+		if (end - start != expected.length()) return false;
+		for (int i = 0; i < expected.length(); ++i) {
+			if (Character.toLowerCase(s.charAt(start + i)) != expected.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private static int trimStart(CharSequence s, int start, int end){
+		while (start < end && s.charAt(start) <= ' ') ++start;
+		return start;
+	}
+
+	private static int trimEnd(CharSequence s, int start, int end){
+		while (end > start && s.charAt(end - 1) <= ' ') --end;
+		return end;
+	}
+}//end Validator
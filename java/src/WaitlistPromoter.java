@@ -0,0 +1,161 @@
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class moves waitlisted ('W') reservations to reserved ('R') when
+ * seats free up.  Cruises with freed seats are queued, first freed first
+ * served, and a background thread promotes each one through the
+ * promote_waitlist function (sql/functions.sql): one transaction per cruise
+ * that takes up to a batch of the oldest waitlisted reservations from the
+ * cruise's FIFO queue, the reservation_waitlist index.
+ *
+ * Seats freed in quick succession on a cruise are coalesced into one
+ * promotion by waiting promotion.delayMs (default 50) before draining the
+ * queue.  promotion.batchSize (default 100) caps the reservations promoted
+ * per transaction; a cruise that filled a whole batch is queued again.
+ *
+ */
+
+public class WaitlistPromoter{
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	private static final String PROMOTE_QUERY =
+		"SELECT promoted_rnum, promoted_ccid FROM promote_waitlist(?, ?)";
+
+	private final DBproject _esql;
+	private final int _batchSize;
+	private final long _delayMs;
+	//cruises with freed seats, in the order their seats were freed
+	private final Set<Integer> _pending = new LinkedHashSet<Integer>();
+	private boolean _scheduled = false;
+	private final ScheduledExecutorService _worker;
+
+	private final AtomicLong _promoted = new AtomicLong();
+	private final AtomicLong _transactions = new AtomicLong();
+	private final AtomicLong _failures = new AtomicLong();
+
+	public WaitlistPromoter(DBproject esql){
+		this._esql = esql;
+		this._batchSize = Integer.getInteger("promotion.batchSize", DEFAULT_BATCH_SIZE);
+		this._delayMs = Long.getLong("promotion.delayMs", 50L);
+		if (this._batchSize < 1) {
+			throw new IllegalArgumentException("Invalid promotion batch size: " + this._batchSize);
+		}
+		this._worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "waitlist-promoter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Method to queue a cruise whose seats were freed for promotion.
+	 *
+	 * @param cnum the cruise number
+	 */
+	public synchronized void onSeatsFreed(int cnum){
+		this._pending.add(cnum);
+		//after close the caller's cruise stays queued for the final drain
+		if (!this._scheduled && !this._worker.isShutdown()) {
+			this._scheduled = true;
+			this._worker.schedule(new Runnable(){
+				public void run(){
+					drain();
+				}
+			}, this._delayMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Method to promote the waitlist of a cruise now, in batches, until its
+	 * seats or its waitlist run out.
+	 *
+	 * @param cnum the cruise number
+	 * @return the number of reservations promoted
+	 * @throws java.sql.SQLException when a promotion failed; batches before
+	 *         it stay committed
+	 */
+	public int promote(int cnum) throws SQLException {
+		int total = 0, n;
+		do {
+			n = promoteBatch(cnum);
+			total += n;
+		} while (n == this._batchSize);
+		return total;
+	}
+
+	/**
+	 * Method to stop the background thread, promoting every queued cruise
+	 * first.
+	 */
+	public void close(){
+		this._worker.shutdown();
+		try{
+			this._worker.awaitTermination(1, TimeUnit.MINUTES);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		drain();
+	}
+
+	/**
+	 * Method to return a one line summary of the promotions so far.
+	 *
+	 * @return the promotion counters
+	 */
+	public String getStats(){
+		int pending;
+		synchronized (this) {
+			pending = this._pending.size();
+		}
+		return "promoted=" + this._promoted.get() + " transactions=" + this._transactions.get() +
+			" failures=" + this._failures.get() + " pending=" + pending;
+	}
+
+	//promotes every queued cruise, one transaction per batch
+	private void drain(){
+		while (true) {
+			int cnum;
+			synchronized (this) {
+				if (this._pending.isEmpty()) {
+					this._scheduled = false;
+					return;
+				}
+				cnum = this._pending.iterator().next();
+				this._pending.remove(cnum);
+			}
+			try{
+				if (promoteBatch(cnum) == this._batchSize) {
+					//more may fit; go to the back of the queue
+					synchronized (this) {
+						this._pending.add(cnum);
+					}
+				}
+			}catch (SQLException e){
+				this._failures.incrementAndGet();
+				System.err.println("Waitlist promotion of cruise " + cnum + " failed: " + e.getMessage());
+			}
+		}
+	}
+
+	//runs one promote_waitlist transaction and updates the caches
+	private int promoteBatch(int cnum) throws SQLException {
+		QueryResult result = this._esql.executeQueryForResult(PROMOTE_QUERY, cnum, this._batchSize);
+		this._transactions.incrementAndGet();
+		int n = result.getRowCount();
+		if (n > 0) {
+			this._esql.getSeatCache().invalidate(cnum);
+			this._esql.getStatusCounters().onStatusChange(cnum, 'W', 'R', n);
+		}
+		this._promoted.addAndGet(n);
+		return n;
+	}
+}//end WaitlistPromoter
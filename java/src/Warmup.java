@@ -0,0 +1,194 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class warms up a freshly connected DBproject in fast startup mode
+ * (-Dstartup.fast=true), so the first operations do not pay for opening
+ * connections, preparing statements, loading classes and filling caches.
+ * The tasks run side by side:
+ *
+ *   connection N  opens one of warmup.connections pool connections (default:
+ *                 the pool size) and prepares the hot statements on it.
+ *                 Queries run ConnectionPool.DEFAULT_PREPARE_THRESHOLD times
+ *                 with keys that match nothing, so the driver switches them to
+ *                 named server-side statements; statements that write are
+ *                 only parsed and described.
+ *   status        loads the status counters.
+ *   reports       fills the result cache with the repairs and top-repairs
+ *                 reports, once the cache listener is connected.
+ *   seats         loads the seat counters of the warmup.seats (default 256)
+ *                 cruises departing next.
+ *
+ * A failed task is reported and the others go on; the operation it warmed
+ * up then starts cold.
+ *
+ */
+
+public class Warmup{
+	public static final int DEFAULT_SEATS = 256;
+	//k of the top-repairs report the dashboard shows by default
+	private static final int TOP_REPAIRS_K = 10;
+	private static final long TIMEOUT_MS = 30 * 1000L;
+
+	private static final String NEXT_CRUISES_QUERY =
+		"SELECT C.cnum FROM Cruise C WHERE C.actual_departure_date >= CURRENT_DATE " +
+		"ORDER BY C.actual_departure_date, C.cnum LIMIT ?";
+	//read-only hot queries, with parameters that match no row
+	private static final String[] QUERIES = {
+		SeatCache.LOAD_QUERY,
+		SeatCache.RESERVED_QUERY
+	};
+	private static final Object[][] QUERY_PARAMS = {{-1}, {-1}};
+	//hot statements that write
+	private static final String[] UPDATES = {
+		BookingEngine.BOOK_QUERY,
+		BookingEngine.CANCEL_QUERY,
+		DBproject.INSERT_SHIP,
+		DBproject.INSERT_CAPTAIN,
+		DBproject.INSERT_CRUISE
+	};
+
+	private final DBproject _esql;
+
+	public Warmup(DBproject esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to run every warm-up task and wait for them.
+	 *
+	 * @param timer receives the time of each task
+	 * @return the number of tasks that failed
+	 */
+	public int run(StartupTimer timer){
+		int connections = Math.min(Integer.getInteger("warmup.connections", this._esql.getPool().getMaxSize()),
+			this._esql.getPool().getMaxSize());
+		final int seats = Integer.getInteger("warmup.seats", DEFAULT_SEATS);
+		//every connection is held until all are open, so each task warms
+		//a different one
+		final CountDownLatch opened = new CountDownLatch(connections);
+
+		List<String> names = new ArrayList<String>();
+		List<Task> tasks = new ArrayList<Task>();
+		for (int i = 0; i < connections; ++i) {
+			names.add("connection" + (i + 1));
+			tasks.add(new Task(){
+				public void run() throws Exception {
+					prepareStatements(opened);
+				}
+			});
+		}
+		names.add("status");
+		tasks.add(new Task(){
+			public void run() throws Exception {
+				_esql.getStatusCounters().getCount('R');
+			}
+		});
+		names.add("reports");
+		tasks.add(new Task(){
+			public void run() throws Exception {
+				fillReports();
+			}
+		});
+		if (seats > 0) {
+			names.add("seats");
+			tasks.add(new Task(){
+				public void run() throws Exception {
+					fillSeats(seats);
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "warmup");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		for (Task task : tasks) futures.add(executor.submit(task.timed()));
+		int failures = 0;
+		for (int i = 0; i < futures.size(); ++i) {
+			try{
+				timer.task(names.get(i), futures.get(i).get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+			}catch (Exception e){
+				failures++;
+				System.err.println("Warm-up of " + names.get(i) + " failed: " +
+					(e.getCause() != null ? e.getCause().getMessage() : e.toString()));
+			}
+		}
+		executor.shutdownNow();
+		return failures;
+	}//end run
+
+	private abstract static class Task{
+		abstract void run() throws Exception;
+
+		//returns how long the task took
+		Callable<Long> timed(){
+			return new Callable<Long>(){
+				public Long call() throws Exception {
+					long start = System.nanoTime();
+					Task.this.run();
+					return System.nanoTime() - start;
+				}
+			};
+		}
+	}//end Task
+
+	private void prepareStatements(CountDownLatch opened) throws SQLException, InterruptedException {
+		ConnectionPool pool = this._esql.getPool();
+		ConnectionPool.PooledConnection pc;
+		try{
+			pc = pool.borrow();
+		}finally{
+			opened.countDown();
+		}
+		try{
+			opened.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			for (int i = 0; i < QUERIES.length; ++i) {
+				PreparedStatement stmt = pc.prepare(QUERIES[i]);
+				for (int n = 0; n < ConnectionPool.DEFAULT_PREPARE_THRESHOLD; ++n) {
+					for (int p = 0; p < QUERY_PARAMS[i].length; ++p) stmt.setObject(p + 1, QUERY_PARAMS[i][p]);
+					ResultSet rs = stmt.executeQuery();
+					rs.close();
+				}
+			}
+			for (String update : UPDATES) {
+				//parses and describes the statement without running it
+				pc.prepare(update).getParameterMetaData();
+			}
+		}finally{
+			pool.release(pc);
+		}
+	}//end prepareStatements
+
+	private void fillReports() throws SQLException, InterruptedException {
+		ResultCache cache = this._esql.getResultCache();
+		if (!cache.isEnabled()) return;
+		if (!cache.awaitListening(TIMEOUT_MS)) {
+			throw new SQLException("Result cache listener is not connected");
+		}
+		this._esql.executeCachedQueryForResult(DBproject.REPAIRS_TABLES, DBproject.REPAIRS_PER_SHIP);
+		this._esql.executeCachedQueryForResult(DBproject.REPAIRS_TABLES, DBproject.TOP_REPAIRS[0], TOP_REPAIRS_K);
+	}
+
+	private void fillSeats(int count) throws SQLException {
+		QueryResult cruises = this._esql.executeSharedReadQueryForResult(NEXT_CRUISES_QUERY, count);
+		SeatCache seats = this._esql.getSeatCache();
+		for (int i = 0; i < cruises.getRowCount(); ++i) {
+			seats.get(cruises.getInt(i, 0));
+		}
+	}
+}//end Warmup
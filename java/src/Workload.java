@@ -0,0 +1,289 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class drives a mix of DBproject operations from many concurrent
+ * clients and reports throughput, latency percentiles and anomalies
+ * (deadlocks, duplicate reservation numbers, overbooked cruises).
+ *
+ * Settings are key=value words:
+ *   clients=N   concurrent clients (default 1000)
+ *   seconds=N   length of the run (default 30)
+ *   rate=N      operations started per second; 0 lets every client loop as
+ *               fast as it can (default 0)
+ *   mix=book:40,seats:40,status:10,repairs:10   relative operation weights
+ *
+ * Clients run on virtual threads when the JVM provides them (Java 21+) and
+ * on a pool of one platform thread per client otherwise.  With a rate, an
+ * operation is only handed to a thread once one of the clients is free, and
+ * latency is measured from the time it was scheduled to start, so time spent
+ * waiting for a free client or connection is included.
+ *
+ */
+
+public class Workload{
+	//operations of the mix
+	static final String[] OPS = {"book", "seats", "status", "repairs"};
+	private static final int BOOK = 0, SEATS = 1, STATUS = 2, REPAIRS = 3;
+	private static final String[] STATUSES = {"W", "R", "C"};
+
+	//SQLSTATEs counted as anomalies
+	private static final String DEADLOCK = "40P01";
+	private static final String UNIQUE_VIOLATION = "23505";
+
+	//cruises with more 'R' reservations than ship seats
+	private static final String OVERBOOKED_QUERY =
+		"SELECT COUNT(*) FROM Cruise C, CruiseInfo CI, Ship S " +
+		"WHERE CI.cruise_id = C.cnum AND S.id = CI.ship_id AND S.seats < " +
+		"(SELECT COUNT(R.rnum) FROM Reservation R WHERE R.status = 'R' AND R.cid = C.cnum)";
+	private static final String CRUISES_QUERY =
+		"SELECT C.cnum, C.actual_departure_date FROM Cruise C, CruiseInfo CI WHERE CI.cruise_id = C.cnum";
+
+	private final DBproject _esql;
+	private int _clients = 1000;
+	private int _seconds = 30;
+	private int _rate = 0;
+	private final int[] _weights = {40, 40, 10, 10};
+
+	//bookable ids
+	private int[] _customers;
+	private int[] _cruises;
+	private Date[] _departures;
+
+	private final LatencyHistogram[] _latency = new LatencyHistogram[OPS.length];
+	private final AtomicLong[] _errors = new AtomicLong[OPS.length];
+	private final AtomicLong _deadlocks = new AtomicLong();
+	private final AtomicLong _duplicateKeys = new AtomicLong();
+	private final AtomicLong _duplicateRnums = new AtomicLong();
+	private final AtomicLong _waitlisted = new AtomicLong();
+	private final Set<Integer> _rnums = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	public Workload(DBproject esql){
+		this._esql = esql;
+		for (int i = 0; i < OPS.length; ++i) {
+			this._latency[i] = new LatencyHistogram();
+			this._errors[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Method to apply key=value settings.
+	 *
+	 * @param settings the settings words
+	 */
+	public void configure(String[] settings){
+		for (String s : settings) {
+			int eq = s.indexOf('=');
+			if (eq < 0) throw new IllegalArgumentException("Expected key=value: " + s);
+			String key = s.substring(0, eq), value = s.substring(eq + 1);
+			if (key.equals("clients")) {
+				this._clients = positive(key, value);
+			} else if (key.equals("seconds")) {
+				this._seconds = positive(key, value);
+			} else if (key.equals("rate")) {
+				this._rate = Integer.parseInt(value);
+			} else if (key.equals("mix")) {
+				Arrays.fill(this._weights, 0);
+				for (String part : value.split(",")) {
+					String[] kv = part.split(":");
+					int op = indexOf(kv[0]);
+					if (op < 0 || kv.length != 2) throw new IllegalArgumentException("Bad mix entry: " + part);
+					this._weights[op] = Integer.parseInt(kv[1]);
+				}
+			} else {
+				throw new IllegalArgumentException("Unknown setting: " + key);
+			}
+		}
+		int total = 0;
+		for (int w : this._weights) total += w;
+		if (total <= 0) throw new IllegalArgumentException("The mix has no operations");
+	}
+
+	/**
+	 * Method to run the workload and print its report.
+	 *
+	 * @throws java.lang.Exception when the workload could not be prepared
+	 */
+	public void run() throws Exception {
+		prepare();
+		long overbookedBefore = this._esql.queryForLong(OVERBOOKED_QUERY);
+
+		System.out.println("Running " + this._clients + " clients for " + this._seconds + " s" +
+			(this._rate > 0 ? " at " + this._rate + " ops/s" : " (closed loop)") +
+			" on " + (isVirtual() ? "virtual" : "platform") + " threads");
+		ExecutorService executor = newExecutor(this._clients);
+		long start = System.nanoTime();
+		final long deadline = start + TimeUnit.SECONDS.toNanos(this._seconds);
+		try{
+			if (this._rate > 0) {
+				runOpen(executor, start, deadline);
+			} else {
+				runClosed(executor, deadline);
+			}
+		}finally{
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		long overbookedAfter = this._esql.queryForLong(OVERBOOKED_QUERY);
+		report(elapsed, overbookedBefore, overbookedAfter);
+	}//end run
+
+	//every client loops over operations until the deadline
+	private void runClosed(ExecutorService executor, final long deadline){
+		for (int c = 0; c < this._clients; ++c) {
+			executor.execute(new Runnable(){
+				public void run(){
+					while (System.nanoTime() < deadline) {
+						long t = System.nanoTime();
+						execute(pick(), t);
+					}
+				}
+			});
+		}
+	}
+
+	//operations are started at a fixed rate; at most clients run at once, and
+	//one is only submitted once a client is free, so no thread waits idle
+	private void runOpen(ExecutorService executor, long start, long deadline) throws InterruptedException {
+		final Semaphore clients = new Semaphore(this._clients);
+		long interval = 1000000000L / this._rate;
+		for (long n = 0; ; ++n) {
+			final long scheduled = start + n * interval;
+			if (scheduled >= deadline) break;
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+			final int op = pick();
+			clients.acquire();
+			executor.execute(new Runnable(){
+				public void run(){
+					try{
+						execute(op, scheduled);
+					}finally{
+						clients.release();
+					}
+				}
+			});
+		}
+	}
+
+	//runs one operation and records its latency from startNanos
+	void execute(int op, long startNanos){
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+		try{
+			switch (op) {
+				case BOOK:
+					BookingEngine.Booking b = this._esql.bookCruise(
+						this._customers[r.nextInt(this._customers.length)], this._cruises[r.nextInt(this._cruises.length)]);
+					if (!this._rnums.add(b.rnum)) this._duplicateRnums.incrementAndGet();
+					if (b.isWaitlisted()) this._waitlisted.incrementAndGet();
+					break;
+				case SEATS:
+					int i = r.nextInt(this._cruises.length);
+					this._esql.findSeats(this._cruises[i], this._departures[i]);
+					break;
+				case STATUS:
+					this._esql.countPassengersWithStatus(STATUSES[r.nextInt(STATUSES.length)]);
+					break;
+				default:
+					this._esql.repairsPerShip();
+			}
+		}catch (SQLException e){
+			this._errors[op].incrementAndGet();
+			if (DEADLOCK.equals(e.getSQLState())) this._deadlocks.incrementAndGet();
+			if (UNIQUE_VIOLATION.equals(e.getSQLState())) this._duplicateKeys.incrementAndGet();
+		}catch (RuntimeException e){
+			this._errors[op].incrementAndGet();
+		}
+		this._latency[op].recordNanos(System.nanoTime() - startNanos);
+	}
+
+	int pick(){
+		int total = 0;
+		for (int w : this._weights) total += w;
+		int x = ThreadLocalRandom.current().nextInt(total);
+		for (int i = 0; i < this._weights.length; ++i) {
+			x -= this._weights[i];
+			if (x < 0) return i;
+		}
+		return this._weights.length - 1;
+	}
+
+	private void prepare() throws SQLException {
+		QueryResult customers = this._esql.executeQueryForResult("SELECT C.id FROM Customer C");
+		this._customers = new int[customers.getRowCount()];
+		for (int i = 0; i < this._customers.length; ++i) this._customers[i] = customers.getInt(i, 0);
+
+		QueryResult cruises = this._esql.executeQueryForResult(CRUISES_QUERY);
+		this._cruises = new int[cruises.getRowCount()];
+		this._departures = new Date[cruises.getRowCount()];
+		for (int i = 0; i < this._cruises.length; ++i) {
+			this._cruises[i] = cruises.getInt(i, 0);
+			this._departures[i] = Date.valueOf(cruises.getDate(i, 1));
+		}
+		if (this._customers.length == 0 || this._cruises.length == 0) {
+			throw new SQLException("No customers or cruises to book");
+		}
+	}
+
+	private void report(long elapsedNanos, long overbookedBefore, long overbookedAfter){
+		long total = 0, errors = 0;
+		for (int i = 0; i < OPS.length; ++i) {
+			LatencyHistogram h = this._latency[i];
+			if (h.getCount() == 0) continue;
+			System.out.println("\t" + OPS[i] + ": " + h.getSummary() + " errors=" + this._errors[i].get() +
+				" ops/s=" + h.getCount() * 1000000000L / elapsedNanos);
+			total += h.getCount();
+			errors += this._errors[i].get();
+		}
+		System.out.println("Total: " + total + " ops in " + elapsedNanos / 1000000 + " ms (" +
+			total * 1000000000L / elapsedNanos + " ops/s), errors=" + errors);
+		System.out.println("Anomalies: deadlocks=" + this._deadlocks.get() + " duplicateKeyErrors=" +
+			this._duplicateKeys.get() + " duplicateRnums=" + this._duplicateRnums.get() +
+			" overbookedCruises=" + overbookedAfter + " (before run: " + overbookedBefore + ")" +
+			" waitlisted=" + this._waitlisted.get());
+	}
+
+	private static int indexOf(String op){
+		for (int i = 0; i < OPS.length; ++i) {
+			if (OPS[i].equals(op)) return i;
+		}
+		return -1;
+	}
+
+	private static int positive(String key, String value){
+		int v = Integer.parseInt(value);
+		if (v < 1) throw new IllegalArgumentException(key + " must be positive");
+		return v;
+	}
+
+	//Executors.newVirtualThreadPerTaskExecutor on Java 21+, found reflectively
+	//so the sources still build for Java 8; a thread per client before that
+	private static ExecutorService newExecutor(int clients){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch (Exception e){
+			return Executors.newFixedThreadPool(clients);
+		}
+	}
+
+	private static boolean isVirtual(){
+		try{
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}catch (NoSuchMethodException e){
+			return false;
+		}
+	}
+}//end Workload
@@ -0,0 +1,157 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Books one small cruise from many threads at once and checks that no more
+ * 'R' reservations are made than the ship has seats and that no reservation
+ * number is handed out twice, through book_cruise alone and with a
+ * BatchBooker chunk racing it.  Prints the booking throughput.
+ */
+public class BookingConcurrencyTest{
+	private static final int SEATS = 5;
+	private static final int THREADS = 16;
+	private static final int BOOKINGS_PER_THREAD = 20;
+
+	private DBproject _esql;
+	private ExecutorService _executor;
+	private int _ship;
+	private int _captain;
+	private int _cnum;
+	private int[] _customers;
+
+	@Before
+	public void setUp() throws Exception {
+		this._esql = TestDatabase.open(THREADS);
+		this._ship = TestDatabase.nextId(this._esql, "Ship", "id");
+		this._captain = TestDatabase.nextId(this._esql, "Captain", "id");
+		this._cnum = TestDatabase.nextId(this._esql, "Cruise", "cnum");
+		this._esql.addShip(this._ship, "Test", "Concurrency", 1, SEATS);
+		this._esql.addCaptain(this._captain, "Test Captain", "Test");
+		this._esql.addCruise(this._cnum, 100, 0, 0, Date.valueOf("2100-01-01"), Date.valueOf("2100-01-05"),
+			"TESTA", "TESTB");
+		this._esql.assignCruise(this._cnum, this._ship, this._captain);
+		QueryResult customers = this._esql.executeQueryForResult("SELECT C.id FROM Customer C ORDER BY C.id LIMIT 50");
+		this._customers = new int[customers.getRowCount()];
+		for (int i = 0; i < this._customers.length; ++i) this._customers[i] = customers.getInt(i, 0);
+		assertTrue("the test database has no customers", this._customers.length > 0);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (this._esql == null) return;
+		try{
+			//a failed test may leave bookings running
+			if (this._executor != null) {
+				this._executor.shutdownNow();
+				this._executor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			this._esql.executeUpdate("DELETE FROM Reservation WHERE cid = ?", this._cnum);
+			this._esql.executeUpdate("DELETE FROM CruiseInfo WHERE cruise_id = ?", this._cnum);
+			this._esql.executeUpdate("DELETE FROM Cruise WHERE cnum = ?", this._cnum);
+			this._esql.executeUpdate("DELETE FROM Ship WHERE id = ?", this._ship);
+			this._esql.executeUpdate("DELETE FROM Captain WHERE id = ?", this._captain);
+		}finally{
+			this._esql.cleanup();
+		}
+	}
+
+	@Test
+	public void concurrentBookingsDoNotOverbook() throws Exception {
+		ExecutorService executor = this._executor = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch go = new CountDownLatch(1);
+		final Set<Integer> rnums = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < THREADS; ++t) {
+			final int thread = t;
+			futures.add(executor.submit(new Callable<Integer>(){
+				public Integer call() throws Exception {
+					go.await();
+					int reserved = 0;
+					for (int i = 0; i < BOOKINGS_PER_THREAD; ++i) {
+						int ccid = _customers[(thread * BOOKINGS_PER_THREAD + i) % _customers.length];
+						BookingEngine.Booking booking = _esql.bookCruise(ccid, _cnum);
+						rnums.add(booking.rnum);
+						if (!booking.isWaitlisted()) reserved++;
+					}
+					return reserved;
+				}
+			}));
+		}
+		long start = System.nanoTime();
+		go.countDown();
+		int reserved = 0;
+		for (Future<Integer> f : futures) reserved += f.get();
+		long nanos = System.nanoTime() - start;
+		executor.shutdown();
+
+		int total = THREADS * BOOKINGS_PER_THREAD;
+		System.out.println("book_cruise: " + total + " bookings from " + THREADS + " threads in " + nanos / 1000000 +
+			"ms, " + total * 1000000000L / Math.max(1, nanos) + " bookings/s");
+		assertEquals("bookings told they were reserved", SEATS, reserved);
+		assertEquals("distinct reservation numbers", total, rnums.size());
+		assertEquals(SEATS, countReservations('R'));
+		assertEquals(total - SEATS, countReservations('W'));
+	}
+
+	@Test
+	public void batchBookingRacingBookCruiseDoesNotOverbook() throws Exception {
+		File file = File.createTempFile("bookings", ".csv");
+		file.deleteOnExit();
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		for (int i = 0; i < 2 * SEATS; ++i) out.println(this._customers[i % this._customers.length] + "," + this._cnum);
+		out.close();
+
+		ExecutorService executor = this._executor = Executors.newFixedThreadPool(THREADS + 1);
+		final CountDownLatch go = new CountDownLatch(1);
+		final BatchBooker booker = new BatchBooker(this._esql, this._esql.getBookingEngine().getRnumAllocator(),
+			BatchBooker.DEFAULT_CHUNK_SIZE);
+		final File bookings = file;
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		futures.add(executor.submit(new Callable<Object>(){
+			public Object call() throws Exception {
+				go.await();
+				return booker.book(bookings);
+			}
+		}));
+		for (int t = 0; t < THREADS; ++t) {
+			final int thread = t;
+			futures.add(executor.submit(new Callable<Object>(){
+				public Object call() throws Exception {
+					go.await();
+					return _esql.bookCruise(_customers[thread % _customers.length], _cnum);
+				}
+			}));
+		}
+		go.countDown();
+		for (Future<?> f : futures) f.get();
+		executor.shutdown();
+
+		assertEquals(SEATS, countReservations('R'));
+		assertEquals(2 * SEATS + THREADS - SEATS, countReservations('W'));
+	}
+
+	private long countReservations(char status) throws Exception {
+		return this._esql.queryForLong("SELECT COUNT(R.rnum) FROM Reservation R WHERE R.cid = ? AND R.status = ?",
+			this._cnum, String.valueOf(status));
+	}
+}//end BookingConcurrencyTest
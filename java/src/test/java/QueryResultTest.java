@@ -0,0 +1,147 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that QueryResult stores each SQL type in the column kind its
+ * getters expect, keeps NULLs apart from zeros and grows past its initial
+ * capacity.  Reads literal rows, so it touches no table.
+ */
+public class QueryResultTest{
+	private DBproject _esql;
+
+	@Before
+	public void setUp() throws Exception {
+		this._esql = TestDatabase.open(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (this._esql != null) this._esql.cleanup();
+	}
+
+	@Test
+	public void columnKinds() throws Exception {
+		QueryResult r = this._esql.executeQueryForResult(
+			"SELECT 1::integer AS i, 2::smallint AS s, 3000000000::bigint AS l, DATE '2016-02-29' AS d, " +
+			"'R'::char(1) AS c, 'Lisbon'::varchar(20) AS v, 1.5::numeric AS n");
+		assertEquals(1, r.getRowCount());
+		assertEquals(7, r.getColumnCount());
+		assertEquals("i", r.getColumnName(0));
+		assertEquals(QueryResult.INT, r.getColumnKind(0));
+		assertEquals(QueryResult.INT, r.getColumnKind(1));
+		assertEquals(QueryResult.LONG, r.getColumnKind(2));
+		assertEquals(QueryResult.DATE, r.getColumnKind(3));
+		assertEquals(QueryResult.DICT, r.getColumnKind(4));
+		assertEquals(QueryResult.STRING, r.getColumnKind(5));
+		assertEquals(QueryResult.STRING, r.getColumnKind(6));
+
+		assertEquals(1, r.getInt(0, 0));
+		assertEquals(2L, r.getLong(0, 1));
+		assertEquals(3000000000L, r.getLong(0, 2));
+		assertEquals(LocalDate.of(2016, 2, 29), r.getDate(0, 3));
+		assertEquals('R', r.getChar(0, 4));
+		assertEquals("Lisbon", r.getString(0, 5));
+		assertEquals("1.5", r.getString(0, 6));
+		//every column formats as text
+		assertEquals("3000000000", r.getString(0, 2));
+		assertEquals("2016-02-29", r.getString(0, 3));
+	}
+
+	@Test
+	public void nullsAreNotZeros() throws Exception {
+		QueryResult r = this._esql.executeQueryForResult(
+			"SELECT * FROM (VALUES (0, NULL::bigint, NULL::date, NULL::char(2), NULL::text), " +
+			"(NULL, 0::bigint, DATE '2014-05-01', 'MJ'::char(2), ''::text)) V(i, l, d, c, t)");
+		assertEquals(2, r.getRowCount());
+		assertFalse(r.isNull(0, 0));
+		assertTrue(r.isNull(1, 0));
+		assertEquals(0, r.getInt(1, 0));
+		assertNull(r.getString(1, 0));
+		assertTrue(r.isNull(0, 1));
+		assertFalse(r.isNull(1, 1));
+		assertTrue(r.isNull(0, 2));
+		assertNull(r.getDate(0, 2));
+		assertEquals(-1, r.getCode(0, 3));
+		assertEquals(0, r.getChar(0, 3));
+		assertNull(r.getString(0, 4));
+		assertEquals("", r.getString(1, 4));
+		assertEquals(0, r.getChar(1, 4));
+	}
+
+	@Test
+	public void dictionaryCodes() throws Exception {
+		QueryResult r = this._esql.executeQueryForResult(
+			"SELECT V.code::char(2) FROM (VALUES ('MJ'), ('MN'), ('MJ'), ('SV'), ('MN')) V(code)");
+		assertEquals(QueryResult.DICT, r.getColumnKind(0));
+		assertArrayEquals(new String[]{"MJ", "MN", "SV"}, r.getDictionary(0));
+		assertEquals(r.getCode(0, 0), r.getCode(2, 0));
+		assertEquals(r.getCode(1, 0), r.getCode(4, 0));
+		assertEquals(2, r.getCode(3, 0));
+		assertEquals("SV", r.getString(3, 0));
+	}
+
+	@Test
+	public void growsPastItsInitialCapacity() throws Exception {
+		QueryResult r = this._esql.executeQueryForResult(
+			"SELECT G.n, G.n::bigint * 1000000000, (DATE '2016-02-01' + G.n)::date, " +
+			"(CASE WHEN G.n % 2 = 0 THEN 'W' ELSE 'R' END)::char(1), G.n::text " +
+			"FROM generate_series(0, 99) G(n) ORDER BY G.n");
+		assertEquals(100, r.getRowCount());
+		for (int row = 0; row < 100; ++row) {
+			assertEquals(row, r.getInt(row, 0));
+			assertEquals(row * 1000000000L, r.getLong(row, 1));
+			assertEquals(LocalDate.of(2016, 2, 1).plusDays(row), r.getDate(row, 2));
+			assertEquals(row % 2 == 0 ? 'W' : 'R', r.getChar(row, 3));
+			assertEquals(Integer.toString(row), r.getString(row, 4));
+		}
+		assertEquals(2, r.getDictionary(3).length);
+	}
+
+	@Test
+	public void typedGettersRejectOtherKinds() throws Exception {
+		QueryResult r = this._esql.executeQueryForResult("SELECT 'x'::text AS t, 1 AS i, 'R'::char(1) AS c");
+		try{
+			r.getInt(0, 0);
+			fail("text read as int");
+		}catch (IllegalStateException expected){
+		}
+		try{
+			r.getLong(0, 2);
+			fail("char read as long");
+		}catch (IllegalStateException expected){
+		}
+		try{
+			r.getDate(0, 1);
+			fail("int read as date");
+		}catch (IllegalStateException expected){
+		}
+		try{
+			r.getCode(0, 1);
+			fail("int read as code");
+		}catch (IllegalStateException expected){
+		}
+		try{
+			r.getInt(1, 1);
+			fail("read past the last row");
+		}catch (IndexOutOfBoundsException expected){
+		}
+	}
+
+	@Test
+	public void emptyResult() throws Exception {
+		QueryResult r = this._esql.executeQueryForResult("SELECT 1 AS i WHERE false");
+		assertTrue(r.isEmpty());
+		assertEquals(1, r.getColumnCount());
+		assertEquals(QueryResult.INT, r.getColumnKind(0));
+	}
+}//end QueryResultTest
@@ -0,0 +1,107 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the overlap search of ScheduleIndex's per ship and per captain
+ * timelines against a linear scan.  Days are inclusive at both ends, so a
+ * cruise arriving the day another departs overlaps it.  Needs no database.
+ */
+public class ScheduleIndexTest{
+	private static final long SEED = 20140501L;
+
+	@Test
+	public void emptyTimeline(){
+		assertEquals(-1, ScheduleIndex.Timeline.EMPTY.overlap(0, 100));
+		assertEquals(-1, ScheduleIndex.Timeline.EMPTY.overlap(0, 100, 7));
+	}
+
+	@Test
+	public void touchingDaysOverlap(){
+		ScheduleIndex.Timeline t = ScheduleIndex.Timeline.EMPTY.add(1, 10, 20);
+		assertEquals(1, t.overlap(20, 25));
+		assertEquals(1, t.overlap(5, 10));
+		assertEquals(1, t.overlap(12, 13));
+		assertEquals(1, t.overlap(0, 30));
+		assertEquals(-1, t.overlap(21, 25));
+		assertEquals(-1, t.overlap(5, 9));
+	}
+
+	@Test
+	public void longCruiseSpansLaterShortOnes(){
+		//the latest arrival, not the last departure, decides the overlap
+		ScheduleIndex.Timeline t = new ScheduleIndex.Timeline(new int[]{1, 2, 3}, new long[]{0, 10, 20},
+			new long[]{100, 11, 21});
+		assertEquals(1, t.overlap(50, 60));
+		assertEquals(1, t.overlap(100, 200));
+		assertEquals(-1, t.overlap(101, 200));
+	}
+
+	@Test
+	public void excludesTheCruiseItself(){
+		ScheduleIndex.Timeline t = ScheduleIndex.Timeline.EMPTY.add(1, 10, 20).add(2, 30, 40);
+		assertEquals(-1, t.overlap(10, 20, 1));
+		assertEquals(2, t.overlap(15, 35, 1));
+		assertEquals(1, t.overlap(15, 35, 2));
+		assertEquals(1, t.overlap(15, 16, 3));
+	}
+
+	@Test
+	public void addReplacesAndRemoveDrops(){
+		ScheduleIndex.Timeline t = ScheduleIndex.Timeline.EMPTY.add(1, 10, 20).add(2, 30, 40);
+		//moving cruise 1 leaves its old days free
+		t = t.add(1, 50, 60);
+		assertEquals(2, t.cnums.length);
+		assertEquals(-1, t.overlap(10, 20));
+		assertEquals(1, t.overlap(55, 55));
+		t = t.remove(2);
+		assertEquals(-1, t.overlap(30, 40));
+		assertSame(t, t.remove(99));
+	}
+
+	@Test
+	public void matchesALinearScan(){
+		Random random = new Random(SEED);
+		for (int round = 0; round < 200; ++round) {
+			int n = random.nextInt(40);
+			int[] cnums = new int[n];
+			long[] from = new long[n];
+			long[] to = new long[n];
+			ScheduleIndex.Timeline t = ScheduleIndex.Timeline.EMPTY;
+			for (int i = 0; i < n; ++i) {
+				cnums[i] = i;
+				from[i] = random.nextInt(365);
+				to[i] = from[i] + random.nextInt(random.nextInt(10) == 0 ? 120 : 10);
+				t = t.add(i, from[i], to[i]);
+			}
+			for (int q = 0; q < 50; ++q) {
+				long f = random.nextInt(400) - 20;
+				long e = f + random.nextInt(15);
+				int exclude = n == 0 ? 0 : random.nextInt(n);
+				check(t, cnums, from, to, f, e, -1);
+				check(t, cnums, from, to, f, e, exclude);
+			}
+		}
+	}
+
+	//the search finds some overlapping cruise exactly when the scan does
+	private static void check(ScheduleIndex.Timeline t, int[] cnums, long[] from, long[] to, long f, long e,
+			int exclude){
+		boolean any = false;
+		for (int i = 0; i < cnums.length; ++i) {
+			if (cnums[i] != exclude && from[i] <= e && to[i] >= f) any = true;
+		}
+		int found = exclude < 0 ? t.overlap(f, e) : t.overlap(f, e, exclude);
+		String window = f + ".." + e + " excluding " + exclude;
+		if (!any) {
+			assertEquals(window, -1, found);
+			return;
+		}
+		assertTrue(window, found >= 0 && found != exclude);
+		assertTrue(window, from[found] <= e && to[found] >= f);
+	}
+}//end ScheduleIndexTest
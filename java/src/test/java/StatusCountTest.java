@@ -0,0 +1,47 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the status counts, with and without the reservations archived to
+ * the history tables, against the summary tables they are read from.  The
+ * archived counts need sql/archive.sql applied to the test database.
+ */
+public class StatusCountTest{
+	private DBproject _esql;
+
+	@Before
+	public void setUp() throws Exception {
+		this._esql = TestDatabase.open(2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (this._esql != null) this._esql.cleanup();
+	}
+
+	@Test
+	public void countsMatchTheStatusSummary() throws Exception {
+		for (String status : new String[]{"W", "R", "C"}) {
+			long summary = this._esql.queryForLong(
+				"SELECT COALESCE(SUM(S.reservation_count), 0) FROM CruiseStatusSummary S WHERE S.status = ?", status);
+			assertEquals(status, summary, this._esql.countPassengersWithStatus(status));
+		}
+	}
+
+	@Test
+	public void archivedCountsAddTheArchivedSummary() throws Exception {
+		assumeTrue("sql/archive.sql is not applied",
+			this._esql.queryForLong("SELECT COUNT(*) FROM pg_class WHERE relname = 'archivedstatussummary'") > 0);
+		for (String status : new String[]{"W", "R", "C"}) {
+			//a status with no archived reservation has no row, and counts 0
+			long archived = this._esql.queryForLong(
+				"SELECT COALESCE(MAX(A.reservation_count), 0) FROM ArchivedStatusSummary A WHERE A.status = ?", status);
+			assertEquals(status, this._esql.countPassengersWithStatus(status) + archived,
+				this._esql.countPassengersWithStatus(status, true));
+		}
+	}
+}//end StatusCountTest
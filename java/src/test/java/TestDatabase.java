@@ -0,0 +1,99 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+/**
+ * Connects the tests to a database.  With -Dtest.db (and -Dtest.port,
+ * default 5432, -Dtest.user, default $USER, and -Dtest.password, default
+ * empty, as the benchmarks' bench.* properties) they use that database,
+ * created with postgresql/createPostgreDB.sh, e.g.
+ *
+ *   mvn test -Dtest.db=${USER}_DB -Dtest.port=$PGPORT
+ *
+ * Without it a throwaway PostgreSQL server is started once per test run,
+ * the sql/ scripts are applied in createPostgreDB.sh's order and the data/
+ * csv files are loaded with CsvLoader, so plain mvn test exercises the
+ * server-side functions too.
+ *
+ * Tests create their own ship, captain and cruise with ids past the loaded
+ * ones and delete them afterwards.
+ */
+final class TestDatabase{
+	//scripts of createPostgreDB.sh after create.sql, applied before the load
+	//since the summaries and sequences follow the rows through triggers
+	private static final String[] SCRIPTS = {
+		"create.sql", "create_index.sql", "functions.sql", "summaries.sql", "archive.sql", "notify.sql",
+		"snapshot.sql"
+	};
+
+	private static EmbeddedPostgres _embedded = null;
+
+	private TestDatabase(){
+	}
+
+	static DBproject open(int poolSize) throws SQLException {
+		String name = System.getProperty("test.db");
+		if (name != null && !name.isEmpty()) {
+			return new DBproject(name, System.getProperty("test.port", "5432"),
+				System.getProperty("test.user", System.getProperty("user.name")), System.getProperty("test.password", ""),
+				poolSize);
+		}
+		EmbeddedPostgres pg = embedded();
+		return new DBproject("postgres", Integer.toString(pg.getPort()), "postgres", "", poolSize);
+	}
+
+	//an id past every id of the table
+	static int nextId(DBproject esql, String table, String column) throws SQLException {
+		return (int) esql.queryForLong("SELECT COALESCE(MAX(" + column + "), 0) + 1000 FROM " + table);
+	}
+
+	//starts and loads the embedded server on first use
+	private static synchronized EmbeddedPostgres embedded() throws SQLException {
+		if (_embedded != null) return _embedded;
+		File root = new File(System.getProperty("basedir", "."), "..");
+		EmbeddedPostgres pg;
+		try{
+			pg = EmbeddedPostgres.builder().start();
+		}catch (IOException e){
+			throw new SQLException("Could not start the test database: " + e.getMessage(), e);
+		}
+		try{
+			Connection conn = pg.getPostgresDatabase().getConnection();
+			try{
+				Statement stmt = conn.createStatement();
+				for (String script : SCRIPTS) {
+					byte[] sql = Files.readAllBytes(new File(new File(root, "sql"), script).toPath());
+					stmt.execute(new String(sql, StandardCharsets.UTF_8));
+				}
+				stmt.close();
+			}finally{
+				conn.close();
+			}
+			DBproject esql = new DBproject("postgres", Integer.toString(pg.getPort()), "postgres", "", 4);
+			try{
+				new CsvLoader(esql, 4).load(new File(root, "data"), false);
+			}finally{
+				esql.cleanup();
+			}
+		}catch (IOException e){
+			throw new SQLException("Could not set up the test database: " + e.getMessage(), e);
+		}
+		final EmbeddedPostgres started = pg;
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			public void run(){
+				try{
+					started.close();
+				}catch (IOException ignored){
+				}
+			}
+		});
+		_embedded = pg;
+		return pg;
+	}
+}//end TestDatabase
@@ -0,0 +1,173 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the shared input rules of Validator: the allocation-free number
+ * and date parsers, the Gregorian leap year rule and the csv row checks of
+ * the bulk loaders.  Needs no database.
+ */
+public class ValidatorTest{
+	private static final int INVALID = Validator.INVALID;
+
+	//the Cruise columns, as CsvLoader checks Cruises.csv
+	private static final byte[] CRUISE = {
+		Validator.INT, Validator.POSITIVE, Validator.NON_NEGATIVE, Validator.NON_NEGATIVE,
+		Validator.DATE, Validator.DATE, Validator.TEXT, Validator.TEXT
+	};
+	private static final byte[] RESERVATION = {Validator.INT, Validator.INT, Validator.INT, Validator.STATUS};
+
+	@Test
+	public void leapYears(){
+		assertEquals(29, Validator.daysInMonth(2024, 2));
+		assertEquals(28, Validator.daysInMonth(2023, 2));
+		//centuries are only leap years when divisible by 400
+		assertEquals(28, Validator.daysInMonth(1900, 2));
+		assertEquals(29, Validator.daysInMonth(2000, 2));
+		assertEquals(31, Validator.daysInMonth(2023, 12));
+		assertEquals(30, Validator.daysInMonth(2023, 4));
+	}
+
+	@Test
+	public void february29(){
+		assertTrue(Validator.isValidDate(2024, 2, 29));
+		assertTrue(Validator.isValidDate(2000, 2, 29));
+		assertFalse(Validator.isValidDate(2023, 2, 29));
+		assertFalse(Validator.isValidDate(1900, 2, 29));
+		assertFalse(Validator.isValidDate(2024, 2, 30));
+		assertEquals(29, Validator.parseDay("29", 2024, 2));
+		assertEquals(INVALID, Validator.parseDay("29", 2023, 2));
+		assertTrue(rowIsValid(new byte[]{Validator.DATE}, "2016-02-29 10:00"));
+		assertFalse(rowIsValid(new byte[]{Validator.DATE}, "2015-02-29"));
+		assertTrue(rowIsValid(new byte[]{Validator.DATE_MDY}, "2/29/2016"));
+		assertFalse(rowIsValid(new byte[]{Validator.DATE_MDY}, "2/29/2100"));
+	}
+
+	@Test
+	public void invalidDates(){
+		assertFalse(Validator.isValidDate(2023, 0, 1));
+		assertFalse(Validator.isValidDate(2023, 13, 1));
+		assertFalse(Validator.isValidDate(2023, 1, 0));
+		assertFalse(Validator.isValidDate(2023, 4, 31));
+	}
+
+	@Test
+	public void parseInt(){
+		assertEquals(42, Validator.parseInt("42"));
+		assertEquals(42, Validator.parseInt(" 42\t"));
+		assertEquals(7, Validator.parseInt("+7"));
+		assertEquals(-7, Validator.parseInt("-7"));
+		assertEquals(0, Validator.parseInt("000"));
+		assertEquals(123, Validator.parseInt("x123y", 1, 4));
+		assertEquals(Integer.MAX_VALUE, Validator.parseInt("2147483647"));
+		assertEquals(-Integer.MAX_VALUE, Validator.parseInt("-2147483647"));
+	}
+
+	@Test
+	public void parseIntRejectsOverflow(){
+		assertEquals(INVALID, Validator.parseInt("2147483648"));
+		assertEquals(INVALID, Validator.parseInt("-2147483649"));
+		assertEquals(INVALID, Validator.parseInt("99999999999999999999"));
+	}
+
+	@Test
+	public void parseIntRejectsNonNumbers(){
+		assertEquals(INVALID, Validator.parseInt(null));
+		assertEquals(INVALID, Validator.parseInt(""));
+		assertEquals(INVALID, Validator.parseInt("   "));
+		assertEquals(INVALID, Validator.parseInt("-"));
+		assertEquals(INVALID, Validator.parseInt("+"));
+		assertEquals(INVALID, Validator.parseInt("4 2"));
+		assertEquals(INVALID, Validator.parseInt("12a"));
+		assertEquals(INVALID, Validator.parseInt("1.5"));
+		assertEquals(INVALID, Validator.parseInt("--1"));
+	}
+
+	@Test
+	public void parseYearAndMonth(){
+		assertEquals(2014, Validator.parseYear(" 2014 "));
+		assertEquals(INVALID, Validator.parseYear("214"));
+		assertEquals(INVALID, Validator.parseYear("20145"));
+		assertEquals(INVALID, Validator.parseYear("-201"));
+		assertEquals(5, Validator.parseMonth("5"));
+		assertEquals(5, Validator.parseMonth("05"));
+		assertEquals(5, Validator.parseMonth("May"));
+		assertEquals(9, Validator.parseMonth("SEPTEMBER"));
+		assertEquals(INVALID, Validator.parseMonth("0"));
+		assertEquals(INVALID, Validator.parseMonth("13"));
+		assertEquals(INVALID, Validator.parseMonth("Mayo"));
+		assertEquals(INVALID, Validator.parseMonth(""));
+		assertEquals(INVALID, Validator.parseDay("001", 2023, 1));
+		assertEquals(INVALID, Validator.parseDay("", 2023, 1));
+	}
+
+	@Test
+	public void validRows(){
+		assertEquals(-1, Validator.checkRow(CRUISE, "0,502,11,2,2014-05-01 16:45,2014-05-02 00:45,TDOBK,JALYJ"));
+		assertEquals(-1, Validator.checkRow(RESERVATION, "1,94,769,R"));
+		//COPY's NULL is accepted for the status only
+		assertEquals(-1, Validator.checkRow(RESERVATION, "1,94,769,\\N"));
+		assertEquals(0, Validator.checkRow(RESERVATION, "\\N,94,769,R"));
+		//text fields may be empty
+		assertEquals(-1, Validator.checkRow(CRUISE, "0,502,11,2,2014-05-01,2014-05-02,,"));
+	}
+
+	@Test
+	public void emptyFields(){
+		assertEquals(1, Validator.checkRow(RESERVATION, "1,,769,R"));
+		assertEquals(3, Validator.checkRow(RESERVATION, "1,94,769,"));
+		assertEquals(0, Validator.checkRow(RESERVATION, ""));
+	}
+
+	@Test
+	public void badSeparators(){
+		//the whole line is one field
+		assertEquals(0, Validator.checkRow(RESERVATION, "1;94;769;R"));
+		assertEquals(1, Validator.checkRow(RESERVATION, "1,94;769,R"));
+		assertEquals(4, Validator.checkRow(new byte[]{Validator.DATE, Validator.DATE, Validator.DATE,
+			Validator.DATE, Validator.DATE}, "2014-05-01,2014-05-01,2014-05-01,2014-05-01,2014/05/01"));
+		assertFalse(rowIsValid(new byte[]{Validator.DATE}, "2014-5-1"));
+		assertFalse(rowIsValid(new byte[]{Validator.DATE_MDY}, "2-29-2016"));
+		assertFalse(rowIsValid(new byte[]{Validator.DATE_MDY}, "2/29/16"));
+	}
+
+	@Test
+	public void fieldCounts(){
+		assertEquals(3, Validator.checkRow(RESERVATION, "1,94,769"));
+		//a trailing separator starts one field too many
+		assertEquals(RESERVATION.length, Validator.checkRow(RESERVATION, "1,94,769,R,"));
+		assertEquals(RESERVATION.length, Validator.checkRow(RESERVATION, "1,94,769,R,extra"));
+	}
+
+	@Test
+	public void fieldKinds(){
+		assertEquals(1, Validator.checkRow(CRUISE, "0,0,11,2,2014-05-01,2014-05-02,A,B"));
+		assertEquals(2, Validator.checkRow(CRUISE, "0,502,-1,2,2014-05-01,2014-05-02,A,B"));
+		assertEquals(3, Validator.checkRow(RESERVATION, "1,94,769,X"));
+		assertTrue(rowIsValid(new byte[]{Validator.SEATS}, Integer.toString(Validator.MAX_SEATS)));
+		assertFalse(rowIsValid(new byte[]{Validator.SEATS}, Integer.toString(Validator.MAX_SEATS + 1)));
+		assertTrue(rowIsValid(new byte[]{Validator.REPAIR_CODE}, "MN"));
+		assertFalse(rowIsValid(new byte[]{Validator.REPAIR_CODE}, "mn"));
+		assertTrue(rowIsValid(new byte[]{Validator.GENDER}, "F"));
+		assertFalse(rowIsValid(new byte[]{Validator.GENDER}, "X"));
+	}
+
+	@Test
+	public void statuses(){
+		assertTrue(Validator.isStatus("W"));
+		assertTrue(Validator.isStatus("C"));
+		assertTrue(Validator.isStatus("R"));
+		assertFalse(Validator.isStatus("r"));
+		assertFalse(Validator.isStatus("RR"));
+		assertFalse(Validator.isStatus(""));
+		assertFalse(Validator.isStatus(null));
+		assertEquals(2, Validator.repairCodeIndex("SV"));
+		assertEquals(-1, Validator.repairCodeIndex("XX"));
+	}
+
+	private static boolean rowIsValid(byte[] fields, String line){
+		return Validator.checkRow(fields, line) < 0;
+	}
+}//end ValidatorTest
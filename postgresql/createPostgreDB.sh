@@ -9,4 +9,25 @@ cp ../data/*.csv /tmp/$USER/myDB/data/.
 
 echo "Initializing tables .. "
 sleep 1
-psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
+
+echo "Loading data .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/load.sql
+
+echo "Creating indexes .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create_index.sql
+
+echo "Creating functions .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/functions.sql
+
+echo "Creating summaries .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/summaries.sql
+
+echo "Creating archive .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/archive.sql
+
+echo "Creating change notifications .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/notify.sql
+
+echo "Creating snapshot version .. "
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/snapshot.sql
@@ -0,0 +1,126 @@
+-------------
+---ARCHIVE---
+-------------
+
+-- Departed cruises are moved, with their reservations, ship assignment and
+-- schedule, from the hot tables to history tables of the same shape, so
+-- bookings, seat lookups and status counts only touch cruises that are still
+-- to sail.  History is kept across runs of this script; TRUNCATE Cruise (a
+-- reload) empties it.  Reports over both use the All* views below.
+
+CREATE TABLE IF NOT EXISTS CruiseHistory (LIKE Cruise INCLUDING ALL);
+CREATE TABLE IF NOT EXISTS ReservationHistory (LIKE Reservation INCLUDING ALL);
+CREATE TABLE IF NOT EXISTS CruiseInfoHistory (LIKE CruiseInfo INCLUDING ALL);
+CREATE TABLE IF NOT EXISTS ScheduleHistory (LIKE Schedule INCLUDING ALL);
+
+-- departed cruises are found, oldest first, through this index
+CREATE INDEX IF NOT EXISTS cruise_departure_date ON Cruise USING BTREE (actual_departure_date, cnum);
+
+CREATE INDEX IF NOT EXISTS cruise_history_departure_date ON CruiseHistory USING BTREE (actual_departure_date);
+CREATE INDEX IF NOT EXISTS reservation_history_cruise_status ON ReservationHistory USING BTREE (cid, status);
+CREATE INDEX IF NOT EXISTS reservation_history_customer_id ON ReservationHistory USING BTREE (ccid);
+CREATE INDEX IF NOT EXISTS cruiseinfo_history_cruise_ship ON CruiseInfoHistory USING BTREE (cruise_id, ship_id);
+CREATE INDEX IF NOT EXISTS schedule_history_cruise ON ScheduleHistory USING BTREE (cruiseNum);
+
+-- Archived reservations per status, so a status count over both tables
+-- adds one row to the hot CruiseStatusSummary counts.
+DROP TABLE IF EXISTS ArchivedStatusSummary CASCADE;--OK
+CREATE TABLE ArchivedStatusSummary
+(
+	status _STATUS NOT NULL,
+	reservation_count BIGINT NOT NULL DEFAULT 0,
+	PRIMARY KEY (status)
+);
+
+INSERT INTO ArchivedStatusSummary (status, reservation_count)
+SELECT R.status, COUNT(R.rnum)
+FROM ReservationHistory R
+WHERE R.status IS NOT NULL
+GROUP BY R.status;
+
+CREATE OR REPLACE VIEW AllCruises AS
+SELECT * FROM Cruise UNION ALL SELECT * FROM CruiseHistory;
+CREATE OR REPLACE VIEW AllReservations AS
+SELECT * FROM Reservation UNION ALL SELECT * FROM ReservationHistory;
+CREATE OR REPLACE VIEW AllCruiseInfo AS
+SELECT * FROM CruiseInfo UNION ALL SELECT * FROM CruiseInfoHistory;
+CREATE OR REPLACE VIEW AllSchedules AS
+SELECT * FROM Schedule UNION ALL SELECT * FROM ScheduleHistory;
+
+-- Moves up to p_max cruises that departed before p_before to history, oldest
+-- departure first, in one transaction.  The cruise rows are locked first, as
+-- book_cruise, cancel_reservation and promote_waitlist do, so no booking can
+-- slip in behind the move; cruises locked by them are skipped until the next
+-- batch.  The Reservation delete trigger takes the reservations out of the
+-- hot status summaries.  Returns the archived cruises with the number of
+-- reservations each had.
+CREATE OR REPLACE FUNCTION archive_departed(p_before DATE, p_max INTEGER)
+RETURNS TABLE (archived_cnum INTEGER, archived_reservations INTEGER) AS $$
+DECLARE
+	v_cnums INTEGER[];
+BEGIN
+	IF p_max < 1 THEN
+		RAISE EXCEPTION 'Invalid batch size %', p_max;
+	END IF;
+
+	SELECT array_agg(D.cnum) INTO v_cnums
+	FROM (SELECT C.cnum FROM Cruise C
+		WHERE C.actual_departure_date < p_before
+		ORDER BY C.actual_departure_date, C.cnum
+		LIMIT p_max
+		FOR UPDATE SKIP LOCKED) D;
+	IF v_cnums IS NULL THEN
+		RETURN;
+	END IF;
+
+	WITH moved AS (DELETE FROM Reservation R WHERE R.cid = ANY (v_cnums) RETURNING R.*)
+	INSERT INTO ReservationHistory SELECT * FROM moved;
+	WITH moved AS (DELETE FROM CruiseInfo CI WHERE CI.cruise_id = ANY (v_cnums) RETURNING CI.*)
+	INSERT INTO CruiseInfoHistory SELECT * FROM moved;
+	WITH moved AS (DELETE FROM Schedule S WHERE S.cruiseNum = ANY (v_cnums) RETURNING S.*)
+	INSERT INTO ScheduleHistory SELECT * FROM moved;
+	WITH moved AS (DELETE FROM Cruise C WHERE C.cnum = ANY (v_cnums) RETURNING C.*)
+	INSERT INTO CruiseHistory SELECT * FROM moved;
+
+	-- the trigger left zero counts behind
+	DELETE FROM CruiseStatusSummary CS WHERE CS.cruise_id = ANY (v_cnums);
+
+	INSERT INTO ArchivedStatusSummary AS A (status, reservation_count)
+	SELECT R.status, COUNT(R.rnum)
+	FROM ReservationHistory R
+	WHERE R.cid = ANY (v_cnums) AND R.status IS NOT NULL
+	GROUP BY R.status
+	ON CONFLICT (status) DO UPDATE SET
+		reservation_count = A.reservation_count + EXCLUDED.reservation_count;
+
+	RETURN QUERY
+	SELECT A.cnum, COUNT(R.rnum)::INTEGER
+	FROM unnest(v_cnums) AS A (cnum)
+	LEFT JOIN ReservationHistory R ON R.cid = A.cnum
+	GROUP BY A.cnum
+	ORDER BY A.cnum;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION archive_truncate()
+RETURNS TRIGGER AS $$
+BEGIN
+	TRUNCATE CruiseHistory, ReservationHistory, CruiseInfoHistory, ScheduleHistory, ArchivedStatusSummary;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS archive_truncate ON Cruise;
+CREATE TRIGGER archive_truncate
+AFTER TRUNCATE ON Cruise
+FOR EACH STATEMENT EXECUTE PROCEDURE archive_truncate();
+
+-- functions.sql restarts reservation_rnum_seq and cruiseinfo_ciid_seq after
+-- the hot rows only; keep them past the archived ones too
+SELECT setval('reservation_rnum_seq', MAX(R.rnum) + 1, false)
+FROM ReservationHistory R
+HAVING MAX(R.rnum) >= (SELECT S.last_value FROM reservation_rnum_seq S);
+
+SELECT setval('cruiseinfo_ciid_seq', MAX(CI.ciid) + 1, false)
+FROM CruiseInfoHistory CI
+HAVING MAX(CI.ciid) >= (SELECT S.last_value FROM cruiseinfo_ciid_seq S);
@@ -125,96 +125,3 @@ CREATE TABLE Schedule
 	PRIMARY KEY (id),
 	FOREIGN KEY (cruiseNum) REFERENCES Cruise(cnum)
 );
-
-----------------------------
--- INSERT DATA STATEMENTS --
-----------------------------
-
-COPY Customer (
-	id,
-	fname,
-	lname,
-	gtype,
-	dob,
-	address,
-	phone,
-	zipcode
-)
-FROM 'customer.csv'
-WITH DELIMITER ',';
-
-COPY Captain (
-	id,
-	fullname,
-	nationality
-)
-FROM 'Captains.csv'
-WITH DELIMITER ',';
-
-COPY Ship (
-	id,
-	make,
-	model,
-	age,
-	seats
-)
-FROM 'Ships.csv'
-WITH DELIMITER ',';
-
-COPY Technician (
-	id,
-	full_name
-)
-FROM 'technician.csv'
-WITH DELIMITER ',';
-
-COPY Cruise (
-	cnum,
-	cost,
-	num_sold,
-	num_stops,
-	actual_departure_date,
-	actual_arrival_date,
-	arrival_port,
-	departure_port
-)
-FROM 'Cruises.csv'
-WITH DELIMITER ',';
-
-COPY Reservation (
-	rnum,
-	ccid,
-	cid,
-	status
-)
-FROM 'reservation.csv'
-WITH DELIMITER ',';
-
-COPY CruiseInfo (
-	ciid,
-	cruise_id,
-	captain_id,
-	ship_id
-)
-FROM 'Cruiseinfo.csv'
-WITH DELIMITER ',';
-
-COPY Repairs (
-	rid,
-	repair_date,
-	repair_code,
-	captain_id,
-	ship_id,
-	technician_id
-)
-FROM 'repairs.csv'
-WITH DELIMITER ',';
-
-COPY Schedule (
-	id,
-	cruiseNum,
-	departure_time,
-	arrival_time
-)
-FROM 'schedule.csv'
-WITH DELIMITER ',';
\ No newline at end of file
@@ -1,24 +1,35 @@
-CREATE INDEX customer_id
+CREATE INDEX IF NOT EXISTS customer_id
 ON Customer
 USING BTREE
 (id);
 
-CREATE INDEX reservation_cruise_id
+-- superseded by reservation_cruise_status, which has cid as its prefix
+DROP INDEX IF EXISTS reservation_cruise_id;
+
+-- seats reserved on a cruise (status = 'R' AND cid = ?), as counted by
+-- book_cruise and the seat cache; rnum makes it covering for COUNT(rnum)
+CREATE INDEX IF NOT EXISTS reservation_cruise_status
 ON Reservation
 USING BTREE
-(cid);
+(cid, status, rnum);
 
-CREATE INDEX reservation_customer_id
+CREATE INDEX IF NOT EXISTS reservation_customer_id
 ON Reservation
 USING BTREE
 (ccid);
 
-CREATE INDEX reservation_status
+CREATE INDEX IF NOT EXISTS reservation_status
 ON Reservation
 USING BTREE
 (status);
 
-CREATE INDEX cruise_ship_id
+CREATE INDEX IF NOT EXISTS cruise_ship_id
 ON CruiseInfo
-USING BTREE;
-(ship_id); 
+USING BTREE
+(ship_id);
+
+-- the ship of a cruise (cruise_id = ?); ship_id makes it covering
+CREATE INDEX IF NOT EXISTS cruiseinfo_cruise_ship
+ON CruiseInfo
+USING BTREE
+(cruise_id, ship_id);
@@ -0,0 +1,254 @@
+---------------
+---SEQUENCES---
+---------------
+
+-- Source of reservation numbers, started after the loaded data.  It is only
+-- advanced through allocate_rnum_block so every block stays contiguous.
+DROP SEQUENCE IF EXISTS reservation_rnum_seq;
+CREATE SEQUENCE reservation_rnum_seq MINVALUE 0;
+SELECT setval('reservation_rnum_seq', COALESCE(MAX(R.rnum), -1) + 1, false) FROM Reservation R;
+
+-- Source of CruiseInfo ids for assign_cruise, started after the loaded data.
+DROP SEQUENCE IF EXISTS cruiseinfo_ciid_seq;
+CREATE SEQUENCE cruiseinfo_ciid_seq MINVALUE 0;
+SELECT setval('cruiseinfo_ciid_seq', COALESCE(MAX(CI.ciid), -1) + 1, false) FROM CruiseInfo CI;
+
+---------------
+---FUNCTIONS---
+---------------
+
+-- Reserves p_size consecutive reservation numbers and returns the first one.
+-- Clients hand the block out in memory, so a database round trip is only
+-- needed once per block instead of once per booking.
+CREATE OR REPLACE FUNCTION allocate_rnum_block(p_size INTEGER)
+RETURNS INTEGER AS $$
+DECLARE
+	v_first INTEGER;
+BEGIN
+	IF p_size < 1 THEN
+		RAISE EXCEPTION 'Invalid block size %', p_size;
+	END IF;
+	PERFORM pg_advisory_xact_lock(hashtext('reservation_rnum_seq'));
+	v_first := nextval('reservation_rnum_seq');
+	IF p_size > 1 THEN
+		PERFORM setval('reservation_rnum_seq', v_first + p_size - 1);
+	END IF;
+	RETURN v_first;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Books a cruise for a customer in a single transaction.  The cruise row is
+-- locked first so concurrent bookings of the same cruise are serialized and
+-- the reserved-seat count cannot be read stale (no overbooking).  p_rnum is
+-- a number the client took from a block reserved with allocate_rnum_block;
+-- when it is NULL a single number is allocated here.
+-- Returns the new reservation number and its status ('R' or 'W').
+DROP FUNCTION IF EXISTS book_cruise(INTEGER, INTEGER);
+CREATE OR REPLACE FUNCTION book_cruise(p_ccid INTEGER, p_cnum INTEGER, p_rnum INTEGER DEFAULT NULL)
+RETURNS TABLE (booked_rnum INTEGER, booked_status CHAR(1)) AS $$
+DECLARE
+	v_seats INTEGER;
+	v_reserved INTEGER;
+	v_rnum INTEGER;
+	v_status CHAR(1);
+BEGIN
+	PERFORM 1 FROM Customer C WHERE C.id = p_ccid;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'Customer not found!' USING ERRCODE = 'no_data_found';
+	END IF;
+
+	PERFORM 1 FROM Cruise C WHERE C.cnum = p_cnum FOR UPDATE;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'Cruise not found!' USING ERRCODE = 'no_data_found';
+	END IF;
+
+	SELECT S.seats INTO v_seats
+	FROM Ship S, CruiseInfo CI
+	WHERE S.id = CI.ship_id AND CI.cruise_id = p_cnum;
+	IF v_seats IS NULL THEN
+		RAISE EXCEPTION 'No ship assigned to cruise!' USING ERRCODE = 'no_data_found';
+	END IF;
+
+	SELECT COUNT(R.rnum) INTO v_reserved
+	FROM Reservation R
+	WHERE R.status = 'R' AND R.cid = p_cnum;
+
+	IF v_reserved >= v_seats THEN
+		v_status := 'W';
+	ELSE
+		v_status := 'R';
+	END IF;
+
+	v_rnum := COALESCE(p_rnum, allocate_rnum_block(1));
+
+	UPDATE Cruise SET num_sold = num_sold + 1 WHERE cnum = p_cnum;
+	INSERT INTO Reservation (rnum, ccid, cid, status) VALUES (v_rnum, p_ccid, p_cnum, v_status);
+
+	booked_rnum := v_rnum;
+	booked_status := v_status;
+	RETURN NEXT;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Waitlisted reservations of a cruise in booking (rnum) order.  This partial
+-- index is the per-cruise FIFO queue promote_waitlist reads from, so finding
+-- the next customers to promote never scans the other reservations.
+DROP INDEX IF EXISTS reservation_waitlist;
+CREATE INDEX reservation_waitlist ON Reservation USING BTREE (cid, rnum) WHERE status = 'W';
+
+-- Cancels a reservation by deleting it.  The cruise row is locked first, in
+-- the same order as book_cruise, and its num_sold is decremented.
+-- Returns the customer, cruise and status the reservation had.
+CREATE OR REPLACE FUNCTION cancel_reservation(p_rnum INTEGER)
+RETURNS TABLE (cancelled_ccid INTEGER, cancelled_cnum INTEGER, cancelled_status CHAR(1)) AS $$
+DECLARE
+	v_cnum INTEGER;
+BEGIN
+	SELECT R.cid INTO v_cnum FROM Reservation R WHERE R.rnum = p_rnum;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'Reservation not found!' USING ERRCODE = 'no_data_found';
+	END IF;
+
+	PERFORM 1 FROM Cruise C WHERE C.cnum = v_cnum FOR UPDATE;
+
+	-- not found when a concurrent cancellation got there first
+	DELETE FROM Reservation R WHERE R.rnum = p_rnum
+	RETURNING R.ccid, R.cid, R.status INTO cancelled_ccid, cancelled_cnum, cancelled_status;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'Reservation not found!' USING ERRCODE = 'no_data_found';
+	END IF;
+
+	UPDATE Cruise SET num_sold = num_sold - 1 WHERE cnum = v_cnum AND num_sold > 0;
+	RETURN NEXT;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Promotes up to p_max waitlisted reservations of a cruise to 'R', oldest
+-- rnum first, while the ship has free seats.  The cruise row is locked so
+-- bookings and cancellations of the cruise wait for the promotion.  The
+-- reserved count comes from CruiseStatusSummary (sql/summaries.sql) and the
+-- queue from the reservation_waitlist index, so no Reservation scan is needed.
+-- Returns the promoted reservations.
+CREATE OR REPLACE FUNCTION promote_waitlist(p_cnum INTEGER, p_max INTEGER)
+RETURNS TABLE (promoted_rnum INTEGER, promoted_ccid INTEGER) AS $$
+DECLARE
+	v_seats INTEGER;
+	v_reserved BIGINT;
+BEGIN
+	PERFORM 1 FROM Cruise C WHERE C.cnum = p_cnum FOR UPDATE;
+	IF NOT FOUND THEN
+		RETURN;
+	END IF;
+
+	SELECT S.seats INTO v_seats
+	FROM Ship S, CruiseInfo CI
+	WHERE S.id = CI.ship_id AND CI.cruise_id = p_cnum;
+	IF v_seats IS NULL THEN
+		RETURN;
+	END IF;
+
+	SELECT COALESCE(SUM(CS.reservation_count), 0) INTO v_reserved
+	FROM CruiseStatusSummary CS
+	WHERE CS.cruise_id = p_cnum AND CS.status = 'R';
+
+	RETURN QUERY
+	WITH promoted AS (
+		UPDATE Reservation R SET status = 'R'
+		WHERE R.rnum IN (
+			SELECT W.rnum FROM Reservation W
+			WHERE W.cid = p_cnum AND W.status = 'W'
+			ORDER BY W.rnum
+			LIMIT GREATEST(0, LEAST(p_max, v_seats - v_reserved)))
+		RETURNING R.rnum, R.ccid)
+	SELECT P.rnum, P.ccid FROM promoted P ORDER BY P.rnum;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The sailings of a ship or captain, for the overlap checks of assign_cruise.
+DROP INDEX IF EXISTS cruiseinfo_captain_id;
+CREATE INDEX cruiseinfo_captain_id ON CruiseInfo USING BTREE (captain_id);
+
+-- The days each cruise sails, so the cruises overlapping a window are found
+-- with one index search (&&) rather than by checking every sailing of the
+-- ship or captain.  LEAST and GREATEST keep a cruise entered with its
+-- arrival before its departure from failing the range; it occupies the days
+-- between the two.  Queries must use the same expression to use the index.
+DROP INDEX IF EXISTS cruise_sailing_days;
+CREATE INDEX cruise_sailing_days ON Cruise USING GIST
+(daterange(LEAST(actual_departure_date, actual_arrival_date), GREATEST(actual_departure_date, actual_arrival_date), '[]'));
+
+-- Assigns a ship and captain to a cruise, replacing its current assignment.
+-- A cruise occupies its ship and captain from its departure through its
+-- arrival date, both days included since the times of day are not kept;
+-- the ship and captain must not be assigned to another cruise overlapping
+-- that.  The ship and captain rows are locked (FOR NO KEY UPDATE, so foreign
+-- key checks are not blocked) before checking, so concurrent assignments of
+-- one ship or captain are serialized and cannot both pass the check.
+-- Sailings that already overlapped when loaded are left as they are.
+-- Overlaps are found through cruise_sailing_days.  Returns the CruiseInfo id.
+CREATE OR REPLACE FUNCTION assign_cruise(p_cnum INTEGER, p_ship INTEGER, p_captain INTEGER)
+RETURNS INTEGER AS $$
+DECLARE
+	v_departure DATE;
+	v_arrival DATE;
+	v_seats INTEGER;
+	v_reserved INTEGER;
+	v_days DATERANGE;
+	v_other INTEGER;
+	v_ciid INTEGER;
+BEGIN
+	SELECT C.actual_departure_date, C.actual_arrival_date INTO v_departure, v_arrival
+	FROM Cruise C WHERE C.cnum = p_cnum FOR UPDATE;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'Cruise not found!' USING ERRCODE = 'no_data_found';
+	END IF;
+	v_days := daterange(LEAST(v_departure, v_arrival), GREATEST(v_departure, v_arrival), '[]');
+
+	SELECT S.seats INTO v_seats FROM Ship S WHERE S.id = p_ship FOR NO KEY UPDATE;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'Ship not found!' USING ERRCODE = 'no_data_found';
+	END IF;
+	PERFORM 1 FROM Captain C WHERE C.id = p_captain FOR NO KEY UPDATE;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'Captain not found!' USING ERRCODE = 'no_data_found';
+	END IF;
+
+	SELECT CI.cruise_id INTO v_other
+	FROM CruiseInfo CI, Cruise C
+	WHERE CI.ship_id = p_ship AND C.cnum = CI.cruise_id AND C.cnum <> p_cnum
+	AND daterange(LEAST(C.actual_departure_date, C.actual_arrival_date),
+		GREATEST(C.actual_departure_date, C.actual_arrival_date), '[]') && v_days
+	LIMIT 1;
+	IF FOUND THEN
+		RAISE EXCEPTION 'Ship % is already sailing cruise %', p_ship, v_other USING ERRCODE = 'exclusion_violation';
+	END IF;
+
+	SELECT CI.cruise_id INTO v_other
+	FROM CruiseInfo CI, Cruise C
+	WHERE CI.captain_id = p_captain AND C.cnum = CI.cruise_id AND C.cnum <> p_cnum
+	AND daterange(LEAST(C.actual_departure_date, C.actual_arrival_date),
+		GREATEST(C.actual_departure_date, C.actual_arrival_date), '[]') && v_days
+	LIMIT 1;
+	IF FOUND THEN
+		RAISE EXCEPTION 'Captain % is already sailing cruise %', p_captain, v_other USING ERRCODE = 'exclusion_violation';
+	END IF;
+
+	-- a smaller ship must still hold the reserved seats
+	SELECT COUNT(R.rnum) INTO v_reserved
+	FROM Reservation R
+	WHERE R.status = 'R' AND R.cid = p_cnum;
+	IF v_reserved > v_seats THEN
+		RAISE EXCEPTION 'Ship % has % seats but cruise % has % reserved', p_ship, v_seats, p_cnum, v_reserved
+		USING ERRCODE = 'check_violation';
+	END IF;
+
+	UPDATE CruiseInfo SET ship_id = p_ship, captain_id = p_captain WHERE cruise_id = p_cnum;
+	IF FOUND THEN
+		SELECT MIN(CI.ciid) INTO v_ciid FROM CruiseInfo CI WHERE CI.cruise_id = p_cnum;
+	ELSE
+		v_ciid := nextval('cruiseinfo_ciid_seq');
+		INSERT INTO CruiseInfo (ciid, cruise_id, captain_id, ship_id) VALUES (v_ciid, p_cnum, p_captain, p_ship);
+	END IF;
+	RETURN v_ciid;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,57 @@
+------------
+---NOTIFY---
+------------
+
+-- Every committed change to a table that client caches read from sends its
+-- name on the table_change channel, which ResultCache.java LISTENs on.
+-- Statement triggers send one notification per statement, and PostgreSQL
+-- folds duplicates within a transaction, so a bulk load notifies once.
+--
+-- NOTIFY serializes committing transactions, so the booking path is kept
+-- out of it: Reservation sends nothing, and the Cruise trigger ignores
+-- num_sold, the only column book_cruise and cancel_reservation update.
+
+CREATE OR REPLACE FUNCTION notify_table_change()
+RETURNS TRIGGER AS $$
+BEGIN
+	PERFORM pg_notify('table_change', TG_TABLE_NAME);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS table_change ON Customer;
+CREATE TRIGGER table_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Customer
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
+
+DROP TRIGGER IF EXISTS table_change ON Captain;
+CREATE TRIGGER table_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Captain
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
+
+DROP TRIGGER IF EXISTS table_change ON Technician;
+CREATE TRIGGER table_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Technician
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
+
+DROP TRIGGER IF EXISTS table_change ON Ship;
+CREATE TRIGGER table_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Ship
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
+
+DROP TRIGGER IF EXISTS table_change ON Cruise;
+CREATE TRIGGER table_change
+AFTER INSERT OR DELETE OR TRUNCATE
+OR UPDATE OF cnum, cost, num_stops, actual_departure_date, actual_arrival_date, arrival_port, departure_port
+ON Cruise
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
+
+DROP TRIGGER IF EXISTS table_change ON CruiseInfo;
+CREATE TRIGGER table_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON CruiseInfo
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
+
+DROP TRIGGER IF EXISTS table_change ON Repairs;
+CREATE TRIGGER table_change
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Repairs
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change();
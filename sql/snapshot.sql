@@ -0,0 +1,50 @@
+--------------
+---SNAPSHOT---
+--------------
+
+-- Version stamp of the reference tables (Ship, Captain, Technician, Cruise,
+-- CruiseInfo) saved in ReferenceSnapshot.java's binary snapshot.  Every
+-- statement changing one of them bumps it, so a snapshot whose stamp equals
+-- the current version holds exactly the current rows.  Bookings update only
+-- Cruise.num_sold, which the snapshot leaves out, so they do not bump it.
+DROP TABLE IF EXISTS ReferenceVersion CASCADE;--OK
+CREATE TABLE ReferenceVersion
+(
+	version BIGINT NOT NULL
+);
+INSERT INTO ReferenceVersion (version) VALUES (1);
+
+CREATE OR REPLACE FUNCTION bump_reference_version()
+RETURNS TRIGGER AS $$
+BEGIN
+	UPDATE ReferenceVersion SET version = version + 1;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS reference_version ON Ship;
+CREATE TRIGGER reference_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Ship
+FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
+
+DROP TRIGGER IF EXISTS reference_version ON Captain;
+CREATE TRIGGER reference_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Captain
+FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
+
+DROP TRIGGER IF EXISTS reference_version ON Technician;
+CREATE TRIGGER reference_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Technician
+FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
+
+DROP TRIGGER IF EXISTS reference_version ON Cruise;
+CREATE TRIGGER reference_version
+AFTER INSERT OR DELETE OR TRUNCATE
+OR UPDATE OF cnum, cost, num_stops, actual_departure_date, actual_arrival_date, arrival_port, departure_port
+ON Cruise
+FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
+
+DROP TRIGGER IF EXISTS reference_version ON CruiseInfo;
+CREATE TRIGGER reference_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON CruiseInfo
+FOR EACH STATEMENT EXECUTE PROCEDURE bump_reference_version();
@@ -0,0 +1,154 @@
+---------------
+---SUMMARIES---
+---------------
+
+-- Aggregates kept current by triggers, so reports read a few rows through an
+-- index instead of aggregating the base tables on every call.  Each summary
+-- is rebuilt from its base table when this script runs.
+
+-- Repairs per ship, in total and per repair code.  Repairs without a code
+-- only count toward repair_count.  Rows are never deleted, so a ship whose
+-- repairs were all removed keeps a row with zero counts.
+DROP TABLE IF EXISTS ShipRepairSummary CASCADE;--OK
+CREATE TABLE ShipRepairSummary
+(
+	ship_id INTEGER NOT NULL,
+	repair_count INTEGER NOT NULL DEFAULT 0,
+	mj_count INTEGER NOT NULL DEFAULT 0,
+	mn_count INTEGER NOT NULL DEFAULT 0,
+	sv_count INTEGER NOT NULL DEFAULT 0,
+	PRIMARY KEY (ship_id)
+);
+
+-- one index per leaderboard, read in order for top-K
+CREATE INDEX ship_repair_summary_total ON ShipRepairSummary USING BTREE (repair_count DESC, ship_id);
+CREATE INDEX ship_repair_summary_mj ON ShipRepairSummary USING BTREE (mj_count DESC, ship_id);
+CREATE INDEX ship_repair_summary_mn ON ShipRepairSummary USING BTREE (mn_count DESC, ship_id);
+CREATE INDEX ship_repair_summary_sv ON ShipRepairSummary USING BTREE (sv_count DESC, ship_id);
+
+-- date range reports aggregate Repairs directly, over this index
+CREATE INDEX IF NOT EXISTS repairs_repair_date ON Repairs USING BTREE (repair_date);
+
+INSERT INTO ShipRepairSummary (ship_id, repair_count, mj_count, mn_count, sv_count)
+SELECT R.ship_id, COUNT(R.rid),
+	COUNT(R.rid) FILTER (WHERE R.repair_code = 'MJ'),
+	COUNT(R.rid) FILTER (WHERE R.repair_code = 'MN'),
+	COUNT(R.rid) FILTER (WHERE R.repair_code = 'SV')
+FROM Repairs R
+GROUP BY R.ship_id;
+
+-- Adds p_delta repairs with code p_code to a ship's counters.
+CREATE OR REPLACE FUNCTION count_ship_repair(p_ship_id INTEGER, p_code CHAR(2), p_delta INTEGER)
+RETURNS VOID AS $$
+BEGIN
+	INSERT INTO ShipRepairSummary AS S (ship_id, repair_count, mj_count, mn_count, sv_count)
+	VALUES (p_ship_id, p_delta,
+		CASE WHEN p_code = 'MJ' THEN p_delta ELSE 0 END,
+		CASE WHEN p_code = 'MN' THEN p_delta ELSE 0 END,
+		CASE WHEN p_code = 'SV' THEN p_delta ELSE 0 END)
+	ON CONFLICT (ship_id) DO UPDATE SET
+		repair_count = S.repair_count + EXCLUDED.repair_count,
+		mj_count = S.mj_count + EXCLUDED.mj_count,
+		mn_count = S.mn_count + EXCLUDED.mn_count,
+		sv_count = S.sv_count + EXCLUDED.sv_count;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION ship_repair_summary_row()
+RETURNS TRIGGER AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM count_ship_repair(OLD.ship_id, OLD.repair_code, -1);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM count_ship_repair(NEW.ship_id, NEW.repair_code, 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION ship_repair_summary_truncate()
+RETURNS TRIGGER AS $$
+BEGIN
+	TRUNCATE ShipRepairSummary;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- COPY fires the row trigger too, so client and server side loads keep the
+-- summary current; TRUNCATE (reload) empties it.
+DROP TRIGGER IF EXISTS ship_repair_summary_row ON Repairs;
+CREATE TRIGGER ship_repair_summary_row
+AFTER INSERT OR DELETE OR UPDATE OF ship_id, repair_code ON Repairs
+FOR EACH ROW EXECUTE PROCEDURE ship_repair_summary_row();
+
+DROP TRIGGER IF EXISTS ship_repair_summary_truncate ON Repairs;
+CREATE TRIGGER ship_repair_summary_truncate
+AFTER TRUNCATE ON Repairs
+FOR EACH STATEMENT EXECUTE PROCEDURE ship_repair_summary_truncate();
+
+-- Reservations per cruise and status.  Status totals are summed from it by
+-- StatusCounters.java, so no total row is shared by the bookings of
+-- different cruises.  Reservations without a status are not counted.
+DROP TABLE IF EXISTS CruiseStatusSummary CASCADE;--OK
+CREATE TABLE CruiseStatusSummary
+(
+	cruise_id INTEGER NOT NULL,
+	status _STATUS NOT NULL,
+	reservation_count INTEGER NOT NULL DEFAULT 0,
+	PRIMARY KEY (cruise_id, status)
+);
+
+-- the striped status totals of earlier versions are no longer kept
+DROP TABLE IF EXISTS StatusSummary CASCADE;--OK
+
+INSERT INTO CruiseStatusSummary (cruise_id, status, reservation_count)
+SELECT R.cid, R.status, COUNT(R.rnum)
+FROM Reservation R
+WHERE R.status IS NOT NULL
+GROUP BY R.cid, R.status;
+
+-- Adds p_delta reservations with status p_status to a cruise's counters.
+CREATE OR REPLACE FUNCTION count_reservation(p_cid INTEGER, p_status CHAR(1), p_delta INTEGER)
+RETURNS VOID AS $$
+BEGIN
+	IF p_status IS NULL THEN
+		RETURN;
+	END IF;
+	INSERT INTO CruiseStatusSummary AS S (cruise_id, status, reservation_count)
+	VALUES (p_cid, p_status, p_delta)
+	ON CONFLICT (cruise_id, status) DO UPDATE SET
+		reservation_count = S.reservation_count + EXCLUDED.reservation_count;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION status_summary_row()
+RETURNS TRIGGER AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM count_reservation(OLD.cid, OLD.status, -1);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM count_reservation(NEW.cid, NEW.status, 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION status_summary_truncate()
+RETURNS TRIGGER AS $$
+BEGIN
+	TRUNCATE CruiseStatusSummary;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS status_summary_row ON Reservation;
+CREATE TRIGGER status_summary_row
+AFTER INSERT OR DELETE OR UPDATE OF cid, status ON Reservation
+FOR EACH ROW EXECUTE PROCEDURE status_summary_row();
+
+DROP TRIGGER IF EXISTS status_summary_truncate ON Reservation;
+CREATE TRIGGER status_summary_truncate
+AFTER TRUNCATE ON Reservation
+FOR EACH STATEMENT EXECUTE PROCEDURE status_summary_truncate();